@@ -1,5 +1,6 @@
 package nl.huvema.huvsmaerp.config;
 
+import nl.huvema.huvsmaerp.storage.PersistenceService;
 import nl.huvema.huvsmaerp.storage.SeedingService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
@@ -11,8 +12,15 @@ public class StartupService implements CommandLineRunner {
     @Autowired
     private SeedingService seedingService;
 
+    @Autowired
+    private PersistenceService persistenceService;
+
     @Override
     public void run(String... args) throws Exception {
+        if (persistenceService.recover()) {
+            System.out.println("Huvsma ERP application started with data restored from the write-ahead log.");
+            return;
+        }
         // Seed data on startup
         seedingService.seedAllData();
         System.out.println("Huvsma ERP application started with seed data loaded.");
@@ -1,13 +1,18 @@
 package nl.huvema.huvsmaerp.controller;
 
 import nl.huvema.huvsmaerp.dto.ApiResponse;
+import nl.huvema.huvsmaerp.storage.PersistenceService;
 import nl.huvema.huvsmaerp.storage.SeedingService;
+import nl.huvema.huvsmaerp.storage.WriteAheadLog;
+import nl.huvema.huvsmaerp.util.ResponseCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -17,9 +22,20 @@ public class AdminController {
     @Autowired
     private SeedingService seedingService;
 
+    @Autowired
+    private WriteAheadLog writeAheadLog;
+
+    @Autowired
+    private PersistenceService persistenceService;
+
+    @Autowired
+    private ResponseCache responseCache;
+
     @PostMapping("/reset")
     public ResponseEntity<ApiResponse<Map<String, String>>> reset() {
         seedingService.seedAllData();
+        // Versions may start over with the seed data, so cached responses could look current
+        responseCache.clear();
         
         Map<String, String> response = Map.of(
             "message", "Alle data is gereset naar de initiële seed data",
@@ -28,4 +44,24 @@ public class AdminController {
         
         return ResponseEntity.ok(new ApiResponse<>(response));
     }
+
+    @PostMapping("/snapshot")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> snapshot() {
+        try {
+            return ResponseEntity.ok(new ApiResponse<>(persistenceService.snapshot()));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body(new ApiResponse<>(null, List.of("Snapshot maken mislukt: " + e.getMessage())));
+        }
+    }
+
+    @GetMapping("/wal")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> walMetrics() {
+        return ResponseEntity.ok(new ApiResponse<>(writeAheadLog.metrics()));
+    }
+
+    @GetMapping("/cache")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> cacheMetrics() {
+        return ResponseEntity.ok(new ApiResponse<>(responseCache.metrics()));
+    }
 }
@@ -1,5 +1,6 @@
 package nl.huvema.huvsmaerp.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -7,17 +8,22 @@ import jakarta.validation.Valid;
 import nl.huvema.huvsmaerp.dto.*;
 import nl.huvema.huvsmaerp.storage.FactuurRepository;
 import nl.huvema.huvsmaerp.storage.OrderRepository;
+import nl.huvema.huvsmaerp.storage.Query;
+import nl.huvema.huvsmaerp.util.ETagUtil;
+import nl.huvema.huvsmaerp.util.NdjsonUtil;
 import nl.huvema.huvsmaerp.util.PaginationUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/invoices")
@@ -29,6 +35,9 @@ public class FactuurController {
     
     @Autowired
     private OrderRepository orderRepository;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
 
     @GetMapping
     @Operation(summary = "Get all invoices", description = "Retrieve invoices with filtering, pagination and sorting")
@@ -39,50 +48,37 @@ public class FactuurController {
             @Parameter(description = "Filter by date to") @RequestParam(required = false) LocalDate datumTot,
             @Parameter(description = "Page number (0-based)") @RequestParam(defaultValue = "0") int page,
             @Parameter(description = "Page size") @RequestParam(defaultValue = "20") int size,
-            @Parameter(description = "Sort field and direction (e.g., 'factuurDatum,desc')") @RequestParam(required = false) String sort) {
+            @Parameter(description = "Sort field and direction (e.g., 'factuurDatum,desc')") @RequestParam(required = false) String sort,
+            @Parameter(description = "Cursor from meta.nextCursor of the previous page; continues right after it") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Count all matches for meta.totalElements and meta.totalPages; false stops reading once the page is full") @RequestParam(defaultValue = "true") boolean total) {
         
         try {
-            List<FactuurResponseDTO> invoices = factuurRepository.findAll();
-            
-            // Apply filters
-            if (status != null) {
-                invoices = invoices.stream()
-                        .filter(f -> f.getStatus() == status)
-                        .collect(Collectors.toList());
-            }
-            if (orderId != null && !orderId.trim().isEmpty()) {
-                invoices = invoices.stream()
-                        .filter(f -> f.getOrderId().equals(orderId))
-                        .collect(Collectors.toList());
-            }
-            if (datumVan != null) {
-                invoices = invoices.stream()
-                        .filter(f -> !f.getFactuurDatum().isBefore(datumVan))
-                        .collect(Collectors.toList());
-            }
-            if (datumTot != null) {
-                invoices = invoices.stream()
-                        .filter(f -> !f.getFactuurDatum().isAfter(datumTot))
-                        .collect(Collectors.toList());
-            }
+            Query<FactuurResponseDTO> query = filter(status, orderId, datumVan, datumTot);
             
-            // Apply sorting and pagination
-            invoices = PaginationUtil.applySorting(invoices, sort);
-            List<FactuurResponseDTO> pageContent = PaginationUtil.applyPagination(invoices, page, size);
-            
-            return ResponseEntity.ok(PaginationUtil.createResponse(pageContent, page, size, invoices.size()));
+            // Sort and paginate, by offset or by resuming after the cursor of the previous page
+            return ResponseEntity.ok(PaginationUtil.page(query, FactuurResponseDTO.class, factuurRepository::keyOrder, sort, cursor, page, size, total));
             
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of("Fout bij ophalen facturen: " + e.getMessage())));
         }
     }
 
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Export invoices", description = "Stream all invoices that match the filters as NDJSON, one invoice per line in id order, read in short consistent segments")
+    public ResponseEntity<StreamingResponseBody> exportInvoices(
+            @Parameter(description = "Filter by status") @RequestParam(required = false) FactuurStatus status,
+            @Parameter(description = "Filter by order ID") @RequestParam(required = false) String orderId,
+            @Parameter(description = "Filter by date from") @RequestParam(required = false) LocalDate datumVan,
+            @Parameter(description = "Filter by date to") @RequestParam(required = false) LocalDate datumTot) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(NdjsonUtil.stream(filter(status, orderId, datumVan, datumTot), factuurRepository.keyOrder("id", false), objectMapper));
+    }
+
     @GetMapping("/{id}")
     @Operation(summary = "Get invoice by ID", description = "Retrieve a specific invoice by its ID")
     public ResponseEntity<ApiResponse<FactuurResponseDTO>> getInvoice(@PathVariable String id) {
         Optional<FactuurResponseDTO> invoice = factuurRepository.findById(id);
         if (invoice.isPresent()) {
-            return ResponseEntity.ok(new ApiResponse<>(invoice.get()));
+            return ResponseEntity.ok().eTag(ETagUtil.of(invoice.get().getVersie())).body(new ApiResponse<>(invoice.get()));
         } else {
             return ResponseEntity.notFound().build();
         }
@@ -119,13 +115,19 @@ public class FactuurController {
 
     @PutMapping("/{id}/status")
     @Operation(summary = "Update invoice status", description = "Update invoice status (only OPEN -> BETAALD or OPEN -> TE_LAAT)")
-    public ResponseEntity<ApiResponse<FactuurResponseDTO>> updateInvoiceStatus(@PathVariable String id, @RequestBody Map<String, FactuurStatus> statusUpdate) {
-        Optional<FactuurResponseDTO> existingInvoice = factuurRepository.findById(id);
+    public ResponseEntity<ApiResponse<FactuurResponseDTO>> updateInvoiceStatus(@PathVariable String id, @RequestBody Map<String, FactuurStatus> statusUpdate,
+            @Parameter(description = "ETag of the invoice as read; the update is refused when the invoice changed since") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Optional<FactuurResponseDTO> existingInvoice = factuurRepository.findForUpdate(id);
         if (existingInvoice.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
         
         FactuurResponseDTO invoice = existingInvoice.get();
+        long versie = invoice.getVersie();
+        if (!ETagUtil.matches(ifMatch, versie)) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                    .body(new ApiResponse<>(null, List.of("Factuur " + id + " is gewijzigd, huidige versie is " + versie)));
+        }
         FactuurStatus newStatus = statusUpdate.get("status");
         FactuurStatus currentStatus = invoice.getStatus();
         
@@ -135,8 +137,29 @@ public class FactuurController {
                     .body(new ApiResponse<>(null, List.of("Ongeldige status overgang van " + currentStatus + " naar " + newStatus + ". Alleen OPEN -> BETAALD of OPEN -> TE_LAAT toegestaan")));
         }
         
+        // Of two racing transitions from OPEN only the first is stored
         invoice.setStatus(newStatus);
-        FactuurResponseDTO savedInvoice = factuurRepository.save(invoice);
-        return ResponseEntity.ok(new ApiResponse<>(savedInvoice));
+        Optional<FactuurResponseDTO> savedInvoice = factuurRepository.compareAndSave(versie, invoice);
+        if (savedInvoice.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(null, List.of("Factuur " + id + " is tegelijk gewijzigd, probeer het opnieuw")));
+        }
+        return ResponseEntity.ok().eTag(ETagUtil.of(savedInvoice.get().getVersie())).body(new ApiResponse<>(savedInvoice.get()));
+    }
+
+    /** The filters shared by the list and the export. */
+    private Query<FactuurResponseDTO> filter(FactuurStatus status, String orderId, LocalDate datumVan, LocalDate datumTot) {
+        // Collect all filters first; the query drives the scan from the most selective index
+        Query<FactuurResponseDTO> query = factuurRepository.query();
+        if (status != null) {
+            query.where(f -> f.getStatus() == status);
+        }
+        if (orderId != null && !orderId.trim().isEmpty()) {
+            query.where(f -> f.getOrderId().equals(orderId));
+        }
+        if (datumVan != null || datumTot != null) {
+            query.where(factuurRepository.factuurDatumBetween(datumVan, datumTot));
+        }
+        return query;
     }
 }
@@ -1,21 +1,28 @@
 package nl.huvema.huvsmaerp.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import nl.huvema.huvsmaerp.dto.*;
 import nl.huvema.huvsmaerp.storage.KlantRepository;
+import nl.huvema.huvsmaerp.storage.Query;
+import nl.huvema.huvsmaerp.util.JsonFragments;
 import nl.huvema.huvsmaerp.util.PaginationUtil;
+import nl.huvema.huvsmaerp.util.ResponseCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/customers")
@@ -24,36 +31,51 @@ public class KlantController {
     
     @Autowired
     private KlantRepository klantRepository;
+    
+    @Autowired
+    private ResponseCache responseCache;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
 
     @GetMapping
     @Operation(summary = "Get all customers", description = "Retrieve customers with filtering, pagination and sorting")
-    public ResponseEntity<ApiResponse<List<KlantResponseDTO>>> getCustomers(
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = KlantPage.class)),
+            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE, schema = @Schema(implementation = KlantPage.class))})
+    public ResponseEntity<?> getCustomers(
             @Parameter(description = "Filter by company name (contains)") @RequestParam(required = false) String bedrijfsNaam,
             @Parameter(description = "Filter by VAT number (exact)") @RequestParam(required = false) String btwNummer,
             @Parameter(description = "Page number (0-based)") @RequestParam(defaultValue = "0") int page,
             @Parameter(description = "Page size") @RequestParam(defaultValue = "20") int size,
-            @Parameter(description = "Sort field and direction (e.g., 'bedrijfsNaam,asc')") @RequestParam(required = false) String sort) {
+            @Parameter(description = "Sort field and direction (e.g., 'bedrijfsNaam,asc')") @RequestParam(required = false) String sort,
+            @Parameter(description = "Cursor from meta.nextCursor of the previous page; continues right after it") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Count all matches for meta.totalElements and meta.totalPages; false stops reading once the page is full") @RequestParam(defaultValue = "true") boolean total,
+            @Parameter(description = "application/cbor for a CBOR response; JSON otherwise") @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         
         try {
-            List<KlantResponseDTO> customers = klantRepository.findAll();
-            
-            // Apply filters
-            if (bedrijfsNaam != null && !bedrijfsNaam.trim().isEmpty()) {
-                customers = customers.stream()
-                        .filter(k -> k.getBedrijfsNaam().toLowerCase().contains(bedrijfsNaam.toLowerCase()))
-                        .collect(Collectors.toList());
-            }
-            if (btwNummer != null && !btwNummer.trim().isEmpty()) {
-                customers = customers.stream()
-                        .filter(k -> btwNummer.equals(k.getBtwNummer()))
-                        .collect(Collectors.toList());
-            }
-            
-            // Apply sorting and pagination
-            customers = PaginationUtil.applySorting(customers, sort);
-            List<KlantResponseDTO> pageContent = PaginationUtil.applyPagination(customers, page, size);
-            
-            return ResponseEntity.ok(PaginationUtil.createResponse(pageContent, page, size, customers.size()));
+            // Read before the customers, so a write during the read leaves the entry stale rather than wrong
+            long version = klantRepository.version();
+            String key = ResponseCache.key("GET /customers", "bedrijfsNaam", bedrijfsNaam != null ? bedrijfsNaam.toLowerCase() : null,
+                    "btwNummer", btwNummer, "page", page, "size", size, "sort", sort, "cursor", cursor, "total", total);
+            MediaType format = ResponseCache.format(accept);
+            byte[] body = responseCache.get(key, version, format, () -> {
+                // Collect all filters first and evaluate them in a single pass
+                Query<KlantResponseDTO> query = klantRepository.query();
+                if (bedrijfsNaam != null && !bedrijfsNaam.trim().isEmpty()) {
+                    String bedrijfsNaamLower = bedrijfsNaam.toLowerCase();
+                    query.where(k -> k.getBedrijfsNaam().toLowerCase().contains(bedrijfsNaamLower));
+                }
+                if (btwNummer != null && !btwNummer.trim().isEmpty()) {
+                    query.where(k -> btwNummer.equals(k.getBtwNummer()));
+                }
+                
+                // Sort and paginate, by offset or by resuming after the cursor of the previous page
+                ApiResponse<List<KlantResponseDTO>> result = PaginationUtil.page(query, KlantResponseDTO.class, klantRepository::keyOrder, sort, cursor, page, size, total);
+                // For JSON only the envelope is serialized; CBOR cannot embed the cached JSON
+                return format.equals(MediaType.APPLICATION_JSON) ? JsonFragments.page(result, objectMapper) : result;
+            });
+            return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).contentType(format).body(body);
             
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of("Fout bij ophalen klanten: " + e.getMessage())));
@@ -62,10 +84,18 @@ public class KlantController {
 
     @GetMapping("/{id}")
     @Operation(summary = "Get customer by ID", description = "Retrieve a specific customer by its ID")
-    public ResponseEntity<ApiResponse<KlantResponseDTO>> getCustomer(@PathVariable String id) {
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = KlantBody.class)),
+            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE, schema = @Schema(implementation = KlantBody.class))})
+    public ResponseEntity<byte[]> getCustomer(@PathVariable String id,
+            @Parameter(description = "application/cbor for a CBOR response; JSON otherwise") @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        long version = klantRepository.versionOf(id);
         Optional<KlantResponseDTO> customer = klantRepository.findById(id);
         if (customer.isPresent()) {
-            return ResponseEntity.ok(new ApiResponse<>(customer.get()));
+            MediaType format = ResponseCache.format(accept);
+            byte[] body = responseCache.get(ResponseCache.key("GET /customers/{id}", "id", id), version, format,
+                    () -> new ApiResponse<>(format.equals(MediaType.APPLICATION_JSON) ? JsonFragments.of(customer.get(), objectMapper) : customer.get()));
+            return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).contentType(format).body(body);
         } else {
             return ResponseEntity.notFound().build();
         }
@@ -89,7 +119,7 @@ public class KlantController {
     @PutMapping("/{id}")
     @Operation(summary = "Update customer", description = "Update an existing customer")
     public ResponseEntity<ApiResponse<KlantResponseDTO>> updateCustomer(@PathVariable String id, @Valid @RequestBody KlantRequestDTO request) {
-        Optional<KlantResponseDTO> existingCustomer = klantRepository.findById(id);
+        Optional<KlantResponseDTO> existingCustomer = klantRepository.findForUpdate(id);
         if (existingCustomer.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
@@ -120,4 +150,12 @@ public class KlantController {
         klantRepository.deleteById(id);
         return ResponseEntity.ok(new ApiResponse<>(Map.of("message", "Klant succesvol verwijderd")));
     }
+
+    // Response shapes for the API docs; the GETs above return their bodies as bytes
+
+    private static class KlantPage extends ApiResponse<List<KlantResponseDTO>> {
+    }
+
+    private static class KlantBody extends ApiResponse<KlantResponseDTO> {
+    }
 }
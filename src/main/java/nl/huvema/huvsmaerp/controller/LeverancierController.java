@@ -6,6 +6,7 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import nl.huvema.huvsmaerp.dto.*;
 import nl.huvema.huvsmaerp.storage.LeverancierRepository;
+import nl.huvema.huvsmaerp.storage.Query;
 import nl.huvema.huvsmaerp.util.PaginationUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -15,7 +16,6 @@ import org.springframework.web.bind.annotation.*;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/suppliers")
@@ -31,23 +31,20 @@ public class LeverancierController {
             @Parameter(description = "Filter by supplier name (contains)") @RequestParam(required = false) String naam,
             @Parameter(description = "Page number (0-based)") @RequestParam(defaultValue = "0") int page,
             @Parameter(description = "Page size") @RequestParam(defaultValue = "20") int size,
-            @Parameter(description = "Sort field and direction (e.g., 'naam,asc')") @RequestParam(required = false) String sort) {
+            @Parameter(description = "Sort field and direction (e.g., 'naam,asc')") @RequestParam(required = false) String sort,
+            @Parameter(description = "Cursor from meta.nextCursor of the previous page; continues right after it") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Count all matches for meta.totalElements and meta.totalPages; false stops reading once the page is full") @RequestParam(defaultValue = "true") boolean total) {
         
         try {
-            List<LeverancierResponseDTO> suppliers = leverancierRepository.findAll();
-            
-            // Apply filters
+            // Collect all filters first and evaluate them in a single pass
+            Query<LeverancierResponseDTO> query = leverancierRepository.query();
             if (naam != null && !naam.trim().isEmpty()) {
-                suppliers = suppliers.stream()
-                        .filter(s -> s.getNaam().toLowerCase().contains(naam.toLowerCase()))
-                        .collect(Collectors.toList());
+                String naamLower = naam.toLowerCase();
+                query.where(s -> s.getNaam().toLowerCase().contains(naamLower));
             }
             
-            // Apply sorting and pagination
-            suppliers = PaginationUtil.applySorting(suppliers, sort);
-            List<LeverancierResponseDTO> pageContent = PaginationUtil.applyPagination(suppliers, page, size);
-            
-            return ResponseEntity.ok(PaginationUtil.createResponse(pageContent, page, size, suppliers.size()));
+            // Sort and paginate, by offset or by resuming after the cursor of the previous page
+            return ResponseEntity.ok(PaginationUtil.page(query, LeverancierResponseDTO.class, leverancierRepository::keyOrder, sort, cursor, page, size, total));
             
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of("Fout bij ophalen leveranciers: " + e.getMessage())));
@@ -82,7 +79,7 @@ public class LeverancierController {
     @PutMapping("/{id}")
     @Operation(summary = "Update supplier", description = "Update an existing supplier")
     public ResponseEntity<ApiResponse<LeverancierResponseDTO>> updateSupplier(@PathVariable String id, @Valid @RequestBody LeverancierRequestDTO request) {
-        Optional<LeverancierResponseDTO> existingSupplier = leverancierRepository.findById(id);
+        Optional<LeverancierResponseDTO> existingSupplier = leverancierRepository.findForUpdate(id);
         if (existingSupplier.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
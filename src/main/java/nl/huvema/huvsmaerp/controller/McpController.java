@@ -3,6 +3,7 @@ package nl.huvema.huvsmaerp.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import nl.huvema.huvsmaerp.dto.*;
 import nl.huvema.huvsmaerp.storage.*;
+import nl.huvema.huvsmaerp.util.PaginationUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -10,6 +11,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
@@ -184,11 +186,37 @@ public class McpController {
     }
 
     private Object handleProductsSearch(Map<String, Object> arguments) {
-        // This would normally call the ProductController logic
-        // For simplicity, we'll return a basic list
-        return productRepository.findAll().stream()
-                .limit(10)
-                .toList();
+        Map<String, Object> args = arguments != null ? arguments : Map.of();
+        Query<ProductResponseDTO> query = productRepository.query();
+        if (args.get("naam") instanceof String naam && !naam.isBlank()) {
+            String naamLower = naam.toLowerCase();
+            query.where(p -> p.getNaam().toLowerCase().contains(naamLower));
+        }
+        if (args.get("sku") instanceof String sku && !sku.isBlank()) {
+            query.where(productRepository.skuEquals(sku));
+        }
+        if (args.get("categorie") instanceof String categorie && !categorie.isBlank()) {
+            query.where(productRepository.categorieEquals(categorie));
+        }
+        if (args.get("leverancierId") instanceof String leverancierId && !leverancierId.isBlank()) {
+            query.where(productRepository.leverancierIdEquals(leverancierId));
+        }
+        if (args.get("verkoopPrijsMin") instanceof Number min) {
+            BigDecimal verkoopPrijsMin = new BigDecimal(min.toString());
+            query.where(p -> p.getVerkoopPrijs().compareTo(verkoopPrijsMin) >= 0);
+        }
+        if (args.get("verkoopPrijsMax") instanceof Number max) {
+            BigDecimal verkoopPrijsMax = new BigDecimal(max.toString());
+            query.where(p -> p.getVerkoopPrijs().compareTo(verkoopPrijsMax) <= 0);
+        }
+        if (args.get("sort") instanceof String sort) {
+            query.orderBy(PaginationUtil.comparator(ProductResponseDTO.class, sort));
+        }
+        int page = args.get("page") instanceof Number n ? n.intValue() : 0;
+        int size = args.get("size") instanceof Number n ? n.intValue() : 10;
+        
+        // No total is reported here, so an unsorted scan stops as soon as the requested page is filled
+        return query.window((long) page * size, size);
     }
 
     private Object handleOrdersGetById(Map<String, Object> arguments) {
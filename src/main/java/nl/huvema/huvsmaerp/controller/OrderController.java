@@ -1,29 +1,45 @@
 package nl.huvema.huvsmaerp.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
 import nl.huvema.huvsmaerp.dto.*;
 import nl.huvema.huvsmaerp.storage.*;
+import nl.huvema.huvsmaerp.util.ETagUtil;
+import nl.huvema.huvsmaerp.util.Money;
+import nl.huvema.huvsmaerp.util.NdjsonUtil;
 import nl.huvema.huvsmaerp.util.PaginationUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 @RestController
 @RequestMapping("/api/v1/orders")
 @Tag(name = "Orders", description = "Order management endpoints")
 public class OrderController {
     
+    private static final int MAX_BATCH = 10_000;
+    
     @Autowired
     private OrderRepository orderRepository;
     
@@ -32,6 +48,12 @@ public class OrderController {
     
     @Autowired
     private VoorraadbewegingRepository voorraadbewegingRepository;
+    
+    @Autowired
+    private Validator validator;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
 
     @GetMapping
     @Operation(summary = "Get all orders", description = "Retrieve orders with filtering, pagination and sorting")
@@ -44,60 +66,50 @@ public class OrderController {
             @Parameter(description = "Filter by maximum total") @RequestParam(required = false) BigDecimal maxTotaal,
             @Parameter(description = "Page number (0-based)") @RequestParam(defaultValue = "0") int page,
             @Parameter(description = "Page size") @RequestParam(defaultValue = "20") int size,
-            @Parameter(description = "Sort field and direction (e.g., 'orderDatum,desc')") @RequestParam(required = false) String sort) {
+            @Parameter(description = "Sort field and direction (e.g., 'orderDatum,desc')") @RequestParam(required = false) String sort,
+            @Parameter(description = "Cursor from meta.nextCursor of the previous page; continues right after it") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Count all matches for meta.totalElements and meta.totalPages; false stops reading once the page is full") @RequestParam(defaultValue = "true") boolean total,
+            @Parameter(description = "ETag of an earlier response; answered with 304 when no order changed since") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        
+        // Taken before reading, so a change during the read shows up as a new tag on the next poll
+        String etag = ETagUtil.weak(orderRepository.version());
+        if (ETagUtil.notModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
         
         try {
-            List<OrderResponseDTO> orders = orderRepository.findAll();
+            Query<OrderResponseDTO> query = filter(klantId, status, datumVan, datumTot, minTotaal, maxTotaal);
             
-            // Apply filters
-            if (klantId != null && !klantId.trim().isEmpty()) {
-                orders = orders.stream()
-                        .filter(o -> o.getKlantId().equals(klantId))
-                        .collect(Collectors.toList());
-            }
-            if (status != null) {
-                orders = orders.stream()
-                        .filter(o -> o.getStatus() == status)
-                        .collect(Collectors.toList());
-            }
-            if (datumVan != null) {
-                orders = orders.stream()
-                        .filter(o -> !o.getOrderDatum().isBefore(datumVan))
-                        .collect(Collectors.toList());
-            }
-            if (datumTot != null) {
-                orders = orders.stream()
-                        .filter(o -> !o.getOrderDatum().isAfter(datumTot))
-                        .collect(Collectors.toList());
-            }
-            if (minTotaal != null) {
-                orders = orders.stream()
-                        .filter(o -> o.getTotaalIncBtw().compareTo(minTotaal) >= 0)
-                        .collect(Collectors.toList());
-            }
-            if (maxTotaal != null) {
-                orders = orders.stream()
-                        .filter(o -> o.getTotaalIncBtw().compareTo(maxTotaal) <= 0)
-                        .collect(Collectors.toList());
-            }
-            
-            // Apply sorting and pagination
-            orders = PaginationUtil.applySorting(orders, sort);
-            List<OrderResponseDTO> pageContent = PaginationUtil.applyPagination(orders, page, size);
-            
-            return ResponseEntity.ok(PaginationUtil.createResponse(pageContent, page, size, orders.size()));
+            // Sort and paginate, by offset or by resuming after the cursor of the previous page
+            return ResponseEntity.ok().eTag(etag).body(PaginationUtil.page(query, OrderResponseDTO.class, orderRepository::keyOrder, sort, cursor, page, size, total));
             
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of("Fout bij ophalen orders: " + e.getMessage())));
         }
     }
 
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Export orders", description = "Stream all orders that match the filters as NDJSON, one order per line in id order, read in short consistent segments")
+    public ResponseEntity<StreamingResponseBody> exportOrders(
+            @Parameter(description = "Filter by customer ID") @RequestParam(required = false) String klantId,
+            @Parameter(description = "Filter by status") @RequestParam(required = false) OrderStatus status,
+            @Parameter(description = "Filter by date from") @RequestParam(required = false) LocalDate datumVan,
+            @Parameter(description = "Filter by date to") @RequestParam(required = false) LocalDate datumTot,
+            @Parameter(description = "Filter by minimum total") @RequestParam(required = false) BigDecimal minTotaal,
+            @Parameter(description = "Filter by maximum total") @RequestParam(required = false) BigDecimal maxTotaal) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(NdjsonUtil.stream(filter(klantId, status, datumVan, datumTot, minTotaal, maxTotaal), orderRepository.keyOrder("id", false), objectMapper));
+    }
+
     @GetMapping("/{id}")
     @Operation(summary = "Get order by ID", description = "Retrieve a specific order by its ID")
-    public ResponseEntity<ApiResponse<OrderResponseDTO>> getOrder(@PathVariable String id) {
+    public ResponseEntity<ApiResponse<OrderResponseDTO>> getOrder(@PathVariable String id,
+            @Parameter(description = "ETag of an earlier response; answered with 304 when the order did not change since") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         Optional<OrderResponseDTO> order = orderRepository.findById(id);
         if (order.isPresent()) {
-            return ResponseEntity.ok(new ApiResponse<>(order.get()));
+            if (ETagUtil.notModified(ifNoneMatch, ETagUtil.of(order.get().getVersie()))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETagUtil.of(order.get().getVersie())).build();
+            }
+            return ResponseEntity.ok().eTag(ETagUtil.of(order.get().getVersie())).body(new ApiResponse<>(order.get()));
         } else {
             return ResponseEntity.notFound().build();
         }
@@ -107,47 +119,94 @@ public class OrderController {
     @Operation(summary = "Create new order", description = "Create a new order with validation and calculation")
     public ResponseEntity<ApiResponse<OrderResponseDTO>> createOrder(@Valid @RequestBody OrderRequestDTO request) {
         // Validate product IDs and quantities
-        for (OrderRegelDTO regel : request.getRegels()) {
-            Optional<ProductResponseDTO> product = productRepository.findById(regel.getProductId());
-            if (product.isEmpty()) {
-                return ResponseEntity.badRequest()
-                        .body(new ApiResponse<>(null, List.of("Product met ID " + regel.getProductId() + " niet gevonden")));
-            }
-            if (regel.getAantal() <= 0) {
-                return ResponseEntity.badRequest()
-                        .body(new ApiResponse<>(null, List.of("Aantal moet positief zijn voor product " + regel.getProductId())));
+        String error = checkLines(request.getRegels(), productRepository::existsById);
+        if (error != null) {
+            return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of(error)));
+        }
+        
+        OrderResponseDTO savedOrder = orderRepository.save(newOrder(request));
+        return ResponseEntity.status(HttpStatus.CREATED).body(new ApiResponse<>(savedOrder));
+    }
+
+    @PostMapping("/batch")
+    @Operation(summary = "Create orders in bulk", description = "Create up to " + MAX_BATCH + " orders in one call; every order is validated on its own and gets its own result")
+    public ResponseEntity<ApiResponse<List<OrderBatchResultDTO>>> createOrders(@RequestBody List<OrderRequestDTO> requests) {
+        if (requests.size() > MAX_BATCH) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(null, List.of("Batch bevat " + requests.size() + " orders, maximaal " + MAX_BATCH + " toegestaan")));
+        }
+        
+        // Every product is looked up once for the whole batch
+        Map<String, Boolean> products = new HashMap<>();
+        for (OrderRequestDTO request : requests) {
+            if (request != null && request.getRegels() != null) {
+                for (OrderRegelDTO regel : request.getRegels()) {
+                    if (regel != null && regel.getProductId() != null) {
+                        products.computeIfAbsent(regel.getProductId(), productRepository::existsById);
+                    }
+                }
             }
         }
         
-        // Calculate totals
-        BigDecimal totaalExBtw = request.getRegels().stream()
-                .map(OrderRegelDTO::getRegelTotaal)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal btwBedrag = totaalExBtw.multiply(new BigDecimal("0.21"));
-        BigDecimal totaalIncBtw = totaalExBtw.add(btwBedrag);
+        // Validate and price in parallel; the product map is only read from here on
+        OrderBatchResultDTO[] results = new OrderBatchResultDTO[requests.size()];
+        OrderResponseDTO[] prepared = new OrderResponseDTO[requests.size()];
+        IntStream.range(0, requests.size()).parallel().forEach(i -> {
+            OrderRequestDTO request = requests.get(i);
+            List<String> errors = new ArrayList<>();
+            if (request == null) {
+                errors.add("Order ontbreekt");
+            } else {
+                for (ConstraintViolation<OrderRequestDTO> violation : validator.validate(request)) {
+                    errors.add(violation.getPropertyPath() + ": " + violation.getMessage());
+                }
+                if (errors.isEmpty()) {
+                    String error = checkLines(request.getRegels(), id -> products.getOrDefault(id, false));
+                    if (error != null) {
+                        errors.add(error);
+                    }
+                }
+            }
+            if (errors.isEmpty()) {
+                prepared[i] = newOrder(request);
+            } else {
+                results[i] = new OrderBatchResultDTO(i, HttpStatus.BAD_REQUEST.value(), null, errors);
+            }
+        });
         
-        OrderResponseDTO order = new OrderResponseDTO();
-        order.setKlantId(request.getKlantId());
-        order.setOrderDatum(request.getOrderDatum());
-        order.setStatus(OrderStatus.NIEUW);
-        order.setRegels(request.getRegels());
-        order.setTotaalExBtw(totaalExBtw);
-        order.setBtwBedrag(btwBedrag);
-        order.setTotaalIncBtw(totaalIncBtw);
+        // One block of ids and one wait for the log for all valid orders
+        List<OrderResponseDTO> valid = new ArrayList<>();
+        for (OrderResponseDTO order : prepared) {
+            if (order != null) {
+                valid.add(order);
+            }
+        }
+        orderRepository.saveAll(valid);
+        for (int i = 0; i < prepared.length; i++) {
+            if (prepared[i] != null) {
+                results[i] = new OrderBatchResultDTO(i, HttpStatus.CREATED.value(), prepared[i], null);
+            }
+        }
         
-        OrderResponseDTO savedOrder = orderRepository.save(order);
-        return ResponseEntity.status(HttpStatus.CREATED).body(new ApiResponse<>(savedOrder));
+        HttpStatus status = valid.size() == requests.size() ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS;
+        return ResponseEntity.status(status).body(new ApiResponse<>(Arrays.asList(results)));
     }
 
     @PutMapping("/{id}/status")
     @Operation(summary = "Update order status", description = "Update order status with business logic")
-    public ResponseEntity<ApiResponse<OrderResponseDTO>> updateOrderStatus(@PathVariable String id, @RequestBody Map<String, OrderStatus> statusUpdate) {
-        Optional<OrderResponseDTO> existingOrder = orderRepository.findById(id);
+    public ResponseEntity<ApiResponse<OrderResponseDTO>> updateOrderStatus(@PathVariable String id, @RequestBody Map<String, OrderStatus> statusUpdate,
+            @Parameter(description = "ETag of the order as read; the update is refused when the order changed since") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Optional<OrderResponseDTO> existingOrder = orderRepository.findForUpdate(id);
         if (existingOrder.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
         
         OrderResponseDTO order = existingOrder.get();
+        long versie = order.getVersie();
+        if (!ETagUtil.matches(ifMatch, versie)) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                    .body(new ApiResponse<>(null, List.of("Order " + id + " is gewijzigd, huidige versie is " + versie)));
+        }
         OrderStatus newStatus = statusUpdate.get("status");
         OrderStatus currentStatus = order.getStatus();
         
@@ -157,65 +216,157 @@ public class OrderController {
                     .body(new ApiResponse<>(null, List.of("Ongeldige status overgang van " + currentStatus + " naar " + newStatus)));
         }
         
-        order.setStatus(newStatus);
-        
-        // Handle stock reduction when order is delivered
+        // Delivery changes stock, movements and the order together
         if (newStatus == OrderStatus.GELEVERD && currentStatus != OrderStatus.GELEVERD) {
-            for (OrderRegelDTO regel : order.getRegels()) {
-                // Update product stock
-                Optional<ProductResponseDTO> product = productRepository.findById(regel.getProductId());
-                if (product.isPresent()) {
-                    ProductResponseDTO updatedProduct = product.get();
-                    updatedProduct.setVoorraadAantal(updatedProduct.getVoorraadAantal() - regel.getAantal());
-                    productRepository.save(updatedProduct);
-                    
-                    // Create stock movement
-                    VoorraadbewegingResponseDTO beweging = new VoorraadbewegingResponseDTO();
-                    beweging.setProductId(regel.getProductId());
-                    beweging.setMutatieType(MutatieType.UIT);
-                    beweging.setAantal(regel.getAantal());
-                    beweging.setDatum(LocalDate.now());
-                    beweging.setOpmerking("Order " + id + " geleverd");
-                    voorraadbewegingRepository.save(beweging);
-                }
-            }
+            return deliverOrder(order, versie);
         }
         
-        OrderResponseDTO savedOrder = orderRepository.save(order);
-        return ResponseEntity.ok(new ApiResponse<>(savedOrder));
+        // Only the request that still sees the version it validated may make the transition
+        order.setStatus(newStatus);
+        Optional<OrderResponseDTO> savedOrder = orderRepository.compareAndSave(versie, order);
+        if (savedOrder.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(null, List.of("Order " + id + " is tegelijk gewijzigd, probeer het opnieuw")));
+        }
+        return ResponseEntity.ok().eTag(ETagUtil.of(savedOrder.get().getVersie())).body(new ApiResponse<>(savedOrder.get()));
     }
 
     @PostMapping("/{id}/recalculate")
     @Operation(summary = "Recalculate order totals", description = "Recalculate order totals based on current product prices")
     public ResponseEntity<ApiResponse<OrderResponseDTO>> recalculateOrder(@PathVariable String id) {
-        Optional<OrderResponseDTO> existingOrder = orderRepository.findById(id);
+        Optional<OrderResponseDTO> existingOrder = orderRepository.findForUpdate(id);
         if (existingOrder.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
         
         OrderResponseDTO order = existingOrder.get();
+        long versie = order.getVersie();
         
         // Recalculate totals with current product prices
         for (OrderRegelDTO regel : order.getRegels()) {
             Optional<ProductResponseDTO> product = productRepository.findById(regel.getProductId());
             if (product.isPresent()) {
+                // Setting the price recalculates the line total
                 regel.setStuksPrijs(product.get().getVerkoopPrijs());
-                regel.setRegelTotaal(regel.getStuksPrijs().multiply(BigDecimal.valueOf(regel.getAantal())));
             }
         }
+        String error = checkAmounts(order.getRegels());
+        if (error != null) {
+            return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of(error)));
+        }
         
-        BigDecimal totaalExBtw = order.getRegels().stream()
-                .map(OrderRegelDTO::getRegelTotaal)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal btwBedrag = totaalExBtw.multiply(new BigDecimal("0.21"));
-        BigDecimal totaalIncBtw = totaalExBtw.add(btwBedrag);
-        
-        order.setTotaalExBtw(totaalExBtw);
-        order.setBtwBedrag(btwBedrag);
-        order.setTotaalIncBtw(totaalIncBtw);
+        Money.applyTotals(order);
         
-        OrderResponseDTO savedOrder = orderRepository.save(order);
-        return ResponseEntity.ok(new ApiResponse<>(savedOrder));
+        // A status change that landed meanwhile must not be overwritten with the old status
+        Optional<OrderResponseDTO> savedOrder = orderRepository.compareAndSave(versie, order);
+        if (savedOrder.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(null, List.of("Order " + id + " is tegelijk gewijzigd, probeer het opnieuw")));
+        }
+        return ResponseEntity.ok().eTag(ETagUtil.of(savedOrder.get().getVersie())).body(new ApiResponse<>(savedOrder.get()));
+    }
+
+    /**
+     * Issues the stock of every line, stores the order as GELEVERD and writes one movement per line as
+     * one unit of work: all of it lands or none of it does, for readers and for the log alike.
+     * Deliveries of orders that share no products run in parallel.
+     */
+    private ResponseEntity<ApiResponse<OrderResponseDTO>> deliverOrder(OrderResponseDTO order, long versie) {
+        String id = order.getId();
+        Map<String, Integer> demand = new LinkedHashMap<>();
+        for (OrderRegelDTO regel : order.getRegels()) {
+            if (productRepository.existsById(regel.getProductId())) {
+                demand.merge(regel.getProductId(), regel.getAantal(), Integer::sum);
+            }
+        }
+        List<String> keys = new ArrayList<>(demand.keySet());
+        keys.add(id);
+        try (UnitOfWork work = UnitOfWork.lock(keys)) {
+            // A delivery that got the lock first has already moved the order on
+            if (orderRepository.findById(id).map(stored -> stored.getVersie() != versie).orElse(true)) {
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(new ApiResponse<>(null, List.of("Order " + id + " is tegelijk gewijzigd, probeer het opnieuw")));
+            }
+            for (Map.Entry<String, Integer> entry : demand.entrySet()) {
+                String productId = entry.getKey();
+                int aantal = entry.getValue();
+                if (productRepository.stockOf(productId) < aantal) {
+                    return ResponseEntity.badRequest()
+                            .body(new ApiResponse<>(null, List.of("Onvoldoende voorraad voor product " + productId
+                                    + ". Huidige voorraad: " + productRepository.stockOf(productId))));
+                }
+                work.add(productRepository.issueStockWrite(productId, aantal),
+                        "Onvoldoende voorraad voor product " + productId + ", voorraad is tegelijk gewijzigd");
+            }
+            
+            order.setStatus(OrderStatus.GELEVERD);
+            work.add(orderRepository.compareAndSaveWrite(versie, order), "Order " + id + " is tegelijk gewijzigd, probeer het opnieuw");
+            
+            for (OrderRegelDTO regel : order.getRegels()) {
+                if (!demand.containsKey(regel.getProductId())) {
+                    continue;
+                }
+                // Create stock movement
+                VoorraadbewegingResponseDTO beweging = new VoorraadbewegingResponseDTO();
+                beweging.setProductId(regel.getProductId());
+                beweging.setMutatieType(MutatieType.UIT);
+                beweging.setAantal(regel.getAantal());
+                beweging.setDatum(LocalDate.now());
+                beweging.setOpmerking("Order " + id + " geleverd");
+                work.add(voorraadbewegingRepository.saveWrite(beweging));
+            }
+            
+            if (!work.commit()) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(new ApiResponse<>(null, List.of(work.failure())));
+            }
+        }
+        return ResponseEntity.ok().eTag(ETagUtil.of(order.getVersie())).body(new ApiResponse<>(order));
+    }
+
+    /**
+     * First problem with the order lines, or null when every product exists, every quantity is positive
+     * and the amounts are within the bounds of {@link Money}.
+     */
+    private String checkLines(List<OrderRegelDTO> regels, Predicate<String> productExists) {
+        for (OrderRegelDTO regel : regels) {
+            if (!productExists.test(regel.getProductId())) {
+                return "Product met ID " + regel.getProductId() + " niet gevonden";
+            }
+            if (regel.getAantal() <= 0) {
+                return "Aantal moet positief zijn voor product " + regel.getProductId();
+            }
+        }
+        return checkAmounts(regels);
+    }
+
+    /** First line whose price, quantity or running total is out of range, or null. */
+    private String checkAmounts(List<OrderRegelDTO> regels) {
+        long totaal = 0;
+        for (OrderRegelDTO regel : regels) {
+            if (!Money.isValidAantal(regel.getAantal())) {
+                return "Aantal mag maximaal " + Money.MAX_AANTAL + " zijn voor product " + regel.getProductId();
+            }
+            if (!Money.isValidStuksPrijs(regel.getStuksPrijs())) {
+                return "Stuks prijs mag maximaal " + Money.MAX_STUKS_PRIJS + " zijn voor product " + regel.getProductId();
+            }
+            // Each line is at most MAX_AANTAL * MAX_STUKS_PRIJS, so the sum cannot overflow before the check
+            totaal += regel.regelTotaalCents();
+            if (totaal > Money.MAX_TOTAAL_CENTS) {
+                return "Ordertotaal mag maximaal " + Money.toBigDecimal(Money.MAX_TOTAAL_CENTS) + " zijn";
+            }
+        }
+        return null;
+    }
+
+    private OrderResponseDTO newOrder(OrderRequestDTO request) {
+        OrderResponseDTO order = new OrderResponseDTO();
+        order.setKlantId(request.getKlantId());
+        order.setOrderDatum(request.getOrderDatum());
+        order.setStatus(OrderStatus.NIEUW);
+        order.setRegels(request.getRegels());
+        // Totals are summed in cents; BigDecimal only appears again in the response
+        Money.applyTotals(order);
+        return order;
     }
 
     private boolean isValidStatusTransition(OrderStatus from, OrderStatus to) {
@@ -223,4 +374,26 @@ public class OrderController {
                (from == OrderStatus.IN_BEHANDELING && (to == OrderStatus.GELEVERD || to == OrderStatus.GEANNULEERD)) ||
                from == to; // Allow same status
     }
+
+    /** The filters shared by the list and the export. */
+    private Query<OrderResponseDTO> filter(String klantId, OrderStatus status, LocalDate datumVan, LocalDate datumTot, BigDecimal minTotaal, BigDecimal maxTotaal) {
+        // Collect all filters first; the query drives the scan from the most selective index
+        Query<OrderResponseDTO> query = orderRepository.query();
+        if (klantId != null && !klantId.trim().isEmpty()) {
+            query.where(o -> o.getKlantId().equals(klantId));
+        }
+        if (status != null) {
+            query.where(o -> o.getStatus() == status);
+        }
+        if (datumVan != null || datumTot != null) {
+            query.where(orderRepository.orderDatumBetween(datumVan, datumTot));
+        }
+        if (minTotaal != null) {
+            query.where(o -> o.getTotaalIncBtw().compareTo(minTotaal) >= 0);
+        }
+        if (maxTotaal != null) {
+            query.where(o -> o.getTotaalIncBtw().compareTo(maxTotaal) <= 0);
+        }
+        return query;
+    }
 }
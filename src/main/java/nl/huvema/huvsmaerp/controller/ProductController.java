@@ -1,15 +1,25 @@
 package nl.huvema.huvsmaerp.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import nl.huvema.huvsmaerp.dto.*;
+import nl.huvema.huvsmaerp.storage.DuplicateSkuException;
 import nl.huvema.huvsmaerp.storage.ProductRepository;
+import nl.huvema.huvsmaerp.storage.Query;
 import nl.huvema.huvsmaerp.storage.VoorraadbewegingRepository;
+import nl.huvema.huvsmaerp.util.ETagUtil;
+import nl.huvema.huvsmaerp.util.JsonFragments;
 import nl.huvema.huvsmaerp.util.PaginationUtil;
+import nl.huvema.huvsmaerp.util.ResponseCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -17,7 +27,6 @@ import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/products")
@@ -29,10 +38,20 @@ public class ProductController {
     
     @Autowired
     private VoorraadbewegingRepository voorraadbewegingRepository;
+    
+    @Autowired
+    private ResponseCache responseCache;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
 
     @GetMapping
     @Operation(summary = "Get all products", description = "Retrieve products with filtering, pagination and sorting")
-    public ResponseEntity<ApiResponse<List<ProductResponseDTO>>> getProducts(
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ProductPage.class)),
+            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE, schema = @Schema(implementation = ProductPage.class))})
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match")
+    public ResponseEntity<?> getProducts(
             @Parameter(description = "Filter by product name (contains)") @RequestParam(required = false) String naam,
             @Parameter(description = "Filter by SKU") @RequestParam(required = false) String sku,
             @Parameter(description = "Filter by category") @RequestParam(required = false) String categorie,
@@ -41,48 +60,53 @@ public class ProductController {
             @Parameter(description = "Maximum selling price") @RequestParam(required = false) BigDecimal verkoopPrijsMax,
             @Parameter(description = "Page number (0-based)") @RequestParam(defaultValue = "0") int page,
             @Parameter(description = "Page size") @RequestParam(defaultValue = "20") int size,
-            @Parameter(description = "Sort field and direction (e.g., 'naam,asc')") @RequestParam(required = false) String sort) {
+            @Parameter(description = "Sort field and direction (e.g., 'naam,asc')") @RequestParam(required = false) String sort,
+            @Parameter(description = "Cursor from meta.nextCursor of the previous page; continues right after it") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Count all matches for meta.totalElements and meta.totalPages; false stops reading once the page is full") @RequestParam(defaultValue = "true") boolean total,
+            @Parameter(description = "ETag of an earlier response; answered with 304 when no product changed since") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @Parameter(description = "application/cbor for a CBOR response; JSON otherwise") @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        
+        // Taken before reading, so a change during the read shows up as a new tag on the next poll
+        long version = productRepository.version();
+        MediaType format = ResponseCache.format(accept);
+        String etag = ETagUtil.weak(format, version);
+        if (ETagUtil.notModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+        }
         
         try {
-            List<ProductResponseDTO> products = productRepository.findAll();
-            
-            // Apply filters
-            if (naam != null && !naam.trim().isEmpty()) {
-                products = products.stream()
-                        .filter(p -> p.getNaam().toLowerCase().contains(naam.toLowerCase()))
-                        .collect(Collectors.toList());
-            }
-            if (sku != null && !sku.trim().isEmpty()) {
-                products = products.stream()
-                        .filter(p -> p.getSku().equals(sku))
-                        .collect(Collectors.toList());
-            }
-            if (categorie != null && !categorie.trim().isEmpty()) {
-                products = products.stream()
-                        .filter(p -> p.getCategorie().equals(categorie))
-                        .collect(Collectors.toList());
-            }
-            if (leverancierId != null && !leverancierId.trim().isEmpty()) {
-                products = products.stream()
-                        .filter(p -> p.getLeverancierId().equals(leverancierId))
-                        .collect(Collectors.toList());
-            }
-            if (verkoopPrijsMin != null) {
-                products = products.stream()
-                        .filter(p -> p.getVerkoopPrijs().compareTo(verkoopPrijsMin) >= 0)
-                        .collect(Collectors.toList());
-            }
-            if (verkoopPrijsMax != null) {
-                products = products.stream()
-                        .filter(p -> p.getVerkoopPrijs().compareTo(verkoopPrijsMax) <= 0)
-                        .collect(Collectors.toList());
-            }
-            
-            // Apply sorting and pagination
-            products = PaginationUtil.applySorting(products, sort);
-            List<ProductResponseDTO> pageContent = PaginationUtil.applyPagination(products, page, size);
-            
-            return ResponseEntity.ok(PaginationUtil.createResponse(pageContent, page, size, products.size()));
+            String key = ResponseCache.key("GET /products", "naam", naam != null ? naam.toLowerCase() : null, "sku", sku,
+                    "categorie", categorie, "leverancierId", leverancierId, "verkoopPrijsMin", verkoopPrijsMin,
+                    "verkoopPrijsMax", verkoopPrijsMax, "page", page, "size", size, "sort", sort, "cursor", cursor, "total", total);
+            byte[] body = responseCache.get(key, version, format, () -> {
+                // Collect all filters first; the query drives the scan from the most selective index
+                Query<ProductResponseDTO> query = productRepository.query();
+                if (naam != null && !naam.trim().isEmpty()) {
+                    String naamLower = naam.toLowerCase();
+                    query.where(p -> p.getNaam().toLowerCase().contains(naamLower));
+                }
+                if (sku != null && !sku.trim().isEmpty()) {
+                    query.where(productRepository.skuEquals(sku));
+                }
+                if (categorie != null && !categorie.trim().isEmpty()) {
+                    query.where(productRepository.categorieEquals(categorie));
+                }
+                if (leverancierId != null && !leverancierId.trim().isEmpty()) {
+                    query.where(productRepository.leverancierIdEquals(leverancierId));
+                }
+                if (verkoopPrijsMin != null) {
+                    query.where(p -> p.getVerkoopPrijs().compareTo(verkoopPrijsMin) >= 0);
+                }
+                if (verkoopPrijsMax != null) {
+                    query.where(p -> p.getVerkoopPrijs().compareTo(verkoopPrijsMax) <= 0);
+                }
+                
+                // Sort and paginate, by offset or by resuming after the cursor of the previous page
+                ApiResponse<List<ProductResponseDTO>> result = PaginationUtil.page(query, ProductResponseDTO.class, productRepository::keyOrder, sort, cursor, page, size, total);
+                // For JSON only the envelope is serialized; CBOR cannot embed the cached JSON
+                return format.equals(MediaType.APPLICATION_JSON) ? JsonFragments.page(result, objectMapper) : result;
+            });
+            return ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).contentType(format).body(body);
             
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of("Fout bij ophalen producten: " + e.getMessage())));
@@ -91,10 +115,24 @@ public class ProductController {
 
     @GetMapping("/{id}")
     @Operation(summary = "Get product by ID", description = "Retrieve a specific product by its ID")
-    public ResponseEntity<ApiResponse<ProductResponseDTO>> getProduct(@PathVariable String id) {
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ProductBody.class)),
+            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE, schema = @Schema(implementation = ProductBody.class))})
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match")
+    public ResponseEntity<byte[]> getProduct(@PathVariable String id,
+            @Parameter(description = "ETag of an earlier response; answered with 304 when the product did not change since") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @Parameter(description = "application/cbor for a CBOR response; JSON otherwise") @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        long version = productRepository.versionOf(id);
+        MediaType format = ResponseCache.format(accept);
+        String etag = ETagUtil.weak(format, version);
         Optional<ProductResponseDTO> product = productRepository.findById(id);
         if (product.isPresent()) {
-            return ResponseEntity.ok(new ApiResponse<>(product.get()));
+            if (ETagUtil.notModified(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+            }
+            byte[] body = responseCache.get(ResponseCache.key("GET /products/{id}", "id", id), version, format,
+                    () -> new ApiResponse<>(format.equals(MediaType.APPLICATION_JSON) ? JsonFragments.of(product.get(), objectMapper) : product.get()));
+            return ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).contentType(format).body(body);
         } else {
             return ResponseEntity.notFound().build();
         }
@@ -103,12 +141,6 @@ public class ProductController {
     @PostMapping
     @Operation(summary = "Create new product", description = "Create a new product with validation")
     public ResponseEntity<ApiResponse<ProductResponseDTO>> createProduct(@Valid @RequestBody ProductRequestDTO request) {
-        // Check if SKU already exists
-        if (productRepository.findBySku(request.getSku()).isPresent()) {
-            return ResponseEntity.status(HttpStatus.CONFLICT)
-                    .body(new ApiResponse<>(null, List.of("SKU '" + request.getSku() + "' bestaat al")));
-        }
-        
         ProductResponseDTO product = new ProductResponseDTO();
         product.setSku(request.getSku());
         product.setNaam(request.getNaam());
@@ -119,26 +151,26 @@ public class ProductController {
         product.setVoorraadAantal(request.getVoorraadAantal());
         product.setLeverancierId(request.getLeverancierId());
         
-        ProductResponseDTO savedProduct = productRepository.save(product);
-        return ResponseEntity.status(HttpStatus.CREATED).body(new ApiResponse<>(savedProduct));
+        // The repository reserves the SKU atomically, so a concurrent create cannot slip in between
+        try {
+            ProductResponseDTO savedProduct = productRepository.save(product);
+            return ResponseEntity.status(HttpStatus.CREATED).body(new ApiResponse<>(savedProduct));
+        } catch (DuplicateSkuException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(null, List.of(e.getMessage())));
+        }
     }
 
     @PutMapping("/{id}")
     @Operation(summary = "Update product", description = "Update an existing product")
     public ResponseEntity<ApiResponse<ProductResponseDTO>> updateProduct(@PathVariable String id, @Valid @RequestBody ProductRequestDTO request) {
-        Optional<ProductResponseDTO> existingProduct = productRepository.findById(id);
-        if (existingProduct.isEmpty()) {
+        if (!productRepository.existsById(id)) {
             return ResponseEntity.notFound().build();
         }
         
-        // Check if SKU already exists for different product
-        Optional<ProductResponseDTO> skuProduct = productRepository.findBySku(request.getSku());
-        if (skuProduct.isPresent() && !skuProduct.get().getId().equals(id)) {
-            return ResponseEntity.status(HttpStatus.CONFLICT)
-                    .body(new ApiResponse<>(null, List.of("SKU '" + request.getSku() + "' bestaat al")));
-        }
-        
-        ProductResponseDTO product = existingProduct.get();
+        // Build a new instance so a rejected SKU leaves the stored product untouched
+        ProductResponseDTO product = new ProductResponseDTO();
+        product.setId(id);
         product.setSku(request.getSku());
         product.setNaam(request.getNaam());
         product.setBeschrijving(request.getBeschrijving());
@@ -148,8 +180,13 @@ public class ProductController {
         product.setVoorraadAantal(request.getVoorraadAantal());
         product.setLeverancierId(request.getLeverancierId());
         
-        ProductResponseDTO savedProduct = productRepository.save(product);
-        return ResponseEntity.ok(new ApiResponse<>(savedProduct));
+        try {
+            ProductResponseDTO savedProduct = productRepository.save(product);
+            return ResponseEntity.ok(new ApiResponse<>(savedProduct));
+        } catch (DuplicateSkuException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(null, List.of(e.getMessage())));
+        }
     }
 
     @DeleteMapping("/{id}")
@@ -169,20 +206,53 @@ public class ProductController {
 
     @GetMapping("/{id}/stock")
     @Operation(summary = "Get product stock info", description = "Get current stock and last 5 stock movements")
-    public ResponseEntity<ApiResponse<Map<String, Object>>> getProductStock(@PathVariable String id) {
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = StockBody.class)),
+            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE, schema = @Schema(implementation = StockBody.class))})
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match")
+    public ResponseEntity<byte[]> getProductStock(@PathVariable String id,
+            @Parameter(description = "ETag of an earlier response; answered with 304 when neither the stock nor the movements changed since") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @Parameter(description = "application/cbor for a CBOR response; JSON otherwise") @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        // Stock and movements are written separately, so the tag covers both
+        long productVersion = productRepository.versionOf(id);
+        long movementVersion = voorraadbewegingRepository.versionOfProduct(id);
+        MediaType format = ResponseCache.format(accept);
+        String etag = ETagUtil.weak(format, productVersion, movementVersion);
         Optional<ProductResponseDTO> product = productRepository.findById(id);
         if (product.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
+        if (ETagUtil.notModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+        }
         
-        List<VoorraadbewegingResponseDTO> movements = voorraadbewegingRepository.findLast5ByProductId(id);
-        
-        Map<String, Object> stockInfo = Map.of(
-            "productId", id,
-            "huidigVoorraadAantal", product.get().getVoorraadAantal(),
-            "laatsteBewegingen", movements
-        );
-        
-        return ResponseEntity.ok(new ApiResponse<>(stockInfo));
+        byte[] body = responseCache.get(ResponseCache.key("GET /products/{id}/stock", "id", id), new long[] {productVersion, movementVersion}, format, () -> {
+            List<VoorraadbewegingResponseDTO> movements = voorraadbewegingRepository.findLast5ByProductId(id);
+            
+            Map<String, Object> stockInfo = Map.of(
+                "productId", id,
+                "huidigVoorraadAantal", productRepository.stockOf(id),
+                "laatsteBewegingen", movements
+            );
+            return new ApiResponse<>(stockInfo);
+        });
+        return ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).contentType(format).body(body);
+    }
+
+    // Response shapes for the API docs; the GETs above return their bodies as bytes
+
+    private static class ProductPage extends ApiResponse<List<ProductResponseDTO>> {
+    }
+
+    private static class ProductBody extends ApiResponse<ProductResponseDTO> {
+    }
+
+    private static class StockBody extends ApiResponse<StockInfo> {
+    }
+
+    private static class StockInfo {
+        public String productId;
+        public long huidigVoorraadAantal;
+        public List<VoorraadbewegingResponseDTO> laatsteBewegingen;
     }
 }
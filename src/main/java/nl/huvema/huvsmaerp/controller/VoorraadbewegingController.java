@@ -1,23 +1,40 @@
 package nl.huvema.huvsmaerp.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import nl.huvema.huvsmaerp.dto.*;
+import nl.huvema.huvsmaerp.storage.MovementImportService;
 import nl.huvema.huvsmaerp.storage.ProductRepository;
+import nl.huvema.huvsmaerp.storage.Query;
+import nl.huvema.huvsmaerp.storage.UnitOfWork;
 import nl.huvema.huvsmaerp.storage.VoorraadbewegingRepository;
+import nl.huvema.huvsmaerp.util.NdjsonUtil;
 import nl.huvema.huvsmaerp.util.PaginationUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/stock-movements")
@@ -29,6 +46,12 @@ public class VoorraadbewegingController {
     
     @Autowired
     private ProductRepository productRepository;
+    
+    @Autowired
+    private MovementImportService movementImportService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
 
     @GetMapping
     @Operation(summary = "Get all stock movements", description = "Retrieve stock movements with filtering, pagination and sorting")
@@ -39,44 +62,31 @@ public class VoorraadbewegingController {
             @Parameter(description = "Filter by date to") @RequestParam(required = false) LocalDate datumTot,
             @Parameter(description = "Page number (0-based)") @RequestParam(defaultValue = "0") int page,
             @Parameter(description = "Page size") @RequestParam(defaultValue = "20") int size,
-            @Parameter(description = "Sort field and direction (e.g., 'datum,desc')") @RequestParam(required = false) String sort) {
+            @Parameter(description = "Sort field and direction (e.g., 'datum,desc')") @RequestParam(required = false) String sort,
+            @Parameter(description = "Cursor from meta.nextCursor of the previous page; continues right after it") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Count all matches for meta.totalElements and meta.totalPages; false stops reading once the page is full") @RequestParam(defaultValue = "true") boolean total) {
         
         try {
-            List<VoorraadbewegingResponseDTO> movements = voorraadbewegingRepository.findAll();
-            
-            // Apply filters
-            if (productId != null && !productId.trim().isEmpty()) {
-                movements = movements.stream()
-                        .filter(m -> m.getProductId().equals(productId))
-                        .collect(Collectors.toList());
-            }
-            if (mutatieType != null) {
-                movements = movements.stream()
-                        .filter(m -> m.getMutatieType() == mutatieType)
-                        .collect(Collectors.toList());
-            }
-            if (datumVan != null) {
-                movements = movements.stream()
-                        .filter(m -> !m.getDatum().isBefore(datumVan))
-                        .collect(Collectors.toList());
-            }
-            if (datumTot != null) {
-                movements = movements.stream()
-                        .filter(m -> !m.getDatum().isAfter(datumTot))
-                        .collect(Collectors.toList());
-            }
-            
-            // Apply sorting and pagination
-            movements = PaginationUtil.applySorting(movements, sort);
-            List<VoorraadbewegingResponseDTO> pageContent = PaginationUtil.applyPagination(movements, page, size);
+            Query<VoorraadbewegingResponseDTO> query = filter(productId, mutatieType, datumVan, datumTot);
             
-            return ResponseEntity.ok(PaginationUtil.createResponse(pageContent, page, size, movements.size()));
+            // Sort and paginate, by offset or by resuming after the cursor of the previous page
+            return ResponseEntity.ok(PaginationUtil.page(query, VoorraadbewegingResponseDTO.class, voorraadbewegingRepository::keyOrder, sort, cursor, page, size, total));
             
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of("Fout bij ophalen voorraadbewegingen: " + e.getMessage())));
         }
     }
 
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Export stock movements", description = "Stream all stock movements that match the filters as NDJSON, one movement per line in id order, read in short consistent segments")
+    public ResponseEntity<StreamingResponseBody> exportStockMovements(
+            @Parameter(description = "Filter by product ID") @RequestParam(required = false) String productId,
+            @Parameter(description = "Filter by movement type") @RequestParam(required = false) MutatieType mutatieType,
+            @Parameter(description = "Filter by date from") @RequestParam(required = false) LocalDate datumVan,
+            @Parameter(description = "Filter by date to") @RequestParam(required = false) LocalDate datumTot) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(NdjsonUtil.stream(filter(productId, mutatieType, datumVan, datumTot), voorraadbewegingRepository.keyOrder("id", false), objectMapper));
+    }
+
     @GetMapping("/{id}")
     @Operation(summary = "Get stock movement by ID", description = "Retrieve a specific stock movement by its ID")
     public ResponseEntity<ApiResponse<VoorraadbewegingResponseDTO>> getStockMovement(@PathVariable String id) {
@@ -91,50 +101,116 @@ public class VoorraadbewegingController {
     @PostMapping
     @Operation(summary = "Create new stock movement", description = "Create a new stock movement and update product stock")
     public ResponseEntity<ApiResponse<VoorraadbewegingResponseDTO>> createStockMovement(@Valid @RequestBody VoorraadbewegingRequestDTO request) {
-        // Validate product exists
-        Optional<ProductResponseDTO> product = productRepository.findById(request.getProductId());
-        if (product.isEmpty()) {
-            return ResponseEntity.badRequest()
-                    .body(new ApiResponse<>(null, List.of("Product met ID " + request.getProductId() + " niet gevonden")));
-        }
-        
-        // Create stock movement
+        String productId = request.getProductId();
         VoorraadbewegingResponseDTO movement = new VoorraadbewegingResponseDTO();
-        movement.setProductId(request.getProductId());
+        movement.setProductId(productId);
         movement.setMutatieType(request.getMutatieType());
         movement.setAantal(request.getAantal());
         movement.setDatum(request.getDatum());
         movement.setOpmerking(request.getOpmerking());
-        
-        VoorraadbewegingResponseDTO savedMovement = voorraadbewegingRepository.save(movement);
-        
-        // Update product stock
-        ProductResponseDTO updatedProduct = product.get();
-        int currentStock = updatedProduct.getVoorraadAantal();
-        int newStock;
-        
-        switch (request.getMutatieType()) {
-            case IN:
-                newStock = currentStock + request.getAantal();
-                break;
-            case UIT:
-                newStock = currentStock - request.getAantal();
-                if (newStock < 0) {
+
+        // The stock change and the movement commit together, so a rejected UIT books neither
+        try (UnitOfWork work = UnitOfWork.lock(List.of(productId))) {
+            switch (request.getMutatieType()) {
+                case IN:
+                    work.add(productRepository.receiveStockWrite(productId, request.getAantal()));
+                    break;
+                case UIT:
+                    work.add(productRepository.issueStockWrite(productId, request.getAantal()));
+                    break;
+                case CORRECTIE:
+                    work.add(productRepository.correctStockWrite(productId, request.getAantal()));
+                    break;
+                default:
                     return ResponseEntity.badRequest()
-                            .body(new ApiResponse<>(null, List.of("Onvoldoende voorraad. Huidige voorraad: " + currentStock)));
-                }
-                break;
-            case CORRECTIE:
-                newStock = request.getAantal();
-                break;
-            default:
-                return ResponseEntity.badRequest()
-                        .body(new ApiResponse<>(null, List.of("Onbekend mutatie type")));
+                            .body(new ApiResponse<>(null, List.of("Onbekend mutatie type")));
+            }
+            work.add(voorraadbewegingRepository.saveWrite(movement));
+            if (!work.commit()) {
+                String error = productRepository.existsById(productId)
+                        ? "Onvoldoende voorraad. Huidige voorraad: " + productRepository.stockOf(productId)
+                        : "Product met ID " + productId + " niet gevonden";
+                return ResponseEntity.badRequest().body(new ApiResponse<>(null, List.of(error)));
+            }
         }
-        
-        updatedProduct.setVoorraadAantal(newStock);
-        productRepository.save(updatedProduct);
-        
-        return ResponseEntity.status(HttpStatus.CREATED).body(new ApiResponse<>(savedMovement));
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(new ApiResponse<>(movement));
+    }
+
+    @PostMapping(value = "/import", consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @Operation(summary = "Import stock movements", description = "Stream a CSV (productId,mutatieType,aantal,datum,opmerking) or NDJSON file of movements; "
+            + "every valid line is booked and the stock updated, invalid lines are reported by line number. "
+            + "With Accept: application/x-ndjson the response streams one line per rejected line, a progress line per chunk and a final result line")
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(responseCode = "200", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = VoorraadImportResultDTO.class)),
+            @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = VoorraadImportEventDTO.class))})
+    public ResponseEntity<?> importStockMovements(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept, InputStream body) throws IOException {
+        // The body is read line by line while it arrives; it is never held in memory as a whole
+        MovementImportService.Format format = MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.parseMediaType("text/csv"))
+                ? MovementImportService.Format.CSV : MovementImportService.Format.NDJSON;
+        InputStreamReader source = new InputStreamReader(body, StandardCharsets.UTF_8);
+        if (accept != null && MediaType.parseMediaTypes(accept).stream()
+                .anyMatch(type -> !type.isWildcardType() && type.isCompatibleWith(MediaType.APPLICATION_NDJSON))) {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(streamImport(source, format));
+        }
+        VoorraadImportResultDTO result = movementImportService.importMovements(source, format);
+        return ResponseEntity.ok(new ApiResponse<>(result, result.getRejected() > 0
+                ? List.of(result.getRejected() + " van " + result.getLines() + " regels afgewezen") : null));
+    }
+
+    /** Runs the import while the response goes out, writing every event as it happens; progress flushes the lines so far. */
+    private StreamingResponseBody streamImport(InputStreamReader source, MovementImportService.Format format) {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                generator.setRootValueSeparator(null);
+                VoorraadImportResultDTO result = movementImportService.importMovements(source, format, new MovementImportService.Listener() {
+                    @Override
+                    public void rejected(long number, String error) {
+                        write(new VoorraadImportEventDTO("rejected", number, error, null, null, null), false);
+                    }
+
+                    @Override
+                    public void progress(VoorraadImportResultDTO result) {
+                        write(new VoorraadImportEventDTO("progress", null, null, result.getLines(), result.getImported(), result.getRejected()), true);
+                    }
+
+                    private void write(VoorraadImportEventDTO event, boolean flush) {
+                        try {
+                            writer.writeValue(generator, event);
+                            generator.writeRaw('\n');
+                            if (flush) {
+                                generator.flush();
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+                writer.writeValue(generator, new VoorraadImportEventDTO("result", null, null, result.getLines(), result.getImported(), result.getRejected()));
+                generator.writeRaw('\n');
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    /** The filters shared by the list and the export. */
+    private Query<VoorraadbewegingResponseDTO> filter(String productId, MutatieType mutatieType, LocalDate datumVan, LocalDate datumTot) {
+        // Collect all filters first; the query drives the scan from the most selective index
+        Query<VoorraadbewegingResponseDTO> query = voorraadbewegingRepository.query();
+        if (productId != null && !productId.trim().isEmpty()) {
+            query.where(voorraadbewegingRepository.productIdEquals(productId));
+        }
+        if (mutatieType != null) {
+            query.where(voorraadbewegingRepository.mutatieTypeEquals(mutatieType));
+        }
+        if (datumVan != null || datumTot != null) {
+            query.where(voorraadbewegingRepository.datumBetween(datumVan, datumTot));
+        }
+        return query;
     }
 }
@@ -1,5 +1,7 @@
 package nl.huvema.huvsmaerp.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 public class ApiResponse<T> {
@@ -36,13 +38,16 @@ public class ApiResponse<T> {
     public void setErrors(List<String> errors) { this.errors = errors; }
 
     // Meta class for pagination
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public static class Meta {
-        private int page;
+        // page is left out for cursor pages, the totals for every page that is not counted
+        private Integer page;
         private int size;
-        private long totalElements;
-        private int totalPages;
+        private Long totalElements;
+        private Integer totalPages;
         private boolean first;
         private boolean last;
+        private String nextCursor;
 
         public Meta() {}
 
@@ -56,22 +61,25 @@ public class ApiResponse<T> {
         }
 
         // Getters and Setters
-        public int getPage() { return page; }
-        public void setPage(int page) { this.page = page; }
+        public Integer getPage() { return page; }
+        public void setPage(Integer page) { this.page = page; }
 
         public int getSize() { return size; }
         public void setSize(int size) { this.size = size; }
 
-        public long getTotalElements() { return totalElements; }
-        public void setTotalElements(long totalElements) { this.totalElements = totalElements; }
+        public Long getTotalElements() { return totalElements; }
+        public void setTotalElements(Long totalElements) { this.totalElements = totalElements; }
 
-        public int getTotalPages() { return totalPages; }
-        public void setTotalPages(int totalPages) { this.totalPages = totalPages; }
+        public Integer getTotalPages() { return totalPages; }
+        public void setTotalPages(Integer totalPages) { this.totalPages = totalPages; }
 
         public boolean isFirst() { return first; }
         public void setFirst(boolean first) { this.first = first; }
 
         public boolean isLast() { return last; }
         public void setLast(boolean last) { this.last = last; }
+
+        public String getNextCursor() { return nextCursor; }
+        public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
     }
 }
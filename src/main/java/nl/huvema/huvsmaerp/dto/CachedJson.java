@@ -0,0 +1,12 @@
+package nl.huvema.huvsmaerp.dto;
+
+/**
+ * Record that keeps its own JSON once it has been written. Only valid because stored records are never
+ * modified: a save installs a new instance, which starts without cached JSON.
+ */
+public interface CachedJson {
+
+    byte[] cachedJson();
+
+    void cacheJson(byte[] json);
+}
@@ -11,6 +11,7 @@ public class FactuurResponseDTO {
     private LocalDate vervalDatum;
     private FactuurStatus status;
     private BigDecimal totaalIncBtw;
+    private long versie;
 
     // Constructors
     public FactuurResponseDTO() {}
@@ -43,4 +44,7 @@ public class FactuurResponseDTO {
 
     public BigDecimal getTotaalIncBtw() { return totaalIncBtw; }
     public void setTotaalIncBtw(BigDecimal totaalIncBtw) { this.totaalIncBtw = totaalIncBtw; }
+
+    public long getVersie() { return versie; }
+    public void setVersie(long versie) { this.versie = versie; }
 }
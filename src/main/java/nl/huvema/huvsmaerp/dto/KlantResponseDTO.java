@@ -1,6 +1,6 @@
 package nl.huvema.huvsmaerp.dto;
 
-public class KlantResponseDTO {
+public class KlantResponseDTO implements CachedJson {
     
     private String id;
     private String bedrijfsNaam;
@@ -10,6 +10,9 @@ public class KlantResponseDTO {
     private String factuurAdres;
     private String verzendAdres;
 
+    // Not a property: transient and without getter, so Jackson and the codecs leave it alone
+    private transient volatile byte[] json;
+
     // Constructors
     public KlantResponseDTO() {}
 
@@ -45,4 +48,10 @@ public class KlantResponseDTO {
 
     public String getVerzendAdres() { return verzendAdres; }
     public void setVerzendAdres(String verzendAdres) { this.verzendAdres = verzendAdres; }
+
+    @Override
+    public byte[] cachedJson() { return json; }
+
+    @Override
+    public void cacheJson(byte[] json) { this.json = json; }
 }
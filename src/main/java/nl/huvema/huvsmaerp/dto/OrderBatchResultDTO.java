@@ -0,0 +1,35 @@
+package nl.huvema.huvsmaerp.dto;
+
+import java.util.List;
+
+public class OrderBatchResultDTO {
+    
+    // Position of the order in the request array
+    private int index;
+    private int status;
+    private OrderResponseDTO order;
+    private List<String> errors;
+
+    // Constructors
+    public OrderBatchResultDTO() {}
+
+    public OrderBatchResultDTO(int index, int status, OrderResponseDTO order, List<String> errors) {
+        this.index = index;
+        this.status = status;
+        this.order = order;
+        this.errors = errors;
+    }
+
+    // Getters and Setters
+    public int getIndex() { return index; }
+    public void setIndex(int index) { this.index = index; }
+
+    public int getStatus() { return status; }
+    public void setStatus(int status) { this.status = status; }
+
+    public OrderResponseDTO getOrder() { return order; }
+    public void setOrder(OrderResponseDTO order) { this.order = order; }
+
+    public List<String> getErrors() { return errors; }
+    public void setErrors(List<String> errors) { this.errors = errors; }
+}
@@ -3,10 +3,14 @@ package nl.huvema.huvsmaerp.dto;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
+import nl.huvema.huvsmaerp.util.Money;
+
 import java.math.BigDecimal;
 
 public class OrderRegelDTO {
     
+    private static final long NO_AMOUNT = Long.MIN_VALUE;
+    
     @NotBlank(message = "Product ID is verplicht")
     private String productId;
     
@@ -18,7 +22,9 @@ public class OrderRegelDTO {
     @Positive(message = "Stuks prijs moet positief zijn")
     private BigDecimal stuksPrijs;
     
-    private BigDecimal regelTotaal;
+    // Unit price in micros, line total in cents; see Money for the rounding rules
+    private long stuksPrijsMicros = NO_AMOUNT;
+    private long regelTotaalCents = NO_AMOUNT;
 
     // Constructors
     public OrderRegelDTO() {}
@@ -26,8 +32,7 @@ public class OrderRegelDTO {
     public OrderRegelDTO(String productId, Integer aantal, BigDecimal stuksPrijs) {
         this.productId = productId;
         this.aantal = aantal;
-        this.stuksPrijs = stuksPrijs;
-        this.regelTotaal = stuksPrijs.multiply(BigDecimal.valueOf(aantal));
+        setStuksPrijs(stuksPrijs);
     }
 
     // Getters and Setters
@@ -37,19 +42,32 @@ public class OrderRegelDTO {
     public Integer getAantal() { return aantal; }
     public void setAantal(Integer aantal) { 
         this.aantal = aantal;
-        if (this.stuksPrijs != null) {
-            this.regelTotaal = this.stuksPrijs.multiply(BigDecimal.valueOf(aantal));
-        }
+        recalculate();
     }
 
     public BigDecimal getStuksPrijs() { return stuksPrijs; }
     public void setStuksPrijs(BigDecimal stuksPrijs) { 
         this.stuksPrijs = stuksPrijs;
-        if (this.aantal != null) {
-            this.regelTotaal = stuksPrijs.multiply(BigDecimal.valueOf(aantal));
-        }
+        // Out-of-range prices get no line total; the order check refuses them with a 400
+        this.stuksPrijsMicros = stuksPrijs != null && Money.isValidStuksPrijs(stuksPrijs) ? Money.toMicros(stuksPrijs) : NO_AMOUNT;
+        recalculate();
+    }
+
+    public BigDecimal getRegelTotaal() {
+        return regelTotaalCents != NO_AMOUNT ? Money.toBigDecimal(regelTotaalCents) : null;
+    }
+    public void setRegelTotaal(BigDecimal regelTotaal) {
+        this.regelTotaalCents = regelTotaal != null ? Money.toCents(regelTotaal) : NO_AMOUNT;
+    }
+
+    /** Line total in cents, 0 when the line has no price or quantity. */
+    public long regelTotaalCents() {
+        return regelTotaalCents != NO_AMOUNT ? regelTotaalCents : 0;
     }
 
-    public BigDecimal getRegelTotaal() { return regelTotaal; }
-    public void setRegelTotaal(BigDecimal regelTotaal) { this.regelTotaal = regelTotaal; }
+    private void recalculate() {
+        if (stuksPrijsMicros != NO_AMOUNT && aantal != null && Money.isValidAantal(aantal)) {
+            this.regelTotaalCents = Money.lineTotal(stuksPrijsMicros, aantal);
+        }
+    }
 }
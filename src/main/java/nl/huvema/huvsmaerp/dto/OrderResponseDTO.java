@@ -14,6 +14,7 @@ public class OrderResponseDTO {
     private BigDecimal totaalExBtw;
     private BigDecimal btwBedrag;
     private BigDecimal totaalIncBtw;
+    private long versie;
 
     // Constructors
     public OrderResponseDTO() {}
@@ -55,4 +56,7 @@ public class OrderResponseDTO {
 
     public BigDecimal getTotaalIncBtw() { return totaalIncBtw; }
     public void setTotaalIncBtw(BigDecimal totaalIncBtw) { this.totaalIncBtw = totaalIncBtw; }
+
+    public long getVersie() { return versie; }
+    public void setVersie(long versie) { this.versie = versie; }
 }
@@ -2,7 +2,7 @@ package nl.huvema.huvsmaerp.dto;
 
 import java.math.BigDecimal;
 
-public class ProductResponseDTO {
+public class ProductResponseDTO implements CachedJson {
     
     private String id;
     private String sku;
@@ -14,6 +14,9 @@ public class ProductResponseDTO {
     private Integer voorraadAantal;
     private String leverancierId;
 
+    // Not a property: transient and without getter, so Jackson and the codecs leave it alone
+    private transient volatile byte[] json;
+
     // Constructors
     public ProductResponseDTO() {}
 
@@ -58,4 +61,10 @@ public class ProductResponseDTO {
 
     public String getLeverancierId() { return leverancierId; }
     public void setLeverancierId(String leverancierId) { this.leverancierId = leverancierId; }
+
+    @Override
+    public byte[] cachedJson() { return json; }
+
+    @Override
+    public void cacheJson(byte[] json) { this.json = json; }
 }
@@ -0,0 +1,47 @@
+package nl.huvema.huvsmaerp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/** One line of a streamed import: a rejected line, the progress so far or the final result. */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class VoorraadImportEventDTO {
+
+    // rejected, progress or result
+    private String type;
+    private Long regel;
+    private String error;
+    private Long lines;
+    private Long imported;
+    private Long rejected;
+
+    // Constructors
+    public VoorraadImportEventDTO() {}
+
+    public VoorraadImportEventDTO(String type, Long regel, String error, Long lines, Long imported, Long rejected) {
+        this.type = type;
+        this.regel = regel;
+        this.error = error;
+        this.lines = lines;
+        this.imported = imported;
+        this.rejected = rejected;
+    }
+
+    // Getters and Setters
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public Long getRegel() { return regel; }
+    public void setRegel(Long regel) { this.regel = regel; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public Long getLines() { return lines; }
+    public void setLines(Long lines) { this.lines = lines; }
+
+    public Long getImported() { return imported; }
+    public void setImported(Long imported) { this.imported = imported; }
+
+    public Long getRejected() { return rejected; }
+    public void setRejected(Long rejected) { this.rejected = rejected; }
+}
@@ -0,0 +1,29 @@
+package nl.huvema.huvsmaerp.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class VoorraadImportResultDTO {
+    
+    private long lines;
+    private long imported;
+    private long rejected;
+    // Only the first errors are kept, so the result stays small for any file size
+    private List<String> errors = new ArrayList<>();
+
+    // Constructors
+    public VoorraadImportResultDTO() {}
+
+    // Getters and Setters
+    public long getLines() { return lines; }
+    public void setLines(long lines) { this.lines = lines; }
+
+    public long getImported() { return imported; }
+    public void setImported(long imported) { this.imported = imported; }
+
+    public long getRejected() { return rejected; }
+    public void setRejected(long rejected) { this.rejected = rejected; }
+
+    public List<String> getErrors() { return errors; }
+    public void setErrors(List<String> errors) { this.errors = errors; }
+}
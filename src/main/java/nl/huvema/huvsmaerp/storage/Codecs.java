@@ -0,0 +1,252 @@
+package nl.huvema.huvsmaerp.storage;
+
+import nl.huvema.huvsmaerp.dto.*;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Binary codecs for the entities. Nullable fields are written with a leading presence marker. */
+final class Codecs {
+
+    private Codecs() {
+    }
+
+    static final EntityCodec<ProductResponseDTO> PRODUCT = new EntityCodec<>() {
+        @Override
+        public void write(DataOutput out, ProductResponseDTO p) throws IOException {
+            writeString(out, p.getId());
+            writeString(out, p.getSku());
+            writeString(out, p.getNaam());
+            writeString(out, p.getBeschrijving());
+            writeString(out, p.getCategorie());
+            writeDecimal(out, p.getInkoopPrijs());
+            writeDecimal(out, p.getVerkoopPrijs());
+            writeInteger(out, p.getVoorraadAantal());
+            writeString(out, p.getLeverancierId());
+        }
+
+        @Override
+        public ProductResponseDTO read(DataInput in) throws IOException {
+            return new ProductResponseDTO(readString(in), readString(in), readString(in), readString(in),
+                    readString(in), readDecimal(in), readDecimal(in), readInteger(in), readString(in));
+        }
+    };
+
+    static final EntityCodec<KlantResponseDTO> KLANT = new EntityCodec<>() {
+        @Override
+        public void write(DataOutput out, KlantResponseDTO k) throws IOException {
+            writeString(out, k.getId());
+            writeString(out, k.getBedrijfsNaam());
+            writeString(out, k.getBtwNummer());
+            writeString(out, k.getEmail());
+            writeString(out, k.getTelefoon());
+            writeString(out, k.getFactuurAdres());
+            writeString(out, k.getVerzendAdres());
+        }
+
+        @Override
+        public KlantResponseDTO read(DataInput in) throws IOException {
+            return new KlantResponseDTO(readString(in), readString(in), readString(in), readString(in),
+                    readString(in), readString(in), readString(in));
+        }
+    };
+
+    static final EntityCodec<LeverancierResponseDTO> LEVERANCIER = new EntityCodec<>() {
+        @Override
+        public void write(DataOutput out, LeverancierResponseDTO l) throws IOException {
+            writeString(out, l.getId());
+            writeString(out, l.getNaam());
+            writeString(out, l.getKvkNummer());
+            writeString(out, l.getContactEmail());
+            writeString(out, l.getTelefoon());
+            writeString(out, l.getAdres());
+        }
+
+        @Override
+        public LeverancierResponseDTO read(DataInput in) throws IOException {
+            return new LeverancierResponseDTO(readString(in), readString(in), readString(in), readString(in),
+                    readString(in), readString(in));
+        }
+    };
+
+    static final EntityCodec<OrderResponseDTO> ORDER = new EntityCodec<>() {
+        @Override
+        public void write(DataOutput out, OrderResponseDTO o) throws IOException {
+            writeString(out, o.getId());
+            writeString(out, o.getKlantId());
+            writeDate(out, o.getOrderDatum());
+            writeString(out, o.getStatus() != null ? o.getStatus().name() : null);
+            List<OrderRegelDTO> regels = o.getRegels();
+            out.writeInt(regels != null ? regels.size() : -1);
+            if (regels != null) {
+                for (OrderRegelDTO regel : regels) {
+                    writeString(out, regel.getProductId());
+                    writeInteger(out, regel.getAantal());
+                    writeDecimal(out, regel.getStuksPrijs());
+                    writeDecimal(out, regel.getRegelTotaal());
+                }
+            }
+            writeDecimal(out, o.getTotaalExBtw());
+            writeDecimal(out, o.getBtwBedrag());
+            writeDecimal(out, o.getTotaalIncBtw());
+            out.writeLong(o.getVersie());
+        }
+
+        @Override
+        public OrderResponseDTO read(DataInput in) throws IOException {
+            String id = readString(in);
+            String klantId = readString(in);
+            LocalDate orderDatum = readDate(in);
+            String status = readString(in);
+            int count = in.readInt();
+            List<OrderRegelDTO> regels = count < 0 ? null : new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                OrderRegelDTO regel = new OrderRegelDTO();
+                regel.setProductId(readString(in));
+                regel.setAantal(readInteger(in));
+                BigDecimal stuksPrijs = readDecimal(in);
+                if (stuksPrijs != null) {
+                    regel.setStuksPrijs(stuksPrijs);
+                }
+                regel.setRegelTotaal(readDecimal(in));
+                regels.add(regel);
+            }
+            OrderResponseDTO order = new OrderResponseDTO(id, klantId, orderDatum, status != null ? OrderStatus.valueOf(status) : null,
+                    regels, readDecimal(in), readDecimal(in), readDecimal(in));
+            order.setVersie(readVersie(in));
+            return order;
+        }
+    };
+
+    static final EntityCodec<VoorraadbewegingResponseDTO> BEWEGING = new EntityCodec<>() {
+        @Override
+        public void write(DataOutput out, VoorraadbewegingResponseDTO b) throws IOException {
+            writeString(out, b.getId());
+            writeString(out, b.getProductId());
+            writeString(out, b.getMutatieType() != null ? b.getMutatieType().name() : null);
+            writeInteger(out, b.getAantal());
+            writeDate(out, b.getDatum());
+            writeString(out, b.getOpmerking());
+        }
+
+        @Override
+        public VoorraadbewegingResponseDTO read(DataInput in) throws IOException {
+            String id = readString(in);
+            String productId = readString(in);
+            String type = readString(in);
+            return new VoorraadbewegingResponseDTO(id, productId, type != null ? MutatieType.valueOf(type) : null,
+                    readInteger(in), readDate(in), readString(in));
+        }
+    };
+
+    static final EntityCodec<FactuurResponseDTO> FACTUUR = new EntityCodec<>() {
+        @Override
+        public void write(DataOutput out, FactuurResponseDTO f) throws IOException {
+            writeString(out, f.getId());
+            writeString(out, f.getOrderId());
+            writeDate(out, f.getFactuurDatum());
+            writeDate(out, f.getVervalDatum());
+            writeString(out, f.getStatus() != null ? f.getStatus().name() : null);
+            writeDecimal(out, f.getTotaalIncBtw());
+            out.writeLong(f.getVersie());
+        }
+
+        @Override
+        public FactuurResponseDTO read(DataInput in) throws IOException {
+            String id = readString(in);
+            String orderId = readString(in);
+            LocalDate factuurDatum = readDate(in);
+            LocalDate vervalDatum = readDate(in);
+            String status = readString(in);
+            FactuurResponseDTO factuur = new FactuurResponseDTO(id, orderId, factuurDatum, vervalDatum,
+                    status != null ? FactuurStatus.valueOf(status) : null, readDecimal(in));
+            factuur.setVersie(readVersie(in));
+            return factuur;
+        }
+    };
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** The version is the last field of a record; records written before it existed read as version 0. */
+    private static long readVersie(DataInput in) throws IOException {
+        boolean present;
+        if (in instanceof ByteBufferInput buffer) {
+            present = buffer.hasRemaining();
+        } else if (in instanceof DataInputStream stream) {
+            present = stream.available() > 0;
+        } else {
+            present = true;
+        }
+        return present ? in.readLong() : 0;
+    }
+
+    private static void writeDecimal(DataOutput out, BigDecimal value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        if (unscaled.length > 255) {
+            throw new IOException("Bedrag te groot voor opslag: " + value);
+        }
+        out.writeByte(unscaled.length);
+        out.write(unscaled);
+        out.writeInt(value.scale());
+    }
+
+    private static BigDecimal readDecimal(DataInput in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length == 0) {
+            return null;
+        }
+        byte[] unscaled = new byte[length];
+        in.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), in.readInt());
+    }
+
+    private static void writeInteger(DataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeDate(DataOutput out, LocalDate value) throws IOException {
+        out.writeLong(value != null ? value.toEpochDay() : Long.MIN_VALUE);
+    }
+
+    private static LocalDate readDate(DataInput in) throws IOException {
+        long day = in.readLong();
+        return day == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(day);
+    }
+}
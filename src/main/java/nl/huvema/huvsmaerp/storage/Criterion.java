@@ -0,0 +1,59 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * A single filter of a {@link Query}. Criteria created by a repository can also offer an index
+ * the query may drive its scan from; the predicate is always evaluated, so indexes only have to
+ * return a superset of the matches.
+ */
+public final class Criterion<T> {
+
+    private final Predicate<? super T> predicate;
+    private final IntUnaryOperator estimate;
+    private final Iterable<T> candidates;
+
+    private Criterion(Predicate<? super T> predicate, IntUnaryOperator estimate, Iterable<T> candidates) {
+        this.predicate = predicate;
+        this.estimate = estimate;
+        this.candidates = candidates;
+    }
+
+    public static <T> Criterion<T> matching(Predicate<? super T> predicate) {
+        return new Criterion<>(predicate, null, null);
+    }
+
+    /**
+     * @param estimate returns the number of index entries, and may stop counting once it reaches its argument
+     * @param ids      the ids in the index, resolved lazily through lookup (null results are skipped)
+     */
+    public static <T> Criterion<T> indexed(Predicate<? super T> predicate, IntUnaryOperator estimate,
+                                           Iterable<String> ids, Function<String, T> lookup) {
+        Iterable<T> candidates = () -> Lookups.resolve(ids.iterator(), lookup);
+        return new Criterion<>(predicate, estimate, candidates);
+    }
+
+    /** Variant for indexes that hand out the values themselves rather than their ids. */
+    public static <T> Criterion<T> indexed(Predicate<? super T> predicate, IntUnaryOperator estimate,
+                                           Iterable<T> candidates) {
+        return new Criterion<>(predicate, estimate, candidates);
+    }
+
+    boolean test(T value) {
+        return predicate.test(value);
+    }
+
+    boolean isIndexed() {
+        return candidates != null;
+    }
+
+    int estimate(int limit) {
+        return estimate.applyAsInt(limit);
+    }
+
+    Iterable<T> candidates() {
+        return candidates;
+    }
+}
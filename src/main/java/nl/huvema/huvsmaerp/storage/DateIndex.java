@@ -0,0 +1,151 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Sorted index of entity ids by date, kept in a skip list ordered by (epoch day, id).
+ * Range lookups cost O(log n + k). Callers serialize {@link #put} and {@link #remove} per id.
+ */
+public class DateIndex {
+
+    private final NavigableSet<Entry> entries = new ConcurrentSkipListSet<>();
+    private final Map<String, Long> dayById = new ConcurrentHashMap<>();
+
+    record Entry(long epochDay, String id) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry other) {
+            int result = Long.compare(epochDay, other.epochDay);
+            return result != 0 ? result : Ids.ORDER.compare(id, other.id);
+        }
+    }
+
+    public void put(String id, LocalDate date) {
+        if (date == null) {
+            remove(id);
+            return;
+        }
+        long day = date.toEpochDay();
+        Long previous = dayById.put(id, day);
+        if (previous != null && previous != day) {
+            entries.remove(new Entry(previous, id));
+        }
+        entries.add(new Entry(day, id));
+    }
+
+    public void remove(String id) {
+        Long previous = dayById.remove(id);
+        if (previous != null) {
+            entries.remove(new Entry(previous, id));
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        dayById.clear();
+    }
+
+    public int size() {
+        return dayById.size();
+    }
+
+    /** Ids dated between van and tot (both inclusive, null means unbounded), oldest first. */
+    public Iterable<String> ids(LocalDate van, LocalDate tot) {
+        return () -> idIterator(range(van, tot).iterator());
+    }
+
+    /** Ids dated between van and tot (both inclusive, null means unbounded), newest first. */
+    public Iterable<String> idsDescending(LocalDate van, LocalDate tot) {
+        return () -> idIterator(range(van, tot).descendingIterator());
+    }
+
+    /** Number of ids dated between van and tot, counting no further than limit. */
+    public int count(LocalDate van, LocalDate tot, int limit) {
+        int count = 0;
+        for (Iterator<Entry> it = range(van, tot).iterator(); it.hasNext() && count < limit; it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /** Keyset order over this index by (date, id); keys have the form "epochDay:id". */
+    public <T> KeyOrder<T> keyOrder(Function<String, T> lookup, Function<T, LocalDate> dateOf,
+                                    Function<T, String> idOf, boolean descending) {
+        Comparator<T> comparator = Comparator.comparing((T value) -> new Entry(dateOf.apply(value).toEpochDay(), idOf.apply(value)));
+        Comparator<T> ordered = descending ? comparator.reversed() : comparator;
+        return new KeyOrder<>() {
+            @Override
+            public Iterable<T> after(String key) {
+                NavigableSet<Entry> view = descending ? entries.descendingSet() : entries;
+                NavigableSet<Entry> tail = key == null ? view : view.tailSet(parseKey(key), false);
+                return () -> Lookups.resolve(idIterator(tail.iterator()), lookup);
+            }
+
+            @Override
+            public String keyOf(T value) {
+                return dateOf.apply(value).toEpochDay() + ":" + idOf.apply(value);
+            }
+
+            @Override
+            public Comparator<T> comparator() {
+                return ordered;
+            }
+
+            @Override
+            public Predicate<T> follows(String key) {
+                Entry last = parseKey(key);
+                return value -> {
+                    int result = new Entry(dateOf.apply(value).toEpochDay(), idOf.apply(value)).compareTo(last);
+                    return descending ? result < 0 : result > 0;
+                };
+            }
+        };
+    }
+
+    private static Entry parseKey(String key) {
+        int separator = key.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Ongeldige cursor");
+        }
+        try {
+            return new Entry(Long.parseLong(key.substring(0, separator)), key.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Ongeldige cursor");
+        }
+    }
+
+    public static boolean inRange(LocalDate date, LocalDate van, LocalDate tot) {
+        return date != null && (van == null || !date.isBefore(van)) && (tot == null || !date.isAfter(tot));
+    }
+
+    private NavigableSet<Entry> range(LocalDate van, LocalDate tot) {
+        long from = van != null ? van.toEpochDay() : Long.MIN_VALUE;
+        long to = tot != null ? tot.toEpochDay() + 1 : Long.MAX_VALUE;
+        if (from >= to) {
+            return entries.subSet(new Entry(from, ""), true, new Entry(from, ""), false);
+        }
+        // "" sorts before every real id, so these bounds cover whole days
+        return entries.subSet(new Entry(from, ""), true, new Entry(to, ""), false);
+    }
+
+    private static Iterator<String> idIterator(Iterator<Entry> source) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return source.next().id();
+            }
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package nl.huvema.huvsmaerp.storage;
+
+public class DuplicateSkuException extends RuntimeException {
+
+    private final String sku;
+
+    public DuplicateSkuException(String sku) {
+        super("SKU '" + sku + "' bestaat al");
+        this.sku = sku;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+}
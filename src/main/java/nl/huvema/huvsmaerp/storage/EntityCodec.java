@@ -0,0 +1,22 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.io.*;
+
+/** Compact binary form of one entity, used by the write-ahead log. */
+public interface EntityCodec<T> {
+
+    void write(DataOutput out, T value) throws IOException;
+
+    T read(DataInput in) throws IOException;
+
+    /** Deep copy through the binary form. */
+    default T copy(T value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            write(new DataOutputStream(bytes), value);
+            return read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Entity store keyed by the sequence number inside ids like "ORD-1001". Records live in a segmented
+ * array indexed by sequence, so a lookup parses the number and reads one slot: no string hashing and
+ * no map node per entity. Ids that are not in canonical prefix + number form, or that lie far beyond
+ * the allocated range, go to a small overflow map.
+ * Each slot holds a chain of immutable versions stamped by {@link VersionClock}; reads inside a
+ * snapshot return the version of that moment, other reads the latest published one. Stored records
+ * must not be modified: a write installs a new instance. Reads are lock-free; {@link #compute} runs
+ * under a striped lock so it is serialized per id, like {@link ConcurrentHashMap#compute}. Iteration is
+ * weakly consistent outside a snapshot and follows sequence order; the spliterator of
+ * {@link #values} splits along segments for parallel streams.
+ */
+public class EntityTable<T> {
+
+    private static final int SEGMENT_BITS = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int STRIPES = 64;
+    private static final int MAX_GROWTH = 64;
+
+    private final String prefix;
+    private final long base;
+    private volatile AtomicReferenceArray<Version<T>>[] segments = emptyDirectory();
+    private final Map<String, Version<T>> overflow = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong lastEpoch = new AtomicLong();
+    private final Object[] locks = new Object[STRIPES];
+    private final Object directoryLock = new Object();
+    private final Collection<T> values = new Values();
+
+    /** One committed state of a record; a null value marks a delete. */
+    private static final class Version<T> {
+        final T value;
+        final long epoch;
+        volatile Version<T> older;
+
+        Version(T value, long epoch, Version<T> older) {
+            this.value = value;
+            this.epoch = epoch;
+            this.older = older;
+        }
+    }
+
+    public EntityTable(String prefix, long base) {
+        this.prefix = prefix;
+        this.base = base;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public T get(String id) {
+        long epoch = VersionClock.readEpoch();
+        int slot = slotOf(id);
+        if (slot < 0) {
+            return id == null ? null : visible(overflow.get(id), epoch);
+        }
+        AtomicReferenceArray<Version<T>>[] directory = segments;
+        int segment = slot >>> SEGMENT_BITS;
+        Version<T> version = segment < directory.length ? directory[segment].get(slot & (SEGMENT_SIZE - 1)) : null;
+        return version != null || overflow.isEmpty() ? visible(version, epoch) : visible(overflow.get(id), epoch);
+    }
+
+    public boolean containsKey(String id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Same contract as {@link Map#compute}, on the latest version: a null result removes the entry, and
+     * returning the current record itself leaves the entry as it is.
+     */
+    public T compute(String id, BiFunction<String, T, T> remapping) {
+        synchronized (locks[stripeOf(id)]) {
+            return apply(id, remapping, 0);
+        }
+    }
+
+    /**
+     * Like {@link #compute}, but installs the result at the epoch of a unit of work, which holds the
+     * id's stripe, publishes the epoch itself and then calls {@link #published}.
+     */
+    T install(String id, long epoch, BiFunction<String, T, T> remapping) {
+        return apply(id, remapping, epoch);
+    }
+
+    /** Raises {@link #version} once a unit of work made its epoch visible. */
+    void published(long epoch) {
+        lastEpoch.accumulateAndGet(epoch, Math::max);
+    }
+
+    /** Latest version of the record, published or not; for writers holding its stripe. */
+    T latest(String id) {
+        Version<T> head = head(id);
+        return head != null ? head.value : null;
+    }
+
+    /** Stripe of the lock that serializes writes to id. */
+    int stripeOf(String id) {
+        int slot = slotOf(id);
+        return (slot < 0 ? id.hashCode() : slot) & (STRIPES - 1);
+    }
+
+    Object lock(int stripe) {
+        return locks[stripe];
+    }
+
+    public T computeIfPresent(String id, BiFunction<String, T, T> remapping) {
+        return compute(id, (key, current) -> current == null ? null : remapping.apply(key, current));
+    }
+
+    /** Waits for every compute that is running now to finish; later ones are not held up for long. */
+    void quiesce() {
+        for (Object lock : locks) {
+            synchronized (lock) {
+                // Acquiring the stripe is enough
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /** Live view of the stored records in sequence order, overflow ids last. */
+    public Collection<T> values() {
+        return values;
+    }
+
+    public void clear() {
+        synchronized (directoryLock) {
+            segments = emptyDirectory();
+            overflow.clear();
+            size.set(0);
+        }
+        long epoch = VersionClock.reserve();
+        VersionClock.publish(epoch);
+        lastEpoch.accumulateAndGet(epoch, Math::max);
+    }
+
+    /**
+     * Epoch of the last write to the table. It is raised only after the write is visible, so a caller
+     * that reads it before the records never pairs a newer version with older records.
+     */
+    public long version() {
+        return lastEpoch.get();
+    }
+
+    /** Epoch of the latest version of the record, a delete included, or 0 when there is none. */
+    public long versionOf(String id) {
+        Version<T> head = head(id);
+        return head != null ? head.epoch : 0;
+    }
+
+    private Version<T> head(String id) {
+        int slot = slotOf(id);
+        if (slot < 0) {
+            return id == null ? null : overflow.get(id);
+        }
+        AtomicReferenceArray<Version<T>>[] directory = segments;
+        int segment = slot >>> SEGMENT_BITS;
+        Version<T> head = segment < directory.length ? directory[segment].get(slot & (SEGMENT_SIZE - 1)) : null;
+        return head == null && !overflow.isEmpty() ? overflow.get(id) : head;
+    }
+
+    // A unitEpoch of 0 means the write reserves and publishes an epoch of its own
+    private T apply(String id, BiFunction<String, T, T> remapping, long unitEpoch) {
+        int slot = slotOf(id);
+        if (slot < 0 || isFar(slot) || overflow.containsKey(id)) {
+            return applyOverflow(id, remapping, unitEpoch);
+        }
+        AtomicReferenceArray<Version<T>> segment = segmentFor(slot);
+        int offset = slot & (SEGMENT_SIZE - 1);
+        Version<T> head = segment.get(offset);
+        T current = head != null ? head.value : null;
+        T result = remapping.apply(id, current);
+        if (result == current) {
+            return result;
+        }
+        long epoch = unitEpoch != 0 ? unitEpoch : VersionClock.reserve();
+        segment.set(offset, new Version<>(track(current, result), epoch, head));
+        if (unitEpoch == 0) {
+            VersionClock.publish(epoch);
+            lastEpoch.accumulateAndGet(epoch, Math::max);
+        }
+        if (prune(segment.get(offset))) {
+            segment.set(offset, null);
+        }
+        return result;
+    }
+
+    private T applyOverflow(String id, BiFunction<String, T, T> remapping, long unitEpoch) {
+        Version<T> head = overflow.get(id);
+        T current = head != null ? head.value : null;
+        T result = remapping.apply(id, current);
+        if (result == current) {
+            return result;
+        }
+        long epoch = unitEpoch != 0 ? unitEpoch : VersionClock.reserve();
+        Version<T> installed = new Version<>(track(current, result), epoch, head);
+        overflow.put(id, installed);
+        if (unitEpoch == 0) {
+            VersionClock.publish(epoch);
+            lastEpoch.accumulateAndGet(epoch, Math::max);
+        }
+        if (prune(installed)) {
+            overflow.remove(id, installed);
+        }
+        return result;
+    }
+
+    /**
+     * Drops versions no open snapshot can read anymore. Returns true when only a delete marker is
+     * left, so the slot can be emptied.
+     */
+    private static <T> boolean prune(Version<T> head) {
+        long oldest = VersionClock.oldestReadable();
+        if (oldest < 0) {
+            return false;
+        }
+        Version<T> version = head;
+        while (version != null && version.epoch > oldest) {
+            version = version.older;
+        }
+        if (version != null) {
+            version.older = null;
+        }
+        return version == head && head.value == null;
+    }
+
+    private static <T> T visible(Version<T> version, long epoch) {
+        while (version != null && version.epoch > epoch) {
+            version = version.older;
+        }
+        return version != null ? version.value : null;
+    }
+
+    private T track(T current, T result) {
+        if (current == null && result != null) {
+            size.incrementAndGet();
+        } else if (current != null && result == null) {
+            size.decrementAndGet();
+        }
+        return result;
+    }
+
+    private int slotOf(String id) {
+        long slot = Ids.sequence(id, prefix) - base;
+        return slot >= 0 && slot <= Integer.MAX_VALUE ? (int) slot : -1;
+    }
+
+    /** Keeps a stray large id from allocating every segment below it. */
+    private boolean isFar(int slot) {
+        return (slot >>> SEGMENT_BITS) >= segments.length + MAX_GROWTH;
+    }
+
+    private AtomicReferenceArray<Version<T>> segmentFor(int slot) {
+        int segment = slot >>> SEGMENT_BITS;
+        AtomicReferenceArray<Version<T>>[] directory = segments;
+        if (segment < directory.length) {
+            return directory[segment];
+        }
+        synchronized (directoryLock) {
+            directory = segments;
+            if (segment >= directory.length) {
+                AtomicReferenceArray<Version<T>>[] grown = Arrays.copyOf(directory, Math.max(segment + 1, directory.length * 2));
+                for (int i = directory.length; i < grown.length; i++) {
+                    grown[i] = new AtomicReferenceArray<>(SEGMENT_SIZE);
+                }
+                segments = grown;
+                directory = grown;
+            }
+            return directory[segment];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private AtomicReferenceArray<Version<T>>[] emptyDirectory() {
+        return new AtomicReferenceArray[0];
+    }
+
+    /** Iteration reads at the epoch of the snapshot that was open when it started. */
+    private class Values extends AbstractCollection<T> {
+        @Override
+        public int size() {
+            return size.get();
+        }
+
+        @Override
+        public Spliterator<T> spliterator() {
+            long epoch = VersionClock.readEpoch();
+            AtomicReferenceArray<Version<T>>[] directory = segments;
+            Spliterator<T> rest = overflow.values().stream().map(version -> visible(version, epoch)).filter(value -> value != null).spliterator();
+            return new SlotSpliterator<>(slot -> visible(directory[slot >>> SEGMENT_BITS].get(slot & (SEGMENT_SIZE - 1)), epoch),
+                    0, (int) Math.min((long) directory.length * SEGMENT_SIZE, Integer.MAX_VALUE), SEGMENT_SIZE, size.get(), rest);
+        }
+
+        @Override
+        public void forEach(Consumer<? super T> action) {
+            spliterator().forEachRemaining(action);
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            long epoch = VersionClock.readEpoch();
+            AtomicReferenceArray<Version<T>>[] directory = segments;
+            Iterator<Version<T>> rest = overflow.values().iterator();
+            return new Iterator<>() {
+                int slot;
+                T next = advance();
+
+                private T advance() {
+                    while (slot < directory.length * SEGMENT_SIZE) {
+                        T value = visible(directory[slot >>> SEGMENT_BITS].get(slot & (SEGMENT_SIZE - 1)), epoch);
+                        slot++;
+                        if (value != null) {
+                            return value;
+                        }
+                    }
+                    while (rest.hasNext()) {
+                        T value = visible(rest.next(), epoch);
+                        if (value != null) {
+                            return value;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    T value = next;
+                    next = advance();
+                    return value;
+                }
+            };
+        }
+    }
+}
@@ -6,33 +6,129 @@ import org.springframework.stereotype.Repository;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Repository
 public class FactuurRepository {
     
-    private final Map<String, FactuurResponseDTO> facturen = new ConcurrentHashMap<>();
-    private int nextId = 1001;
+    private final EntityTable<FactuurResponseDTO> facturen = new EntityTable<>("INV-", 1001);
+    private final IdIndex idIndex = new IdIndex();
+    private final IdAllocator idAllocator = new IdAllocator("INV-", 1001);
+    private final Journal<FactuurResponseDTO> journal = new Journal<>(Journal.FACTUREN, Codecs.FACTUUR);
+    private final DateIndex factuurDatumIndex = new DateIndex();
 
     public List<FactuurResponseDTO> findAll() {
         return new ArrayList<>(facturen.values());
     }
 
+    public Query<FactuurResponseDTO> query() {
+        return new Query<>(facturen.values());
+    }
+
+    /** Visits every record in id order, straight from the table. */
+    public void forEach(Consumer<? super FactuurResponseDTO> action) {
+        facturen.values().forEach(action);
+    }
+
+    /** Up to limit records that match filter, in id order; the walk stops once limit is reached. */
+    public List<FactuurResponseDTO> scan(Predicate<? super FactuurResponseDTO> filter, int limit) {
+        return Lookups.scan(facturen.values(), filter, limit);
+    }
+
+    /** Weakly consistent spliterator over the table that splits along its segments. */
+    public Spliterator<FactuurResponseDTO> spliterator() {
+        return facturen.values().spliterator();
+    }
+
+    /** Index-backed order for keyset paging on the given sort field, or null when there is none. */
+    public KeyOrder<FactuurResponseDTO> keyOrder(String field, boolean descending) {
+        return switch (field) {
+            case "id" -> idIndex.keyOrder(facturen::get, FactuurResponseDTO::getId, descending);
+            case "factuurDatum" -> factuurDatumIndex.keyOrder(facturen::get, FactuurResponseDTO::getFactuurDatum, FactuurResponseDTO::getId, descending);
+            default -> null;
+        };
+    }
+
+    public Criterion<FactuurResponseDTO> factuurDatumBetween(LocalDate van, LocalDate tot) {
+        return Criterion.indexed(f -> DateIndex.inRange(f.getFactuurDatum(), van, tot),
+                limit -> factuurDatumIndex.count(van, tot, limit),
+                factuurDatumIndex.ids(van, tot),
+                facturen::get);
+    }
+
     public Optional<FactuurResponseDTO> findById(String id) {
         return Optional.ofNullable(facturen.get(id));
     }
 
+    /** Private copy of the record to modify and save; stored records are never changed in place. */
+    public Optional<FactuurResponseDTO> findForUpdate(String id) {
+        return findById(id).map(Codecs.FACTUUR::copy);
+    }
+
+    /** Stores the record as the next version of its id, whatever version it was read at. */
     public FactuurResponseDTO save(FactuurResponseDTO factuur) {
         if (factuur.getId() == null) {
-            factuur.setId("INV-" + nextId++);
+            factuur.setId(idAllocator.nextId());
         }
-        facturen.put(factuur.getId(), factuur);
+        facturen.compute(factuur.getId(), (id, current) -> {
+            factuur.setVersie(current != null ? current.getVersie() + 1 : 1);
+            return put(id, factuur);
+        });
+        journal.sync();
+        return factuur;
+    }
+
+    /**
+     * Stores the record only while the stored one still has expectedVersion, and returns it with the
+     * next version; empty when another write or a delete came first. The check and the write are one
+     * step, so of two transitions that start from the same version exactly one succeeds.
+     */
+    public Optional<FactuurResponseDTO> compareAndSave(long expectedVersion, FactuurResponseDTO factuur) {
+        FactuurResponseDTO stored = facturen.compute(factuur.getId(), (id, current) -> {
+            if (current == null || current.getVersie() != expectedVersion) {
+                return current;
+            }
+            factuur.setVersie(expectedVersion + 1);
+            return put(id, factuur);
+        });
+        if (stored != factuur) {
+            return Optional.empty();
+        }
+        journal.sync();
+        return Optional.of(factuur);
+    }
+
+    private FactuurResponseDTO put(String id, FactuurResponseDTO factuur) {
+        idIndex.add(id);
+        factuurDatumIndex.put(id, factuur.getFactuurDatum());
+        journal.put(factuur);
         return factuur;
     }
 
     public void deleteById(String id) {
-        facturen.remove(id);
+        facturen.computeIfPresent(id, (key, current) -> {
+            idIndex.remove(key);
+            factuurDatumIndex.remove(key);
+            journal.delete(key);
+            return null;
+        });
+        journal.sync();
+    }
+
+    /** Stores a record read back from the log or a snapshot, keeping its id out of future allocation. */
+    void restore(FactuurResponseDTO factuur) {
+        idAllocator.observe(factuur.getId());
+        facturen.compute(factuur.getId(), (id, current) -> put(id, factuur));
+        journal.sync();
+    }
+
+    Journal<FactuurResponseDTO> journal() {
+        return journal;
+    }
+
+    EntityTable<FactuurResponseDTO> entities() {
+        return facturen;
     }
 
     public boolean existsById(String id) {
@@ -40,26 +136,29 @@ public class FactuurRepository {
     }
 
     public List<FactuurResponseDTO> findByStatus(FactuurStatus status) {
-        return facturen.values().stream()
-                .filter(f -> f.getStatus() == status)
-                .collect(Collectors.toList());
+        return scan(f -> f.getStatus() == status, Integer.MAX_VALUE);
     }
 
     public List<FactuurResponseDTO> findByOrderId(String orderId) {
-        return facturen.values().stream()
-                .filter(f -> f.getOrderId().equals(orderId))
-                .collect(Collectors.toList());
+        return scan(f -> f.getOrderId().equals(orderId), Integer.MAX_VALUE);
     }
 
     public List<FactuurResponseDTO> findByFactuurDatumBetween(LocalDate van, LocalDate tot) {
-        return facturen.values().stream()
-                .filter(f -> !f.getFactuurDatum().isBefore(van) && !f.getFactuurDatum().isAfter(tot))
-                .collect(Collectors.toList());
+        List<FactuurResponseDTO> result = new ArrayList<>();
+        for (String id : factuurDatumIndex.ids(van, tot)) {
+            FactuurResponseDTO factuur = facturen.get(id);
+            if (factuur != null) {
+                result.add(factuur);
+            }
+        }
+        return result;
     }
 
     public void clear() {
         facturen.clear();
-        nextId = 1001;
+        idIndex.clear();
+        factuurDatumIndex.clear();
+        idAllocator.reset();
     }
 
     public void seedData() {
@@ -0,0 +1,74 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free id source shared by the repositories. Each thread claims a block of sequence numbers
+ * with one atomic add and hands them out locally, so concurrent inserts never touch shared state
+ * on the common path. Ids are unique but, across threads, not strictly in creation order.
+ */
+public class IdAllocator {
+
+    static final int BLOCK_SIZE = 32;
+
+    private final String prefix;
+    private final long start;
+    private final AtomicLong next;
+    // Bumped by reset and observe so blocks claimed before it are abandoned
+    private final AtomicLong generation = new AtomicLong();
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    private static final class Block {
+        long generation = -1;
+        long next;
+        long end;
+    }
+
+    public IdAllocator(String prefix, long start) {
+        this.prefix = prefix;
+        this.start = start;
+        this.next = new AtomicLong(start);
+    }
+
+    public String nextId() {
+        return prefix + nextSequence();
+    }
+
+    public long nextSequence() {
+        Block block = blocks.get();
+        long current = generation.get();
+        if (block.generation != current || block.next == block.end) {
+            block.next = next.getAndAdd(BLOCK_SIZE);
+            block.end = block.next + BLOCK_SIZE;
+            block.generation = current;
+        }
+        return block.next++;
+    }
+
+    /** Claims count consecutive sequence numbers with one atomic add and returns the first. */
+    public long nextSequences(int count) {
+        return next.getAndAdd(count);
+    }
+
+    public String idOf(long sequence) {
+        return prefix + sequence;
+    }
+
+    /** Starts again from the first sequence number, for clear() and reseeding. */
+    public synchronized void reset() {
+        next.set(start);
+        generation.incrementAndGet();
+    }
+
+    /** Records an id restored from storage so it is never handed out again. */
+    public void observe(String id) {
+        long seq = Ids.sequence(id, prefix);
+        if (seq < 0) {
+            return;
+        }
+        if (next.getAndAccumulate(seq + 1, Math::max) > seq) {
+            // Some thread may hold a block covering seq
+            generation.incrementAndGet();
+        }
+    }
+}
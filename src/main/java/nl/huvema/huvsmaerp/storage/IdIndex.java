@@ -0,0 +1,56 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/** All ids of a repository in sequence order, for keyset paging by id. */
+public class IdIndex {
+
+    private final NavigableSet<String> ids = new ConcurrentSkipListSet<>(Ids.ORDER);
+
+    public void add(String id) {
+        ids.add(id);
+    }
+
+    public void remove(String id) {
+        ids.remove(id);
+    }
+
+    public void clear() {
+        ids.clear();
+    }
+
+    public <T> KeyOrder<T> keyOrder(Function<String, T> lookup, Function<T, String> idOf, boolean descending) {
+        Comparator<T> comparator = Comparator.comparing(idOf, descending ? Ids.ORDER.reversed() : Ids.ORDER);
+        return new KeyOrder<>() {
+            @Override
+            public Iterable<T> after(String key) {
+                NavigableSet<String> view = descending ? ids.descendingSet() : ids;
+                NavigableSet<String> tail = key == null ? view : view.tailSet(key, false);
+                return () -> Lookups.resolve(tail.iterator(), lookup);
+            }
+
+            @Override
+            public String keyOf(T value) {
+                return idOf.apply(value);
+            }
+
+            @Override
+            public Comparator<T> comparator() {
+                return comparator;
+            }
+
+            @Override
+            public Predicate<T> follows(String key) {
+                return value -> {
+                    int result = Ids.ORDER.compare(idOf.apply(value), key);
+                    return descending ? result < 0 : result > 0;
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.Comparator;
+
+public final class Ids {
+
+    /**
+     * Orders ids by sequence number: all ids of a repository share their prefix ("ORD-1001"),
+     * so a shorter id is always the lower one.
+     */
+    public static final Comparator<String> ORDER = (a, b) ->
+            a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+
+    /** Sequence number of a canonical id (prefix followed by digits without leading zeros), or -1. */
+    public static long sequence(String id, String prefix) {
+        if (id == null || !id.startsWith(prefix)) {
+            return -1;
+        }
+        int length = id.length() - prefix.length();
+        if (length == 0 || length > 18 || (id.charAt(prefix.length()) == '0' && length > 1)) {
+            return -1;
+        }
+        long seq = 0;
+        for (int i = prefix.length(); i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            seq = seq * 10 + (c - '0');
+        }
+        return seq;
+    }
+
+    private Ids() {}
+}
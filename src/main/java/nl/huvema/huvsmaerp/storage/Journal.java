@@ -0,0 +1,85 @@
+package nl.huvema.huvsmaerp.storage;
+
+/**
+ * A repository's connection to the write-ahead log. Until {@link #attach} it records nothing, which is
+ * how log replay and stand-alone repositories write without logging.
+ */
+class Journal<T> {
+
+    static final byte PRODUCTS = 1;
+    static final byte KLANTEN = 2;
+    static final byte LEVERANCIERS = 3;
+    static final byte ORDERS = 4;
+    static final byte BEWEGINGEN = 5;
+    static final byte FACTUREN = 6;
+
+    private final byte table;
+    private final EntityCodec<T> codec;
+    private volatile WriteAheadLog log;
+
+    Journal(byte table, EntityCodec<T> codec) {
+        this.table = table;
+        this.codec = codec;
+    }
+
+    void attach(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    byte table() {
+        return table;
+    }
+
+    EntityCodec<T> codec() {
+        return codec;
+    }
+
+    /**
+     * Logs a stored value; call while holding the entity's slot so log order matches apply order.
+     * Returns the record's sequence number, or 0 when nothing is logged.
+     */
+    long put(T value) {
+        WriteAheadLog current = log;
+        if (current != null) {
+            return current.append(WriteAheadLog.record(table, WriteAheadLog.PUT, out -> codec.write(out, value)));
+        }
+        return 0;
+    }
+
+    /** Encoded record of a stored value, for a unit of work to log in its batch; null when not logging. */
+    byte[] record(T value) {
+        return log != null ? WriteAheadLog.record(table, WriteAheadLog.PUT, out -> codec.write(out, value)) : null;
+    }
+
+    WriteAheadLog log() {
+        return log;
+    }
+
+    void delete(String id) {
+        WriteAheadLog current = log;
+        if (current != null) {
+            current.append(WriteAheadLog.record(table, WriteAheadLog.DELETE, out -> Codecs.writeString(out, id)));
+        }
+    }
+
+    /** Waits until the record with the given sequence number, and all before it, are durable. */
+    void await(long lsn) {
+        WriteAheadLog current = log;
+        if (current != null && lsn > 0) {
+            current.awaitDurable(lsn);
+        }
+    }
+
+    boolean isDurable(long lsn) {
+        WriteAheadLog current = log;
+        return current == null || current.isDurable(lsn);
+    }
+
+    /** Waits until the records this thread logged so far are durable. */
+    void sync() {
+        WriteAheadLog current = log;
+        if (current != null) {
+            current.awaitDurable(current.appendedLsnOfThread());
+        }
+    }
+}
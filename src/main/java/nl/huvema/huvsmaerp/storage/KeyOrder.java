@@ -0,0 +1,21 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.Comparator;
+import java.util.function.Predicate;
+
+/**
+ * A sort order backed by an index, so a page can resume directly after the last key of the
+ * previous one instead of skipping an offset. Keys are plain strings owned by the index.
+ */
+public interface KeyOrder<T> {
+
+    /** Values strictly after the given key in this order, or from the start when key is null. */
+    Iterable<T> after(String key);
+
+    String keyOf(T value);
+
+    Comparator<T> comparator();
+
+    /** Matches the values that sort strictly after the given key. */
+    Predicate<T> follows(String key);
+}
@@ -0,0 +1,19 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.List;
+
+public class KeysetPage<T> {
+
+    private final List<T> content;
+    private final String nextKey;
+
+    public KeysetPage(List<T> content, String nextKey) {
+        this.content = content;
+        this.nextKey = nextKey;
+    }
+
+    public List<T> getContent() { return content; }
+
+    /** Key of the last row when more rows follow, otherwise null. */
+    public String getNextKey() { return nextKey; }
+}
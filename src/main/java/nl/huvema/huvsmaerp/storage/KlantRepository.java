@@ -4,54 +4,117 @@ import nl.huvema.huvsmaerp.dto.KlantResponseDTO;
 import org.springframework.stereotype.Repository;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Repository
 public class KlantRepository {
     
-    private final Map<String, KlantResponseDTO> klanten = new ConcurrentHashMap<>();
-    private int nextId = 1001;
+    private final EntityTable<KlantResponseDTO> klanten = new EntityTable<>("CUS-", 1001);
+    private final IdIndex idIndex = new IdIndex();
+    private final IdAllocator idAllocator = new IdAllocator("CUS-", 1001);
+    private final Journal<KlantResponseDTO> journal = new Journal<>(Journal.KLANTEN, Codecs.KLANT);
 
     public List<KlantResponseDTO> findAll() {
         return new ArrayList<>(klanten.values());
     }
 
+    public Query<KlantResponseDTO> query() {
+        return new Query<>(klanten.values());
+    }
+
+    /** Visits every record in id order, straight from the table. */
+    public void forEach(Consumer<? super KlantResponseDTO> action) {
+        klanten.values().forEach(action);
+    }
+
+    /** Up to limit records that match filter, in id order; the walk stops once limit is reached. */
+    public List<KlantResponseDTO> scan(Predicate<? super KlantResponseDTO> filter, int limit) {
+        return Lookups.scan(klanten.values(), filter, limit);
+    }
+
+    /** Weakly consistent spliterator over the table that splits along its segments. */
+    public Spliterator<KlantResponseDTO> spliterator() {
+        return klanten.values().spliterator();
+    }
+
+    /** Index-backed order for keyset paging on the given sort field, or null when there is none. */
+    public KeyOrder<KlantResponseDTO> keyOrder(String field, boolean descending) {
+        return field.equals("id") ? idIndex.keyOrder(klanten::get, KlantResponseDTO::getId, descending) : null;
+    }
+
     public Optional<KlantResponseDTO> findById(String id) {
         return Optional.ofNullable(klanten.get(id));
     }
 
+    /** Private copy of the record to modify and save; stored records are never changed in place. */
+    public Optional<KlantResponseDTO> findForUpdate(String id) {
+        return findById(id).map(Codecs.KLANT::copy);
+    }
+
     public KlantResponseDTO save(KlantResponseDTO klant) {
         if (klant.getId() == null) {
-            klant.setId("CUS-" + nextId++);
+            klant.setId(idAllocator.nextId());
         }
-        klanten.put(klant.getId(), klant);
+        klanten.compute(klant.getId(), (id, current) -> {
+            idIndex.add(id);
+            journal.put(klant);
+            return klant;
+        });
+        journal.sync();
         return klant;
     }
 
     public void deleteById(String id) {
-        klanten.remove(id);
+        klanten.computeIfPresent(id, (key, current) -> {
+            idIndex.remove(key);
+            journal.delete(key);
+            return null;
+        });
+        journal.sync();
+    }
+
+    /** Stores a record read back from the log or a snapshot, keeping its id out of future allocation. */
+    void restore(KlantResponseDTO klant) {
+        idAllocator.observe(klant.getId());
+        save(klant);
+    }
+
+    Journal<KlantResponseDTO> journal() {
+        return journal;
+    }
+
+    EntityTable<KlantResponseDTO> entities() {
+        return klanten;
     }
 
     public boolean existsById(String id) {
         return klanten.containsKey(id);
     }
 
+    /** Raised by every change to any customer; read it before the customers it should describe. */
+    public long version() {
+        return klanten.version();
+    }
+
+    /** Raised by every change to the customer. */
+    public long versionOf(String id) {
+        return klanten.versionOf(id);
+    }
+
     public List<KlantResponseDTO> findByBedrijfsNaamContaining(String bedrijfsNaam) {
-        return klanten.values().stream()
-                .filter(k -> k.getBedrijfsNaam().toLowerCase().contains(bedrijfsNaam.toLowerCase()))
-                .collect(Collectors.toList());
+        String lower = bedrijfsNaam.toLowerCase();
+        return scan(k -> k.getBedrijfsNaam().toLowerCase().contains(lower), Integer.MAX_VALUE);
     }
 
     public List<KlantResponseDTO> findByBtwNummer(String btwNummer) {
-        return klanten.values().stream()
-                .filter(k -> btwNummer.equals(k.getBtwNummer()))
-                .collect(Collectors.toList());
+        return scan(k -> btwNummer.equals(k.getBtwNummer()), Integer.MAX_VALUE);
     }
 
     public void clear() {
         klanten.clear();
-        nextId = 1001;
+        idIndex.clear();
+        idAllocator.reset();
     }
 
     public void seedData() {
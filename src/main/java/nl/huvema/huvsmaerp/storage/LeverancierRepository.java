@@ -4,33 +4,88 @@ import nl.huvema.huvsmaerp.dto.LeverancierResponseDTO;
 import org.springframework.stereotype.Repository;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Repository
 public class LeverancierRepository {
     
-    private final Map<String, LeverancierResponseDTO> leveranciers = new ConcurrentHashMap<>();
-    private int nextId = 1001;
+    private final EntityTable<LeverancierResponseDTO> leveranciers = new EntityTable<>("SUP-", 1001);
+    private final IdIndex idIndex = new IdIndex();
+    private final IdAllocator idAllocator = new IdAllocator("SUP-", 1001);
+    private final Journal<LeverancierResponseDTO> journal = new Journal<>(Journal.LEVERANCIERS, Codecs.LEVERANCIER);
 
     public List<LeverancierResponseDTO> findAll() {
         return new ArrayList<>(leveranciers.values());
     }
 
+    public Query<LeverancierResponseDTO> query() {
+        return new Query<>(leveranciers.values());
+    }
+
+    /** Visits every record in id order, straight from the table. */
+    public void forEach(Consumer<? super LeverancierResponseDTO> action) {
+        leveranciers.values().forEach(action);
+    }
+
+    /** Up to limit records that match filter, in id order; the walk stops once limit is reached. */
+    public List<LeverancierResponseDTO> scan(Predicate<? super LeverancierResponseDTO> filter, int limit) {
+        return Lookups.scan(leveranciers.values(), filter, limit);
+    }
+
+    /** Weakly consistent spliterator over the table that splits along its segments. */
+    public Spliterator<LeverancierResponseDTO> spliterator() {
+        return leveranciers.values().spliterator();
+    }
+
+    /** Index-backed order for keyset paging on the given sort field, or null when there is none. */
+    public KeyOrder<LeverancierResponseDTO> keyOrder(String field, boolean descending) {
+        return field.equals("id") ? idIndex.keyOrder(leveranciers::get, LeverancierResponseDTO::getId, descending) : null;
+    }
+
     public Optional<LeverancierResponseDTO> findById(String id) {
         return Optional.ofNullable(leveranciers.get(id));
     }
 
+    /** Private copy of the record to modify and save; stored records are never changed in place. */
+    public Optional<LeverancierResponseDTO> findForUpdate(String id) {
+        return findById(id).map(Codecs.LEVERANCIER::copy);
+    }
+
     public LeverancierResponseDTO save(LeverancierResponseDTO leverancier) {
         if (leverancier.getId() == null) {
-            leverancier.setId("SUP-" + nextId++);
+            leverancier.setId(idAllocator.nextId());
         }
-        leveranciers.put(leverancier.getId(), leverancier);
+        leveranciers.compute(leverancier.getId(), (id, current) -> {
+            idIndex.add(id);
+            journal.put(leverancier);
+            return leverancier;
+        });
+        journal.sync();
         return leverancier;
     }
 
     public void deleteById(String id) {
-        leveranciers.remove(id);
+        leveranciers.computeIfPresent(id, (key, current) -> {
+            idIndex.remove(key);
+            journal.delete(key);
+            return null;
+        });
+        journal.sync();
+    }
+
+    /** Stores a record read back from the log or a snapshot, keeping its id out of future allocation. */
+    void restore(LeverancierResponseDTO leverancier) {
+        idAllocator.observe(leverancier.getId());
+        save(leverancier);
+    }
+
+    Journal<LeverancierResponseDTO> journal() {
+        return journal;
+    }
+
+    EntityTable<LeverancierResponseDTO> entities() {
+        return leveranciers;
     }
 
     public boolean existsById(String id) {
@@ -38,14 +93,14 @@ public class LeverancierRepository {
     }
 
     public List<LeverancierResponseDTO> findByNaamContaining(String naam) {
-        return leveranciers.values().stream()
-                .filter(l -> l.getNaam().toLowerCase().contains(naam.toLowerCase()))
-                .collect(Collectors.toList());
+        String lower = naam.toLowerCase();
+        return scan(l -> l.getNaam().toLowerCase().contains(lower), Integer.MAX_VALUE);
     }
 
     public void clear() {
         leveranciers.clear();
-        nextId = 1001;
+        idIndex.clear();
+        idAllocator.reset();
     }
 
     public void seedData() {
@@ -0,0 +1,253 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sorted set of longs kept in blocks of primitive arrays, for the packed keys of the movement
+ * indexes: about 8 bytes per key, where a concurrent skip list spends a node and a boxed Long.
+ * Writes take the write lock; iterators copy a batch of keys at a time under the read lock and go
+ * on after the last key they returned, so like a concurrent set's they are weakly consistent.
+ */
+final class LongPostings {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int BATCH = 64;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock; every block is sorted, not empty and lies entirely before the next one
+    private long[][] blocks = new long[0][];
+    private int[] lengths = new int[0];
+    private int blockCount;
+    private volatile int size;
+
+    boolean add(long key) {
+        lock.writeLock().lock();
+        try {
+            if (blockCount == 0) {
+                insertBlock(0, new long[8], 0);
+            }
+            int b = blockFor(key);
+            int i = Arrays.binarySearch(blocks[b], 0, lengths[b], key);
+            if (i >= 0) {
+                return false;
+            }
+            i = -i - 1;
+            if (lengths[b] == BLOCK_SIZE) {
+                int half = BLOCK_SIZE / 2;
+                insertBlock(b + 1, Arrays.copyOf(Arrays.copyOfRange(blocks[b], half, BLOCK_SIZE), BLOCK_SIZE), BLOCK_SIZE - half);
+                lengths[b] = half;
+                if (i > half) {
+                    b++;
+                    i -= half;
+                }
+            } else if (lengths[b] == blocks[b].length) {
+                blocks[b] = Arrays.copyOf(blocks[b], Math.min(BLOCK_SIZE, blocks[b].length * 2));
+            }
+            long[] block = blocks[b];
+            System.arraycopy(block, i, block, i + 1, lengths[b] - i);
+            block[i] = key;
+            lengths[b]++;
+            size++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    boolean remove(long key) {
+        lock.writeLock().lock();
+        try {
+            if (blockCount == 0) {
+                return false;
+            }
+            int b = blockFor(key);
+            int i = Arrays.binarySearch(blocks[b], 0, lengths[b], key);
+            if (i < 0) {
+                return false;
+            }
+            long[] block = blocks[b];
+            System.arraycopy(block, i + 1, block, i, lengths[b] - i - 1);
+            if (--lengths[b] == 0) {
+                System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+                System.arraycopy(lengths, b + 1, lengths, b, blockCount - b - 1);
+                blocks[--blockCount] = null;
+            }
+            size--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            blocks = new long[0][];
+            lengths = new int[0];
+            blockCount = 0;
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Number of keys between low and high (both inclusive), counting no further than limit. */
+    int count(long low, long high, int limit) {
+        if (low > high) {
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            int b = blockCount == 0 ? 0 : blockFor(low);
+            int from = b < blockCount ? lowerBound(b, low) : 0;
+            for (; b < blockCount && count < limit; b++, from = 0) {
+                int length = lengths[b];
+                if (blocks[b][length - 1] <= high) {
+                    count += length - from;
+                } else {
+                    count += Math.max(0, upperBound(b, high) - from);
+                    break;
+                }
+            }
+            return Math.min(count, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Keys between low and high (both inclusive), ascending or descending. */
+    PrimitiveIterator.OfLong range(long low, long high, boolean descending) {
+        return new PrimitiveIterator.OfLong() {
+            final long[] batch = new long[BATCH];
+            int index;
+            int count;
+            // Next key to look from, inclusive; done once the range is used up
+            long cursor = descending ? high : low;
+            boolean done = low > high;
+
+            @Override
+            public boolean hasNext() {
+                if (index < count) {
+                    return true;
+                }
+                if (done) {
+                    return false;
+                }
+                count = descending ? collectDescending(cursor, low, batch) : collectAscending(cursor, high, batch);
+                index = 0;
+                if (count < BATCH) {
+                    done = true;
+                } else {
+                    long last = batch[count - 1];
+                    done = descending ? last == Long.MIN_VALUE : last == Long.MAX_VALUE;
+                    cursor = descending ? last - 1 : last + 1;
+                }
+                return count > 0;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch[index++];
+            }
+        };
+    }
+
+    private int collectAscending(long from, long high, long[] batch) {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            int b = blockCount == 0 ? 0 : blockFor(from);
+            int i = b < blockCount ? lowerBound(b, from) : 0;
+            for (; b < blockCount; b++, i = 0) {
+                for (; i < lengths[b]; i++) {
+                    long key = blocks[b][i];
+                    if (key > high || count == batch.length) {
+                        return count;
+                    }
+                    batch[count++] = key;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int collectDescending(long from, long low, long[] batch) {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            if (blockCount == 0) {
+                return 0;
+            }
+            int b = blockFor(from);
+            int i = upperBound(b, from) - 1;
+            for (; b >= 0; b--, i = b >= 0 ? lengths[b] - 1 : -1) {
+                for (; i >= 0; i--) {
+                    long key = blocks[b][i];
+                    if (key < low || count == batch.length) {
+                        return count;
+                    }
+                    batch[count++] = key;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Last block whose first key is at most key, or the first block; blockCount > 0
+    private int blockFor(long key) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blocks[middle][0] <= key) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Index of the first key in block b that is at least key
+    private int lowerBound(int b, long key) {
+        int i = Arrays.binarySearch(blocks[b], 0, lengths[b], key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    // Index of the first key in block b that is greater than key
+    private int upperBound(int b, long key) {
+        int i = Arrays.binarySearch(blocks[b], 0, lengths[b], key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    private void insertBlock(int at, long[] block, int length) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(4, blockCount * 2));
+            lengths = Arrays.copyOf(lengths, blocks.length);
+        }
+        System.arraycopy(blocks, at, blocks, at + 1, blockCount - at);
+        System.arraycopy(lengths, at, lengths, at + 1, blockCount - at);
+        blocks[at] = block;
+        lengths[at] = length;
+        blockCount++;
+    }
+}
@@ -0,0 +1,55 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+final class Lookups {
+
+    private Lookups() {}
+
+    /** Resolves ids to entities lazily, skipping ids that were removed in the meantime. */
+    static <T> Iterator<T> resolve(Iterator<String> ids, Function<String, T> lookup) {
+        return new Iterator<>() {
+            private T next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && ids.hasNext()) {
+                    next = lookup.apply(ids.next());
+                }
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    /** Collects up to limit matches from source, stopping the walk once they are found. */
+    static <T> List<T> scan(Iterable<T> source, Predicate<? super T> filter, int limit) {
+        List<T> result = new ArrayList<>(Math.min(Math.max(limit, 0), 64));
+        if (limit <= 0) {
+            return result;
+        }
+        for (T value : source) {
+            if (filter.test(value)) {
+                result.add(value);
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,724 @@
+package nl.huvema.huvsmaerp.storage;
+
+import nl.huvema.huvsmaerp.dto.MutatieType;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingResponseDTO;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Columnar store for stock movements. Each row lives at the slot given by its id's sequence number,
+ * spread over off-heap column buffers: product as a dictionary code, type, quantity and epoch day as
+ * primitives. Remarks are mostly unique, so they are kept as they are in an on-heap column. DTOs are
+ * only built for rows that are read. Date and product lookups use sorted primitive postings of packed
+ * (day, slot) longs; type scans read the type column directly.
+ * Writes are serialized per row by striped locks; reads are lock-free and use a per-row sequence
+ * stamp to retry when they race with a write. Every row carries the epoch it was written at, the
+ * one of its unit of work or one reserved for the single write, and stays hidden from reads at an
+ * earlier epoch, like the records of {@link EntityTable}.
+ */
+final class MovementColumns {
+
+    private static final int SEGMENT_BITS = 14;
+    private static final int SEGMENT_ROWS = 1 << SEGMENT_BITS;
+    private static final int STRIPES = 64;
+    private static final int NO_DAY = Integer.MIN_VALUE;
+    private static final byte PRESENT = 1;
+    private static final byte AANTAL_NULL = 2;
+    private static final byte DATUM_NULL = 4;
+    private static final byte ANY_TYPE = -2;
+    private static final MutatieType[] TYPES = MutatieType.values();
+
+    private static final VarHandle STAMP = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final String prefix;
+    private final long base;
+    private volatile Segment[] segments = new Segment[0];
+    private final Object directoryLock = new Object();
+    private final Object[] locks = new Object[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final StringDictionary products = new StringDictionary();
+    private final LongPostings byDay = new LongPostings();
+    // Slots of the rows without a datum, which sort after all dated rows by date
+    private final LongPostings undated = new LongPostings();
+    private final Map<Integer, LongPostings> byProduct = new ConcurrentHashMap<>();
+    private final AtomicInteger[] typeCounts = new AtomicInteger[TYPES.length];
+    private final AtomicLong modifications = new AtomicLong();
+    private final Map<Integer, Long> productModifications = new ConcurrentHashMap<>();
+
+    private static final class Segment {
+        final ByteBuffer stamps = column(4);
+        final ByteBuffer flags = column(1);
+        final ByteBuffer types = column(1);
+        final ByteBuffer productCodes = column(4);
+        final ByteBuffer aantallen = column(4);
+        final ByteBuffer days = column(4);
+        final ByteBuffer epochs = column(8);
+        // Read and written under the row stamp like the buffers
+        final String[] remarks = new String[SEGMENT_ROWS];
+
+        private static ByteBuffer column(int width) {
+            return ByteBuffer.allocateDirect(SEGMENT_ROWS * width).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /** Primitive copy of one row. */
+    private record Row(byte flags, byte type, int productCode, int aantal, int day, long epoch, String remark) {
+        boolean present() {
+            return (flags & PRESENT) != 0;
+        }
+
+        Row at(long writeEpoch) {
+            return new Row(flags, type, productCode, aantal, day, writeEpoch, remark);
+        }
+
+        /** Rows are only stored with an epoch, so a row a snapshot predates is never shown to it. */
+        boolean visibleAt(long readEpoch) {
+            return present() && epoch != 0 && epoch <= readEpoch;
+        }
+    }
+
+    /** A checked row a unit of work installs at its epoch. */
+    final class Insert {
+        private final int slot;
+        private final Row row;
+
+        private Insert(int slot, Row row) {
+            this.slot = slot;
+            this.row = row;
+        }
+
+        int stripe() {
+            return slot & (STRIPES - 1);
+        }
+
+        Object lock() {
+            return locks[stripe()];
+        }
+    }
+
+    MovementColumns(String prefix, long base) {
+        this.prefix = prefix;
+        this.base = base;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        for (int i = 0; i < typeCounts.length; i++) {
+            typeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    VoorraadbewegingResponseDTO get(String id) {
+        int slot = slotOf(id);
+        return slot < 0 ? null : materialize(slot, VersionClock.readEpoch());
+    }
+
+    boolean contains(String id) {
+        int slot = slotOf(id);
+        if (slot < 0) {
+            return false;
+        }
+        Row row = read(slot);
+        return row != null && row.visibleAt(VersionClock.readEpoch());
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /** Stores the movement; whileLocked runs with the row still locked, after the columns are written. */
+    void put(VoorraadbewegingResponseDTO beweging, Runnable whileLocked) {
+        Insert insert = prepare(beweging);
+        synchronized (insert.lock()) {
+            long epoch = VersionClock.reserve();
+            Row previous = store(insert.slot, insert.row.at(epoch));
+            VersionClock.publish(epoch);
+            if (previous.present()) {
+                modified(previous.productCode());
+            }
+            modified(insert.row.productCode());
+            whileLocked.run();
+        }
+    }
+
+    /**
+     * Checks the movement for {@link #install}; throws like {@link #put} when it cannot be stored. The
+     * row gets its epoch when it is stored.
+     */
+    Insert prepare(VoorraadbewegingResponseDTO beweging) {
+        int slot = slotOf(beweging.getId());
+        if (slot < 0) {
+            throw new IllegalArgumentException("Ongeldig voorraadbeweging id '" + beweging.getId() + "'");
+        }
+        int day = NO_DAY;
+        if (beweging.getDatum() != null) {
+            long epochDay = beweging.getDatum().toEpochDay();
+            if (epochDay <= NO_DAY || epochDay > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Datum buiten bereik: " + beweging.getDatum());
+            }
+            day = (int) epochDay;
+        }
+        byte flags = (byte) (PRESENT | (beweging.getAantal() == null ? AANTAL_NULL : 0) | (beweging.getDatum() == null ? DATUM_NULL : 0));
+        byte type = (byte) (beweging.getMutatieType() != null ? beweging.getMutatieType().ordinal() : -1);
+        return new Insert(slot, new Row(flags, type, products.encode(beweging.getProductId()),
+                beweging.getAantal() != null ? beweging.getAantal() : 0, day, 0, beweging.getOpmerking()));
+    }
+
+    /** Writes the row at the epoch of a unit of work, which holds its stripe and calls {@link #published} after. */
+    void install(Insert insert, long epoch) {
+        store(insert.slot, insert.row.at(epoch));
+    }
+
+    /** Raises the versions once the unit of work that installed the row made it visible. */
+    void published(Insert insert) {
+        modified(insert.row.productCode());
+    }
+
+    // Writes and indexes the row; returns the row it replaced
+    private Row store(int slot, Row row) {
+        Segment segment = segmentFor(slot);
+        Row previous = read(segment, slot & (SEGMENT_ROWS - 1));
+        write(segment, slot & (SEGMENT_ROWS - 1), row);
+        if (previous.present()) {
+            unindex(slot, previous);
+        } else {
+            size.incrementAndGet();
+        }
+        index(slot, row);
+        return previous;
+    }
+
+    /** Removes the row; returns false when it did not exist. */
+    boolean remove(String id, Runnable whileLocked) {
+        int slot = slotOf(id);
+        if (slot < 0) {
+            return false;
+        }
+        synchronized (locks[slot & (STRIPES - 1)]) {
+            Segment[] directory = segments;
+            int segment = slot >>> SEGMENT_BITS;
+            if (segment >= directory.length || directory[segment] == null) {
+                return false;
+            }
+            Row previous = read(directory[segment], slot & (SEGMENT_ROWS - 1));
+            if (!previous.present()) {
+                return false;
+            }
+            write(directory[segment], slot & (SEGMENT_ROWS - 1), new Row((byte) 0, (byte) -1, -1, 0, NO_DAY, 0, null));
+            unindex(slot, previous);
+            size.decrementAndGet();
+            modified(previous.productCode());
+            whileLocked.run();
+            return true;
+        }
+    }
+
+    void clear() {
+        synchronized (directoryLock) {
+            segments = new Segment[0];
+            byDay.clear();
+            undated.clear();
+            byProduct.clear();
+            products.clear();
+            for (AtomicInteger count : typeCounts) {
+                count.set(0);
+            }
+            size.set(0);
+            productModifications.clear();
+            modifications.incrementAndGet();
+        }
+    }
+
+    /** Counter raised after every change, once the changed row is readable. */
+    long version() {
+        return modifications.get();
+    }
+
+    /** Value of {@link #version} after the last change to a movement of the product, or 0. */
+    long versionOf(String productId) {
+        Long version = productModifications.get(products.lookup(productId));
+        return version != null ? version : 0;
+    }
+
+    /** Waits for every write that is running now to finish. */
+    void quiesce() {
+        for (Object lock : locks) {
+            synchronized (lock) {
+                // Acquiring the stripe is enough
+            }
+        }
+    }
+
+    /** Live view of all movements in id order, materialized while iterating. */
+    Collection<VoorraadbewegingResponseDTO> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<VoorraadbewegingResponseDTO> iterator() {
+                return scan(ANY_TYPE);
+            }
+
+            @Override
+            public Spliterator<VoorraadbewegingResponseDTO> spliterator() {
+                long epoch = VersionClock.readEpoch();
+                Segment[] directory = segments;
+                return new SlotSpliterator<>(slot -> {
+                    Segment segment = directory[slot >>> SEGMENT_BITS];
+                    if (segment == null) {
+                        return null;
+                    }
+                    Row row = read(segment, slot & (SEGMENT_ROWS - 1));
+                    return row.visibleAt(epoch) ? toDto(slot, row) : null;
+                }, 0, (int) Math.min((long) directory.length * SEGMENT_ROWS, Integer.MAX_VALUE), SEGMENT_ROWS, size.get(), null);
+            }
+
+            @Override
+            public void forEach(Consumer<? super VoorraadbewegingResponseDTO> action) {
+                spliterator().forEachRemaining(action);
+            }
+
+            @Override
+            public int size() {
+                return size.get();
+            }
+        };
+    }
+
+    Iterable<VoorraadbewegingResponseDTO> byType(MutatieType type) {
+        byte wanted = (byte) type.ordinal();
+        return () -> scan(wanted);
+    }
+
+    int countByType(MutatieType type) {
+        return typeCounts[type.ordinal()].get();
+    }
+
+    Iterable<VoorraadbewegingResponseDTO> byDate(LocalDate van, LocalDate tot, boolean descending) {
+        return () -> rows(byDay.range(lowKey(van), highKey(tot), descending), null);
+    }
+
+    int countByDate(LocalDate van, LocalDate tot, int limit) {
+        return byDay.count(lowKey(van), highKey(tot), limit);
+    }
+
+    Iterable<VoorraadbewegingResponseDTO> byProduct(String productId, boolean descending) {
+        LongPostings keys = byProduct.get(products.lookup(productId));
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        return () -> rows(keys.range(Long.MIN_VALUE, Long.MAX_VALUE, descending), null);
+    }
+
+    int countByProduct(String productId) {
+        LongPostings keys = byProduct.get(products.lookup(productId));
+        return keys != null ? keys.size() : 0;
+    }
+
+    /** Keyset order by id; keys are the ids themselves. */
+    KeyOrder<VoorraadbewegingResponseDTO> idOrder(boolean descending) {
+        Comparator<VoorraadbewegingResponseDTO> comparator = Comparator.comparing(VoorraadbewegingResponseDTO::getId, Ids.ORDER);
+        Comparator<VoorraadbewegingResponseDTO> ordered = descending ? comparator.reversed() : comparator;
+        return new KeyOrder<>() {
+            @Override
+            public Iterable<VoorraadbewegingResponseDTO> after(String key) {
+                int from = key == null ? (descending ? Integer.MAX_VALUE : -1) : keySlot(key);
+                return () -> slots(from, descending);
+            }
+
+            @Override
+            public String keyOf(VoorraadbewegingResponseDTO value) {
+                return value.getId();
+            }
+
+            @Override
+            public Comparator<VoorraadbewegingResponseDTO> comparator() {
+                return ordered;
+            }
+
+            @Override
+            public Predicate<VoorraadbewegingResponseDTO> follows(String key) {
+                return value -> {
+                    int result = Ids.ORDER.compare(value.getId(), key);
+                    return descending ? result < 0 : result > 0;
+                };
+            }
+        };
+    }
+
+    /**
+     * Keyset order by (datum, id); keys have the form "epochDay:id" like {@link DateIndex}. Rows
+     * without a datum come last in both directions, as the sort comparators put them, ordered by id
+     * and keyed ":id".
+     */
+    KeyOrder<VoorraadbewegingResponseDTO> dateOrder(boolean descending) {
+        Comparator<VoorraadbewegingResponseDTO> comparator = Comparator.comparing((VoorraadbewegingResponseDTO v) -> v.getDatum() == null)
+                .thenComparing((VoorraadbewegingResponseDTO v) -> dateKey(v), descending ? Comparator.reverseOrder() : Comparator.naturalOrder());
+        return new KeyOrder<>() {
+            @Override
+            public Iterable<VoorraadbewegingResponseDTO> after(String key) {
+                long[] last = key != null ? parseKey(key) : null;
+                return () -> {
+                    if (last == null) {
+                        return rows(byDay.range(Long.MIN_VALUE, Long.MAX_VALUE, descending), undatedRows(-1));
+                    }
+                    if (last[0] == NO_DAY) {
+                        return rows(undatedRows(last[1]), null);
+                    }
+                    long dated = pack((int) last[0], (int) last[1]);
+                    PrimitiveIterator.OfLong tail = descending
+                            ? byDay.range(Long.MIN_VALUE, dated - 1, true)
+                            : byDay.range(dated + 1, Long.MAX_VALUE, false);
+                    return rows(tail, undatedRows(-1));
+                };
+            }
+
+            // Undated slots after the given one, or all of them for -1
+            private PrimitiveIterator.OfLong undatedRows(long after) {
+                if (after < 0) {
+                    return undated.range(0, Long.MAX_VALUE, descending);
+                }
+                return descending ? undated.range(0, after - 1, true) : undated.range(after + 1, Long.MAX_VALUE, false);
+            }
+
+            @Override
+            public String keyOf(VoorraadbewegingResponseDTO value) {
+                return (value.getDatum() != null ? Long.toString(value.getDatum().toEpochDay()) : "") + ":" + value.getId();
+            }
+
+            @Override
+            public Comparator<VoorraadbewegingResponseDTO> comparator() {
+                return comparator;
+            }
+
+            @Override
+            public Predicate<VoorraadbewegingResponseDTO> follows(String key) {
+                long[] last = parseKey(key);
+                boolean lastUndated = last[0] == NO_DAY;
+                long lastKey = lastUndated ? last[1] : pack((int) last[0], (int) last[1]);
+                return value -> {
+                    boolean undatedValue = value.getDatum() == null;
+                    if (undatedValue != lastUndated) {
+                        return undatedValue;
+                    }
+                    int result = Long.compare(dateKey(value), lastKey);
+                    return descending ? result < 0 : result > 0;
+                };
+            }
+        };
+    }
+
+    // Packed (day, slot) of a dated row, the slot of an undated one
+    private long dateKey(VoorraadbewegingResponseDTO value) {
+        int slot = slotOf(value.getId());
+        return value.getDatum() != null ? pack((int) value.getDatum().toEpochDay(), slot) : slot;
+    }
+
+    // Day and slot of a cursor key; the day is NO_DAY for an undated row
+    private long[] parseKey(String key) {
+        int separator = key.indexOf(':');
+        int slot = separator < 0 ? -1 : slotOf(key.substring(separator + 1));
+        if (slot < 0) {
+            throw new IllegalArgumentException("Ongeldige cursor");
+        }
+        if (separator == 0) {
+            return new long[] {NO_DAY, slot};
+        }
+        try {
+            int day = Math.toIntExact(Long.parseLong(key.substring(0, separator)));
+            if (day == NO_DAY) {
+                throw new IllegalArgumentException("Ongeldige cursor");
+            }
+            return new long[] {day, slot};
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new IllegalArgumentException("Ongeldige cursor");
+        }
+    }
+
+    private int keySlot(String key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Ongeldige cursor");
+        }
+        return slot;
+    }
+
+    private static long pack(int day, int slot) {
+        return ((long) day << 32) | slot;
+    }
+
+    private static long lowKey(LocalDate van) {
+        return van != null ? pack(clampDay(van.toEpochDay()), 0) : Long.MIN_VALUE;
+    }
+
+    private static long highKey(LocalDate tot) {
+        return tot != null ? pack(clampDay(tot.toEpochDay()), Integer.MAX_VALUE) : Long.MAX_VALUE;
+    }
+
+    private static int clampDay(long epochDay) {
+        return (int) Math.max(NO_DAY + 1, Math.min(Integer.MAX_VALUE, epochDay));
+    }
+
+    private void index(int slot, Row row) {
+        if ((row.flags() & DATUM_NULL) == 0) {
+            byDay.add(pack(row.day(), slot));
+        } else {
+            undated.add(slot);
+        }
+        if (row.productCode() >= 0) {
+            // Added inside compute, so it cannot race with unindex dropping an emptied set
+            byProduct.compute(row.productCode(), (code, keys) -> {
+                LongPostings postings = keys != null ? keys : new LongPostings();
+                postings.add(pack(row.day(), slot));
+                return postings;
+            });
+        }
+        if (row.type() >= 0) {
+            typeCounts[row.type()].incrementAndGet();
+        }
+    }
+
+    private void modified(int productCode) {
+        long version = modifications.incrementAndGet();
+        if (productCode >= 0) {
+            productModifications.merge(productCode, version, Math::max);
+        }
+    }
+
+    private void unindex(int slot, Row row) {
+        if ((row.flags() & DATUM_NULL) == 0) {
+            byDay.remove(pack(row.day(), slot));
+        } else {
+            undated.remove(slot);
+        }
+        if (row.productCode() >= 0) {
+            byProduct.computeIfPresent(row.productCode(), (code, keys) -> {
+                keys.remove(pack(row.day(), slot));
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+        if (row.type() >= 0) {
+            typeCounts[row.type()].decrementAndGet();
+        }
+    }
+
+    private int slotOf(String id) {
+        long slot = Ids.sequence(id, prefix) - base;
+        return slot >= 0 && slot <= Integer.MAX_VALUE ? (int) slot : -1;
+    }
+
+    /** Segments are created on first write, so gaps in the id range cost only a directory entry. */
+    private Segment segmentFor(int slot) {
+        int segment = slot >>> SEGMENT_BITS;
+        Segment[] directory = segments;
+        if (segment < directory.length && directory[segment] != null) {
+            return directory[segment];
+        }
+        synchronized (directoryLock) {
+            directory = segments;
+            if (segment >= directory.length) {
+                directory = Arrays.copyOf(directory, Math.max(segment + 1, directory.length * 2));
+            }
+            if (directory[segment] == null) {
+                directory[segment] = new Segment();
+            }
+            segments = directory;
+            return directory[segment];
+        }
+    }
+
+    /** Consistent copy of a row, or null when its segment does not exist. */
+    private Row read(int slot) {
+        Segment[] directory = segments;
+        int segment = slot >>> SEGMENT_BITS;
+        return segment < directory.length && directory[segment] != null ? read(directory[segment], slot & (SEGMENT_ROWS - 1)) : null;
+    }
+
+    private static Row read(Segment segment, int row) {
+        int stampOffset = row * 4;
+        while (true) {
+            int before = (int) STAMP.getAcquire(segment.stamps, stampOffset);
+            if ((before & 1) == 0) {
+                Row result = new Row(segment.flags.get(row), segment.types.get(row), segment.productCodes.getInt(row * 4),
+                        segment.aantallen.getInt(row * 4), segment.days.getInt(row * 4), segment.epochs.getLong(row * 8), segment.remarks[row]);
+                VarHandle.loadLoadFence();
+                if ((int) STAMP.getVolatile(segment.stamps, stampOffset) == before) {
+                    return result;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Callers hold the row's stripe lock. */
+    private static void write(Segment segment, int row, Row value) {
+        int stampOffset = row * 4;
+        int stamp = (int) STAMP.getVolatile(segment.stamps, stampOffset);
+        STAMP.setVolatile(segment.stamps, stampOffset, stamp + 1);
+        VarHandle.storeStoreFence();
+        segment.flags.put(row, value.flags());
+        segment.types.put(row, value.type());
+        segment.productCodes.putInt(row * 4, value.productCode());
+        segment.aantallen.putInt(row * 4, value.aantal());
+        segment.days.putInt(row * 4, value.day());
+        segment.epochs.putLong(row * 8, value.epoch());
+        segment.remarks[row] = value.remark();
+        STAMP.setRelease(segment.stamps, stampOffset, stamp + 2);
+    }
+
+    /** The row as a read at epoch sees it, or null when it is absent or written after that epoch. */
+    private VoorraadbewegingResponseDTO materialize(int slot, long epoch) {
+        Row row = read(slot);
+        return row != null && row.visibleAt(epoch) ? toDto(slot, row) : null;
+    }
+
+    private VoorraadbewegingResponseDTO toDto(int slot, Row row) {
+        return new VoorraadbewegingResponseDTO(prefix + (base + slot), products.decode(row.productCode()),
+                row.type() >= 0 ? TYPES[row.type()] : null,
+                (row.flags() & AANTAL_NULL) != 0 ? null : row.aantal(),
+                (row.flags() & DATUM_NULL) != 0 ? null : LocalDate.ofEpochDay(row.day()),
+                row.remark());
+    }
+
+    /**
+     * Materializes the rows behind packed (day, slot) keys, or plain slots, skipping ones deleted
+     * meanwhile; the keys of then, when given, follow those of keys.
+     */
+    private Iterator<VoorraadbewegingResponseDTO> rows(PrimitiveIterator.OfLong keys, PrimitiveIterator.OfLong then) {
+        long epoch = VersionClock.readEpoch();
+        return new Iterator<>() {
+            PrimitiveIterator.OfLong current = keys;
+            VoorraadbewegingResponseDTO next = advance();
+
+            private VoorraadbewegingResponseDTO advance() {
+                while (true) {
+                    while (current.hasNext()) {
+                        VoorraadbewegingResponseDTO value = materialize((int) current.nextLong(), epoch);
+                        if (value != null) {
+                            return value;
+                        }
+                    }
+                    if (then == null || current == then) {
+                        return null;
+                    }
+                    current = then;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public VoorraadbewegingResponseDTO next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                VoorraadbewegingResponseDTO value = next;
+                next = advance();
+                return value;
+            }
+        };
+    }
+
+    /** Walks the slots after from (exclusive) in id order. */
+    private Iterator<VoorraadbewegingResponseDTO> slots(int from, boolean descending) {
+        long epoch = VersionClock.readEpoch();
+        Segment[] directory = segments;
+        long limit = (long) directory.length * SEGMENT_ROWS;
+        return new Iterator<>() {
+            long slot = descending ? Math.min(from, limit) - 1 : from + 1L;
+            VoorraadbewegingResponseDTO next = advance();
+
+            private VoorraadbewegingResponseDTO advance() {
+                while (slot >= 0 && slot < limit) {
+                    int current = (int) slot;
+                    slot += descending ? -1 : 1;
+                    Segment segment = directory[current >>> SEGMENT_BITS];
+                    if (segment == null) {
+                        // Skip the whole missing segment
+                        long first = (long) (current >>> SEGMENT_BITS) << SEGMENT_BITS;
+                        slot = descending ? first - 1 : first + SEGMENT_ROWS;
+                        continue;
+                    }
+                    Row row = read(segment, current & (SEGMENT_ROWS - 1));
+                    if (row.visibleAt(epoch)) {
+                        return toDto(current, row);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public VoorraadbewegingResponseDTO next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                VoorraadbewegingResponseDTO value = next;
+                next = advance();
+                return value;
+            }
+        };
+    }
+
+    /** Full scan over the columns; only rows of the given type (or all rows for ANY_TYPE) are materialized. */
+    private Iterator<VoorraadbewegingResponseDTO> scan(byte type) {
+        long epoch = VersionClock.readEpoch();
+        Segment[] directory = segments;
+        long limit = (long) directory.length * SEGMENT_ROWS;
+        return new Iterator<>() {
+            long slot;
+            VoorraadbewegingResponseDTO next = advance();
+
+            private VoorraadbewegingResponseDTO advance() {
+                while (slot < limit) {
+                    int current = (int) slot++;
+                    Segment segment = directory[current >>> SEGMENT_BITS];
+                    if (segment == null) {
+                        slot = ((long) (current >>> SEGMENT_BITS) + 1) << SEGMENT_BITS;
+                        continue;
+                    }
+                    int offset = current & (SEGMENT_ROWS - 1);
+                    // Plain column reads filter first; matches get a consistent copy of the row
+                    if ((segment.flags.get(offset) & PRESENT) == 0 || (type != ANY_TYPE && segment.types.get(offset) != type)) {
+                        continue;
+                    }
+                    Row row = read(segment, offset);
+                    if (row.visibleAt(epoch) && (type == ANY_TYPE || row.type() == type)) {
+                        return toDto(current, row);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public VoorraadbewegingResponseDTO next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                VoorraadbewegingResponseDTO value = next;
+                next = advance();
+                return value;
+            }
+        };
+    }
+}
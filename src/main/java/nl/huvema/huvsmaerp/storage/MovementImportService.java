@@ -0,0 +1,309 @@
+package nl.huvema.huvsmaerp.storage;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import nl.huvema.huvsmaerp.dto.MutatieType;
+import nl.huvema.huvsmaerp.dto.VoorraadImportResultDTO;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingRequestDTO;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingResponseDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Imports stock movements from CSV (productId,mutatieType,aantal,datum,opmerking, optional header,
+ * comma or semicolon separated) or NDJSON, one line at a time. Lines are collected in chunks of
+ * {@link #CHUNK_LINES}; each chunk is booked as one unit of work that changes the stock of each
+ * product once by the net quantity and stores the movements, so stock and movements never disagree.
+ * When another writer changed the stock so that the chunk no longer fits, its lines are booked one
+ * by one instead. Memory use is bounded by the chunk, whatever the size of the upload.
+ */
+@Service
+public class MovementImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MovementImportService.class);
+
+    public enum Format { CSV, NDJSON }
+
+    /** Told about every rejected line and, after each chunk, about the counts so far. */
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        default void rejected(long number, String error) {
+        }
+
+        default void progress(VoorraadImportResultDTO result) {
+        }
+    }
+
+    static final int CHUNK_LINES = 1000;
+    private static final int MAX_ERRORS = 100;
+    private static final int PROGRESS_LINES = 50_000;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private VoorraadbewegingRepository voorraadbewegingRepository;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private record Line(long number, VoorraadbewegingRequestDTO request) {
+    }
+
+    /** Stock change of one product within the chunk: a correction, if any, then the net quantity after it. */
+    private static final class Pending {
+        Integer correctie;
+        long delta;
+    }
+
+    public VoorraadImportResultDTO importMovements(Reader source, Format format) throws IOException {
+        return importMovements(source, format, Listener.NONE);
+    }
+
+    public VoorraadImportResultDTO importMovements(Reader source, Format format, Listener listener) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader buffered ? buffered : new BufferedReader(source, 1 << 16);
+        ObjectReader ndjson = objectMapper.readerFor(VoorraadbewegingRequestDTO.class);
+        VoorraadImportResultDTO result = new VoorraadImportResultDTO();
+        Chunk chunk = new Chunk(result, listener);
+        char separator = 0;
+        long started = System.nanoTime();
+        String text;
+        long number = 0;
+        while ((text = reader.readLine()) != null) {
+            number++;
+            if (text.isBlank()) {
+                continue;
+            }
+            if (format == Format.CSV && separator == 0) {
+                separator = text.chars().filter(c -> c == ';').count() > text.chars().filter(c -> c == ',').count() ? ';' : ',';
+                if (text.trim().toLowerCase(Locale.ROOT).startsWith("productid")) {
+                    continue;
+                }
+            }
+            result.setLines(result.getLines() + 1);
+            if (result.getLines() % PROGRESS_LINES == 0) {
+                logger.info("Voorraadimport: {} regels verwerkt, {} afgewezen", result.getLines(), result.getRejected());
+            }
+            VoorraadbewegingRequestDTO request;
+            try {
+                request = format == Format.CSV ? parseCsv(text, separator) : ndjson.readValue(text);
+            } catch (JsonProcessingException e) {
+                chunk.reject(number, "onleesbaar (" + e.getOriginalMessage() + ")");
+                continue;
+            } catch (RuntimeException e) {
+                chunk.reject(number, "onleesbaar (" + e.getMessage() + ")");
+                continue;
+            }
+            // An NDJSON line holding just null parses to no request at all
+            if (request == null) {
+                chunk.reject(number, "Regel ontbreekt");
+                continue;
+            }
+            String error = validate(request);
+            if (error != null) {
+                chunk.reject(number, error);
+                continue;
+            }
+            chunk.add(new Line(number, request));
+            if (chunk.size() >= CHUNK_LINES) {
+                chunk.flush();
+            }
+        }
+        chunk.flush();
+        logger.info("Voorraadimport klaar: {} bewegingen geboekt, {} afgewezen in {} ms", result.getImported(), result.getRejected(),
+                (System.nanoTime() - started) / 1_000_000);
+        return result;
+    }
+
+    /** One chunk of accepted lines, kept in file order so the movements get ids in that order. */
+    private final class Chunk {
+        private final VoorraadImportResultDTO result;
+        private final Listener listener;
+        private final List<Line> lines = new ArrayList<>();
+        private final Map<String, Pending> pending = new LinkedHashMap<>();
+        private final BitSet rejected = new BitSet();
+
+        Chunk(VoorraadImportResultDTO result, Listener listener) {
+            this.result = result;
+            this.listener = listener;
+        }
+
+        int size() {
+            return lines.size();
+        }
+
+        void add(Line line) {
+            VoorraadbewegingRequestDTO request = line.request();
+            String productId = request.getProductId();
+            if (!productRepository.existsById(productId)) {
+                reject(line.number(), "Product met ID " + productId + " niet gevonden");
+                return;
+            }
+            int index = lines.size();
+            lines.add(line);
+            Pending product = pending.computeIfAbsent(productId, id -> new Pending());
+            if (request.getMutatieType() == MutatieType.CORRECTIE) {
+                // A correction sets the stock, so what came before it no longer counts
+                product.correctie = request.getAantal();
+                product.delta = 0;
+            } else if (request.getMutatieType() == MutatieType.UIT) {
+                long projected = (product.correctie != null ? product.correctie : productRepository.stockOf(productId)) + product.delta;
+                if (projected < request.getAantal()) {
+                    refuse(index, "Onvoldoende voorraad voor product " + productId + ". Voorraad na eerdere regels: " + projected);
+                    return;
+                }
+                product.delta -= request.getAantal();
+            } else {
+                product.delta += request.getAantal();
+            }
+        }
+
+        void flush() {
+            if (!lines.isEmpty()) {
+                List<VoorraadbewegingResponseDTO> movements = new ArrayList<>(lines.size());
+                for (int i = 0; i < lines.size(); i++) {
+                    movements.add(rejected.get(i) ? null : toMovement(lines.get(i).request()));
+                }
+                if (!bookChunk(movements)) {
+                    // The stock changed under the chunk; the movements keep the ids they were given
+                    for (int i = 0; i < lines.size(); i++) {
+                        if (movements.get(i) != null && !bookLine(lines.get(i).request(), movements.get(i))) {
+                            movements.set(i, null);
+                            String productId = lines.get(i).request().getProductId();
+                            refuse(i, productRepository.existsById(productId)
+                                    ? "Onvoldoende voorraad voor product " + productId + ". Huidige voorraad: " + productRepository.stockOf(productId)
+                                    : "Product met ID " + productId + " niet gevonden");
+                        }
+                    }
+                }
+                result.setImported(result.getImported() + movements.stream().filter(Objects::nonNull).count());
+                lines.clear();
+                pending.clear();
+                rejected.clear();
+            }
+            listener.progress(result);
+        }
+
+        /** Books the net stock changes and all movements of the chunk as one unit of work. */
+        private boolean bookChunk(List<VoorraadbewegingResponseDTO> movements) {
+            try (UnitOfWork work = UnitOfWork.lock(pending.keySet())) {
+                for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+                    String productId = entry.getKey();
+                    Pending product = entry.getValue();
+                    if (product.correctie != null) {
+                        work.add(productRepository.correctStockWrite(productId, product.correctie + product.delta));
+                    } else if (product.delta > 0) {
+                        work.add(productRepository.receiveStockWrite(productId, product.delta));
+                    } else if (product.delta < 0) {
+                        work.add(productRepository.issueStockWrite(productId, -product.delta));
+                    }
+                }
+                for (VoorraadbewegingResponseDTO movement : movements) {
+                    if (movement != null) {
+                        work.add(voorraadbewegingRepository.saveWrite(movement));
+                    }
+                }
+                return work.commit();
+            }
+        }
+
+        private boolean bookLine(VoorraadbewegingRequestDTO request, VoorraadbewegingResponseDTO movement) {
+            String productId = request.getProductId();
+            try (UnitOfWork work = UnitOfWork.lock(List.of(productId))) {
+                work.add(switch (request.getMutatieType()) {
+                    case IN -> productRepository.receiveStockWrite(productId, request.getAantal());
+                    case UIT -> productRepository.issueStockWrite(productId, request.getAantal());
+                    case CORRECTIE -> productRepository.correctStockWrite(productId, request.getAantal());
+                });
+                work.add(voorraadbewegingRepository.saveWrite(movement));
+                return work.commit();
+            }
+        }
+
+        private void refuse(int index, String error) {
+            rejected.set(index);
+            reject(lines.get(index).number(), error);
+        }
+
+        void reject(long number, String error) {
+            result.setRejected(result.getRejected() + 1);
+            if (result.getErrors().size() < MAX_ERRORS) {
+                result.getErrors().add("Regel " + number + ": " + error);
+            }
+            listener.rejected(number, error);
+        }
+    }
+
+    private String validate(VoorraadbewegingRequestDTO request) {
+        for (ConstraintViolation<VoorraadbewegingRequestDTO> violation : validator.validate(request)) {
+            return violation.getPropertyPath() + ": " + violation.getMessage();
+        }
+        return null;
+    }
+
+    private static VoorraadbewegingResponseDTO toMovement(VoorraadbewegingRequestDTO request) {
+        VoorraadbewegingResponseDTO movement = new VoorraadbewegingResponseDTO();
+        movement.setProductId(request.getProductId());
+        movement.setMutatieType(request.getMutatieType());
+        movement.setAantal(request.getAantal());
+        movement.setDatum(request.getDatum());
+        movement.setOpmerking(request.getOpmerking());
+        return movement;
+    }
+
+    /** productId,mutatieType,aantal,datum[,opmerking]; fields may be quoted with "" for a quote inside. */
+    private static VoorraadbewegingRequestDTO parseCsv(String text, char separator) {
+        List<String> fields = new ArrayList<>(5);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        if (fields.size() < 4) {
+            throw new IllegalArgumentException("verwacht productId, mutatieType, aantal en datum");
+        }
+        String opmerking = fields.size() > 4 && !fields.get(4).isEmpty() ? fields.get(4) : null;
+        return new VoorraadbewegingRequestDTO(fields.get(0), MutatieType.valueOf(fields.get(1).toUpperCase(Locale.ROOT)),
+                Integer.valueOf(fields.get(2)), LocalDate.parse(fields.get(3)), opmerking);
+    }
+}
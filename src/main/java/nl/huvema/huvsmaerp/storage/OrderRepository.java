@@ -1,71 +1,237 @@
 package nl.huvema.huvsmaerp.storage;
 
 import nl.huvema.huvsmaerp.dto.*;
+import nl.huvema.huvsmaerp.util.Money;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Repository
 public class OrderRepository {
     
-    private final Map<String, OrderResponseDTO> orders = new ConcurrentHashMap<>();
-    private int nextId = 1001;
+    private final EntityTable<OrderResponseDTO> orders = new EntityTable<>("ORD-", 1001);
+    private final IdIndex idIndex = new IdIndex();
+    private final IdAllocator idAllocator = new IdAllocator("ORD-", 1001);
+    private final Journal<OrderResponseDTO> journal = new Journal<>(Journal.ORDERS, Codecs.ORDER);
+    private final DateIndex orderDatumIndex = new DateIndex();
 
     public List<OrderResponseDTO> findAll() {
         return new ArrayList<>(orders.values());
     }
 
+    public Query<OrderResponseDTO> query() {
+        return new Query<>(orders.values());
+    }
+
+    /** Visits every record in id order, straight from the table. */
+    public void forEach(Consumer<? super OrderResponseDTO> action) {
+        orders.values().forEach(action);
+    }
+
+    /** Up to limit records that match filter, in id order; the walk stops once limit is reached. */
+    public List<OrderResponseDTO> scan(Predicate<? super OrderResponseDTO> filter, int limit) {
+        return Lookups.scan(orders.values(), filter, limit);
+    }
+
+    /** Weakly consistent spliterator over the table that splits along its segments. */
+    public Spliterator<OrderResponseDTO> spliterator() {
+        return orders.values().spliterator();
+    }
+
+    /** Index-backed order for keyset paging on the given sort field, or null when there is none. */
+    public KeyOrder<OrderResponseDTO> keyOrder(String field, boolean descending) {
+        return switch (field) {
+            case "id" -> idIndex.keyOrder(orders::get, OrderResponseDTO::getId, descending);
+            case "orderDatum" -> orderDatumIndex.keyOrder(orders::get, OrderResponseDTO::getOrderDatum, OrderResponseDTO::getId, descending);
+            default -> null;
+        };
+    }
+
+    public Criterion<OrderResponseDTO> orderDatumBetween(LocalDate van, LocalDate tot) {
+        return Criterion.indexed(o -> DateIndex.inRange(o.getOrderDatum(), van, tot),
+                limit -> orderDatumIndex.count(van, tot, limit),
+                orderDatumIndex.ids(van, tot),
+                orders::get);
+    }
+
     public Optional<OrderResponseDTO> findById(String id) {
         return Optional.ofNullable(orders.get(id));
     }
 
+    /** Private copy of the record to modify and save; stored records are never changed in place. */
+    public Optional<OrderResponseDTO> findForUpdate(String id) {
+        return findById(id).map(Codecs.ORDER::copy);
+    }
+
+    /** Stores the record as the next version of its id, whatever version it was read at. */
     public OrderResponseDTO save(OrderResponseDTO order) {
         if (order.getId() == null) {
-            order.setId("ORD-" + nextId++);
+            order.setId(idAllocator.nextId());
         }
-        orders.put(order.getId(), order);
+        orders.compute(order.getId(), (id, current) -> {
+            order.setVersie(current != null ? current.getVersie() + 1 : 1);
+            return put(id, order);
+        });
+        journal.sync();
+        return order;
+    }
+
+    /**
+     * Stores new orders under one block of consecutive ids, in list order, and waits for the log once
+     * for all of them instead of once per order.
+     */
+    public List<OrderResponseDTO> saveAll(List<OrderResponseDTO> newOrders) {
+        long first = idAllocator.nextSequences(newOrders.size());
+        for (int i = 0; i < newOrders.size(); i++) {
+            OrderResponseDTO order = newOrders.get(i);
+            order.setId(idAllocator.idOf(first + i));
+            orders.compute(order.getId(), (id, current) -> {
+                order.setVersie(current != null ? current.getVersie() + 1 : 1);
+                return put(id, order);
+            });
+        }
+        journal.sync();
+        return newOrders;
+    }
+
+    /**
+     * Stores the record only while the stored one still has expectedVersion, and returns it with the
+     * next version; empty when another write or a delete came first. The check and the write are one
+     * step, so of two transitions that start from the same version exactly one succeeds.
+     */
+    public Optional<OrderResponseDTO> compareAndSave(long expectedVersion, OrderResponseDTO order) {
+        OrderResponseDTO stored = orders.compute(order.getId(), (id, current) -> {
+            if (current == null || current.getVersie() != expectedVersion) {
+                return current;
+            }
+            order.setVersie(expectedVersion + 1);
+            return put(id, order);
+        });
+        if (stored != order) {
+            return Optional.empty();
+        }
+        journal.sync();
+        return Optional.of(order);
+    }
+
+    /**
+     * Stages {@link #compareAndSave} in a unit of work: the version is checked when the unit commits,
+     * and a failed check leaves the order and its version as they were.
+     */
+    public UnitOfWork.Write compareAndSaveWrite(long expectedVersion, OrderResponseDTO order) {
+        String id = order.getId();
+        int stripe = orders.stripeOf(id);
+        return new UnitOfWork.Write(journal, stripe, orders.lock(stripe)) {
+            @Override
+            boolean prepare() {
+                OrderResponseDTO current = orders.latest(id);
+                if (current == null || current.getVersie() != expectedVersion) {
+                    return false;
+                }
+                order.setVersie(expectedVersion + 1);
+                return true;
+            }
+
+            @Override
+            byte[] record() {
+                return journal.record(order);
+            }
+
+            @Override
+            void install(long epoch) {
+                orders.install(id, epoch, (key, current) -> index(key, order));
+            }
+
+            @Override
+            void abandon() {
+                order.setVersie(expectedVersion);
+            }
+
+            @Override
+            void published(long epoch, long lsn) {
+                orders.published(epoch);
+            }
+        };
+    }
+
+    private OrderResponseDTO put(String id, OrderResponseDTO order) {
+        index(id, order);
+        journal.put(order);
+        return order;
+    }
+
+    private OrderResponseDTO index(String id, OrderResponseDTO order) {
+        idIndex.add(id);
+        orderDatumIndex.put(id, order.getOrderDatum());
         return order;
     }
 
     public void deleteById(String id) {
-        orders.remove(id);
+        orders.computeIfPresent(id, (key, current) -> {
+            idIndex.remove(key);
+            orderDatumIndex.remove(key);
+            journal.delete(key);
+            return null;
+        });
+        journal.sync();
+    }
+
+    /** Stores a record read back from the log or a snapshot, keeping its id out of future allocation. */
+    void restore(OrderResponseDTO order) {
+        idAllocator.observe(order.getId());
+        orders.compute(order.getId(), (id, current) -> put(id, order));
+        journal.sync();
+    }
+
+    Journal<OrderResponseDTO> journal() {
+        return journal;
+    }
+
+    EntityTable<OrderResponseDTO> entities() {
+        return orders;
     }
 
     public boolean existsById(String id) {
         return orders.containsKey(id);
     }
 
+    /** Raised by every change to any order; read it before the orders it should describe. */
+    public long version() {
+        return orders.version();
+    }
+
     public List<OrderResponseDTO> findByKlantId(String klantId) {
-        return orders.values().stream()
-                .filter(o -> o.getKlantId().equals(klantId))
-                .collect(Collectors.toList());
+        return scan(o -> o.getKlantId().equals(klantId), Integer.MAX_VALUE);
     }
 
     public List<OrderResponseDTO> findByStatus(OrderStatus status) {
-        return orders.values().stream()
-                .filter(o -> o.getStatus() == status)
-                .collect(Collectors.toList());
+        return scan(o -> o.getStatus() == status, Integer.MAX_VALUE);
     }
 
     public List<OrderResponseDTO> findByOrderDatumBetween(LocalDate van, LocalDate tot) {
-        return orders.values().stream()
-                .filter(o -> !o.getOrderDatum().isBefore(van) && !o.getOrderDatum().isAfter(tot))
-                .collect(Collectors.toList());
+        List<OrderResponseDTO> result = new ArrayList<>();
+        for (String id : orderDatumIndex.ids(van, tot)) {
+            OrderResponseDTO order = orders.get(id);
+            if (order != null) {
+                result.add(order);
+            }
+        }
+        return result;
     }
 
     public List<OrderResponseDTO> findByTotaalBetween(BigDecimal min, BigDecimal max) {
-        return orders.values().stream()
-                .filter(o -> o.getTotaalIncBtw().compareTo(min) >= 0 && o.getTotaalIncBtw().compareTo(max) <= 0)
-                .collect(Collectors.toList());
+        return scan(o -> o.getTotaalIncBtw().compareTo(min) >= 0 && o.getTotaalIncBtw().compareTo(max) <= 0, Integer.MAX_VALUE);
     }
 
     public void clear() {
         orders.clear();
-        nextId = 1001;
+        idIndex.clear();
+        orderDatumIndex.clear();
+        idAllocator.reset();
     }
 
     public void seedData() {
@@ -74,40 +240,37 @@ public class OrderRepository {
             new OrderRegelDTO("PRD-1001", 1, new BigDecimal("35000.00")),
             new OrderRegelDTO("PRD-1003", 10, new BigDecimal("25.00"))
         );
-        BigDecimal totaal1 = regels1.stream().map(OrderRegelDTO::getRegelTotaal).reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal btw1 = totaal1.multiply(new BigDecimal("0.21"));
         
-        save(new OrderResponseDTO(null, "CUS-1001", LocalDate.now().minusDays(5), 
-                OrderStatus.IN_BEHANDELING, regels1, totaal1, btw1, totaal1.add(btw1)));
+        save(withTotals(new OrderResponseDTO(null, "CUS-1001", LocalDate.now().minusDays(5), 
+                OrderStatus.IN_BEHANDELING, regels1, null, null, null)));
         
         List<OrderRegelDTO> regels2 = Arrays.asList(
             new OrderRegelDTO("PRD-1002", 1, new BigDecimal("65000.00")),
             new OrderRegelDTO("PRD-1004", 5, new BigDecimal("15.00"))
         );
-        BigDecimal totaal2 = regels2.stream().map(OrderRegelDTO::getRegelTotaal).reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal btw2 = totaal2.multiply(new BigDecimal("0.21"));
         
-        save(new OrderResponseDTO(null, "CUS-1002", LocalDate.now().minusDays(3), 
-                OrderStatus.NIEUW, regels2, totaal2, btw2, totaal2.add(btw2)));
+        save(withTotals(new OrderResponseDTO(null, "CUS-1002", LocalDate.now().minusDays(3), 
+                OrderStatus.NIEUW, regels2, null, null, null)));
         
         List<OrderRegelDTO> regels3 = Arrays.asList(
             new OrderRegelDTO("PRD-1006", 1, new BigDecimal("1800.00")),
             new OrderRegelDTO("PRD-1007", 50, new BigDecimal("1.50"))
         );
-        BigDecimal totaal3 = regels3.stream().map(OrderRegelDTO::getRegelTotaal).reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal btw3 = totaal3.multiply(new BigDecimal("0.21"));
         
-        save(new OrderResponseDTO(null, "CUS-1003", LocalDate.now().minusDays(1), 
-                OrderStatus.GELEVERD, regels3, totaal3, btw3, totaal3.add(btw3)));
+        save(withTotals(new OrderResponseDTO(null, "CUS-1003", LocalDate.now().minusDays(1), 
+                OrderStatus.GELEVERD, regels3, null, null, null)));
         
         List<OrderRegelDTO> regels4 = Arrays.asList(
             new OrderRegelDTO("PRD-1005", 2, new BigDecimal("0.50")),
             new OrderRegelDTO("PRD-1008", 1, new BigDecimal("5200.00"))
         );
-        BigDecimal totaal4 = regels4.stream().map(OrderRegelDTO::getRegelTotaal).reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal btw4 = totaal4.multiply(new BigDecimal("0.21"));
         
-        save(new OrderResponseDTO(null, "CUS-1004", LocalDate.now(), 
-                OrderStatus.GEANNULEERD, regels4, totaal4, btw4, totaal4.add(btw4)));
+        save(withTotals(new OrderResponseDTO(null, "CUS-1004", LocalDate.now(), 
+                OrderStatus.GEANNULEERD, regels4, null, null, null)));
+    }
+
+    private static OrderResponseDTO withTotals(OrderResponseDTO order) {
+        Money.applyTotals(order);
+        return order;
     }
 }
@@ -0,0 +1,190 @@
+package nl.huvema.huvsmaerp.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Rebuilds the repositories at startup, from the latest snapshot plus the log written after it,
+ * and connects them to the write-ahead log.
+ */
+@Service
+public class PersistenceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PersistenceService.class);
+
+    @Autowired
+    private WriteAheadLog writeAheadLog;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private KlantRepository klantRepository;
+
+    @Autowired
+    private LeverancierRepository leverancierRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private VoorraadbewegingRepository voorraadbewegingRepository;
+
+    @Autowired
+    private FactuurRepository factuurRepository;
+
+    @Value("${huvsma.snapshot.path:data/huvsma.snapshot}")
+    private String snapshotPath;
+
+    private final Object snapshotLock = new Object();
+
+    private record Table<T>(Journal<T> journal, Collection<T> values, Runnable quiesce, Consumer<T> restore,
+                            Consumer<String> delete, Runnable clear) {
+        void apply(byte op, DataInput payload) throws IOException {
+            if (op == WriteAheadLog.PUT) {
+                restore.accept(journal.codec().read(payload));
+            } else if (op == WriteAheadLog.DELETE) {
+                delete.accept(Codecs.readString(payload));
+            } else {
+                throw new IOException("Onbekende log operatie " + op);
+            }
+        }
+
+        SnapshotFile.Section<T> section() {
+            return new SnapshotFile.Section<>(journal.table(), values, journal.codec());
+        }
+
+        SnapshotFile.Loader<T> loader() {
+            return new SnapshotFile.Loader<>(journal.codec(), restore);
+        }
+    }
+
+    /**
+     * Loads the snapshot, replays the log written after it and starts logging repository writes.
+     * Returns false when there was nothing to restore, so the caller can seed instead.
+     */
+    public boolean recover() throws IOException {
+        if (!writeAheadLog.isEnabled()) {
+            return false;
+        }
+        List<Table<?>> tables = tables();
+        long start = System.nanoTime();
+        long logOffset = loadSnapshot(tables);
+        boolean restored = logOffset >= 0;
+        Table<?>[] byTag = new Table<?>[Byte.MAX_VALUE + 1];
+        for (Table<?> table : tables) {
+            byTag[table.journal().table()] = table;
+        }
+        long records = writeAheadLog.replay(Math.max(logOffset, 0), (tag, op, payload) -> {
+            Table<?> table = tag >= 0 ? byTag[tag] : null;
+            if (table == null) {
+                throw new IOException("Onbekende tabel " + tag + " in write-ahead log");
+            }
+            table.apply(op, payload);
+        });
+        for (Table<?> table : tables) {
+            table.journal().attach(writeAheadLog);
+        }
+        if (restored || records > 0) {
+            logger.info("Write-ahead log: {} records teruggespeeld, herstel duurde {} ms", records,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        return restored || records > 0;
+    }
+
+    /** Returns the log offset to replay from, or -1 when there is no usable snapshot. */
+    private long loadSnapshot(List<Table<?>> tables) {
+        Path path = Path.of(snapshotPath);
+        try {
+            long logOffset = SnapshotFile.logOffset(path);
+            if (logOffset < 0) {
+                return -1;
+            }
+            if (logOffset < writeAheadLog.start() || logOffset > writeAheadLog.end()) {
+                logger.warn("Snapshot hoort niet bij het huidige log en wordt genegeerd");
+                return -1;
+            }
+            SnapshotFile.Loader<?>[] loaders = new SnapshotFile.Loader<?>[Byte.MAX_VALUE + 1];
+            for (Table<?> table : tables) {
+                loaders[table.journal().table()] = table.loader();
+            }
+            long records = SnapshotFile.load(path, loaders);
+            logger.info("Snapshot: {} records geladen", records);
+            return logOffset;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Snapshot kan niet geladen worden ({}), het volledige log wordt teruggespeeld", e.getMessage());
+            tables.forEach(table -> table.clear().run());
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the current state of all repositories to the snapshot file. Writes keep flowing while
+     * it runs; the snapshot records the log offset from which replay makes it consistent again, and
+     * the log before that offset is dropped once the snapshot is in place.
+     */
+    public Map<String, Object> snapshot() throws IOException {
+        if (!writeAheadLog.isEnabled()) {
+            throw new IllegalStateException("Persistentie staat uit");
+        }
+        synchronized (snapshotLock) {
+            long start = System.nanoTime();
+            long logOffset = writeAheadLog.checkpoint();
+            // Writes logged before the checkpoint must be visible in the tables before they are copied
+            List<Table<?>> tables = tables();
+            List<SnapshotFile.Section<?>> sections = new ArrayList<>();
+            for (Table<?> table : tables) {
+                table.quiesce().run();
+                sections.add(table.section());
+            }
+            Path path = Path.of(snapshotPath);
+            long records = SnapshotFile.write(path, logOffset, sections);
+            writeAheadLog.compact(logOffset);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("path", path.toString());
+            result.put("records", records);
+            result.put("bytes", Files.size(path));
+            result.put("logOffset", logOffset);
+            result.put("durationMs", (System.nanoTime() - start) / 1_000_000);
+            return result;
+        }
+    }
+
+    /** Drops the snapshot and empties the log, before the repositories are reseeded. */
+    public void discard() throws IOException {
+        synchronized (snapshotLock) {
+            Files.deleteIfExists(Path.of(snapshotPath));
+            writeAheadLog.truncate();
+        }
+    }
+
+    private List<Table<?>> tables() {
+        return List.of(
+                new Table<>(leverancierRepository.journal(), leverancierRepository.entities().values(), leverancierRepository.entities()::quiesce,
+                        leverancierRepository::restore, leverancierRepository::deleteById, leverancierRepository::clear),
+                new Table<>(productRepository.journal(), productRepository.entities().values(), productRepository.entities()::quiesce,
+                        productRepository::restore, productRepository::deleteById, productRepository::clear),
+                new Table<>(klantRepository.journal(), klantRepository.entities().values(), klantRepository.entities()::quiesce,
+                        klantRepository::restore, klantRepository::deleteById, klantRepository::clear),
+                new Table<>(orderRepository.journal(), orderRepository.entities().values(), orderRepository.entities()::quiesce,
+                        orderRepository::restore, orderRepository::deleteById, orderRepository::clear),
+                new Table<>(voorraadbewegingRepository.journal(), voorraadbewegingRepository.entities().values(), voorraadbewegingRepository.entities()::quiesce,
+                        voorraadbewegingRepository::restore, voorraadbewegingRepository::deleteById, voorraadbewegingRepository::clear),
+                new Table<>(factuurRepository.journal(), factuurRepository.entities().values(), factuurRepository.entities()::quiesce,
+                        factuurRepository::restore, factuurRepository::deleteById, factuurRepository::clear));
+    }
+}
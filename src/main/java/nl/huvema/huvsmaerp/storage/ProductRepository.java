@@ -6,13 +6,39 @@ import org.springframework.stereotype.Repository;
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
 
 @Repository
 public class ProductRepository {
     
-    private final Map<String, ProductResponseDTO> products = new ConcurrentHashMap<>();
-    private int nextId = 1001;
+    private final EntityTable<ProductResponseDTO> products = new EntityTable<>("PRD-", 1001);
+    private final IdIndex idIndex = new IdIndex();
+    private final IdAllocator idAllocator = new IdAllocator("PRD-", 1001);
+    private final Journal<ProductResponseDTO> journal = new Journal<>(Journal.PRODUCTS, Codecs.PRODUCT);
+    // Source of truth for voorraadAantal; the stored product is refreshed from it after each change
+    private final StockLedger stock = new StockLedger();
+    private final Map<String, StockWriteBack> stockWrites = new ConcurrentHashMap<>();
+
+    // Secondary indexes, maintained by save/deleteById under the per-id lock of the products map
+    private final Map<String, String> skuIndex = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> categorieIndex = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> leverancierIndex = new ConcurrentHashMap<>();
+    // Indexed values per id, as they were when the record was saved
+    private final Map<String, IndexKeys> indexKeys = new ConcurrentHashMap<>();
+
+    private record IndexKeys(String sku, String categorie, String leverancierId) {}
+
+    /** Stock changes of one product taken as tickets, and the last ticket its stored record includes. */
+    private static final class StockWriteBack {
+        final AtomicLong requested = new AtomicLong();
+        // Both written under the product's slot; lsn first, so a reader that sees written sees its record
+        volatile long lsn;
+        volatile long written;
+    }
 
     public List<ProductResponseDTO> findAll() {
         return new ArrayList<>(products.values());
@@ -22,55 +48,374 @@ public class ProductRepository {
         return Optional.ofNullable(products.get(id));
     }
 
+    /** Private copy of the record to modify and save; stored records are never changed in place. */
+    public Optional<ProductResponseDTO> findForUpdate(String id) {
+        return findById(id).map(Codecs.PRODUCT::copy);
+    }
+
+    public Query<ProductResponseDTO> query() {
+        return new Query<>(products.values());
+    }
+
+    /** Visits every record in id order, straight from the table. */
+    public void forEach(Consumer<? super ProductResponseDTO> action) {
+        products.values().forEach(action);
+    }
+
+    /** Up to limit records that match filter, in id order; the walk stops once limit is reached. */
+    public List<ProductResponseDTO> scan(Predicate<? super ProductResponseDTO> filter, int limit) {
+        return Lookups.scan(products.values(), filter, limit);
+    }
+
+    /** Weakly consistent spliterator over the table that splits along its segments. */
+    public Spliterator<ProductResponseDTO> spliterator() {
+        return products.values().spliterator();
+    }
+
+    /** Index-backed order for keyset paging on the given sort field, or null when there is none. */
+    public KeyOrder<ProductResponseDTO> keyOrder(String field, boolean descending) {
+        return field.equals("id") ? idIndex.keyOrder(products::get, ProductResponseDTO::getId, descending) : null;
+    }
+
+    public Criterion<ProductResponseDTO> skuEquals(String sku) {
+        return Criterion.indexed(p -> sku.equals(p.getSku()),
+                limit -> skuIndex.containsKey(sku) ? 1 : 0,
+                () -> Optional.ofNullable(skuIndex.get(sku)).stream().iterator(),
+                products::get);
+    }
+
+    public Criterion<ProductResponseDTO> categorieEquals(String categorie) {
+        return indexedEquals(categorieIndex, categorie, p -> categorie.equals(p.getCategorie()));
+    }
+
+    public Criterion<ProductResponseDTO> leverancierIdEquals(String leverancierId) {
+        return indexedEquals(leverancierIndex, leverancierId, p -> leverancierId.equals(p.getLeverancierId()));
+    }
+
     public Optional<ProductResponseDTO> findBySku(String sku) {
-        return products.values().stream()
-                .filter(p -> p.getSku().equals(sku))
-                .findFirst();
+        String id = skuIndex.get(sku);
+        return id == null ? Optional.empty() : Optional.ofNullable(products.get(id));
     }
 
+    /**
+     * Stores the product and updates the secondary indexes in the same step.
+     * The SKU is reserved atomically, so two concurrent saves can never end up with the same SKU.
+     *
+     * @throws DuplicateSkuException when the SKU already belongs to another product
+     */
     public ProductResponseDTO save(ProductResponseDTO product) {
+        store(product, false);
+        journal.sync();
+        return product;
+    }
+
+    private void store(ProductResponseDTO product, boolean replay) {
         if (product.getId() == null) {
-            product.setId("PRD-" + nextId++);
+            product.setId(idAllocator.nextId());
         }
-        products.put(product.getId(), product);
-        return product;
+        IndexKeys keys = new IndexKeys(product.getSku(), product.getCategorie(), product.getLeverancierId());
+        products.compute(product.getId(), (id, current) -> {
+            if (replay) {
+                takeSku(keys.sku(), id);
+            } else {
+                reserveSku(keys.sku(), id);
+            }
+            idIndex.add(id);
+            // Logged before a previous SKU is released, so whoever takes that SKU next is logged after this
+            journal.put(product);
+            IndexKeys previous = indexKeys.put(id, keys);
+            if (previous != null) {
+                if (!Objects.equals(previous.sku(), keys.sku())) {
+                    removeSku(previous.sku(), id);
+                }
+                removeFromIndex(categorieIndex, previous.categorie(), id);
+                removeFromIndex(leverancierIndex, previous.leverancierId(), id);
+            }
+            addToIndex(categorieIndex, keys.categorie(), id);
+            addToIndex(leverancierIndex, keys.leverancierId(), id);
+            stock.set(id, product.getVoorraadAantal() != null ? product.getVoorraadAantal() : 0);
+            return product;
+        });
     }
 
     public void deleteById(String id) {
-        products.remove(id);
+        products.computeIfPresent(id, (key, current) -> {
+            journal.delete(key);
+            idIndex.remove(key);
+            IndexKeys previous = indexKeys.remove(key);
+            if (previous != null) {
+                removeSku(previous.sku(), key);
+                removeFromIndex(categorieIndex, previous.categorie(), key);
+                removeFromIndex(leverancierIndex, previous.leverancierId(), key);
+            }
+            stock.remove(key);
+            stockWrites.remove(key);
+            return null;
+        });
+        journal.sync();
+    }
+
+    public long stockOf(String id) {
+        return stock.available(id);
+    }
+
+    /** Adds to the stock of an existing product; returns false when the product does not exist. */
+    public boolean receiveStock(String id, int aantal) {
+        if (!stock.receive(id, aantal)) {
+            return false;
+        }
+        refreshStock(id);
+        return true;
+    }
+
+    /** Takes aantal out of stock, or returns false and leaves the stock alone when there is not enough. */
+    public boolean issueStock(String id, int aantal) {
+        if (!stock.tryIssue(id, aantal)) {
+            return false;
+        }
+        refreshStock(id);
+        return true;
+    }
+
+    /**
+     * Stages {@link #issueStock} in a unit of work. The stock is taken when the unit commits, and the
+     * product record with the new stock goes into the unit's batch instead of a write-back of its own.
+     */
+    public UnitOfWork.Write issueStockWrite(String id, long aantal) {
+        return stockWrite(id, () -> stock.tryIssue(id, aantal), () -> stock.receive(id, aantal), available -> available, () -> {});
+    }
+
+    /** Stages {@link #receiveStock} in a unit of work, like {@link #issueStockWrite}. */
+    public UnitOfWork.Write receiveStockWrite(String id, long aantal) {
+        return stockWrite(id, () -> true, () -> {}, available -> available + aantal, () -> stock.receive(id, aantal));
+    }
+
+    /** Stages {@link #correctStock} in a unit of work, like {@link #issueStockWrite}. */
+    public UnitOfWork.Write correctStockWrite(String id, long aantal) {
+        return stockWrite(id, () -> true, () -> {}, available -> aantal, () -> stock.set(id, aantal));
+    }
+
+    /**
+     * A staged ledger change. Only take can fail, so it runs in prepare and giveBack undoes it; apply
+     * runs when the unit installs, and the logged record holds the stock stockAfter predicts for then.
+     */
+    private UnitOfWork.Write stockWrite(String id, BooleanSupplier take, Runnable giveBack, LongUnaryOperator stockAfter, Runnable apply) {
+        int stripe = products.stripeOf(id);
+        return new UnitOfWork.Write(journal, stripe, products.lock(stripe)) {
+            ProductResponseDTO updated;
+            StockWriteBack writeBack;
+            long covered;
+
+            @Override
+            boolean prepare() {
+                ProductResponseDTO current = products.latest(id);
+                if (current == null || !take.getAsBoolean()) {
+                    return false;
+                }
+                // The slot is held, so no write-back reads the ledger between the change and this copy
+                writeBack = stockWrites.computeIfAbsent(id, key -> new StockWriteBack());
+                covered = writeBack.requested.get();
+                updated = Codecs.PRODUCT.copy(current);
+                updated.setVoorraadAantal((int) Math.min(Integer.MAX_VALUE, stockAfter.applyAsLong(stock.available(id))));
+                return true;
+            }
+
+            @Override
+            byte[] record() {
+                return journal.record(updated);
+            }
+
+            @Override
+            void install(long epoch) {
+                apply.run();
+                products.install(id, epoch, (key, current) -> updated);
+            }
+
+            @Override
+            void abandon() {
+                giveBack.run();
+            }
+
+            @Override
+            void published(long epoch, long lsn) {
+                writeBack.lsn = lsn;
+                writeBack.written = Math.max(writeBack.written, covered);
+                products.published(epoch);
+            }
+        };
+    }
+
+    public boolean correctStock(String id, int aantal) {
+        // Set under the product's stripe, so a delete cannot slip in and leave a ledger entry behind
+        ProductResponseDTO current = products.computeIfPresent(id, (key, stored) -> {
+            stock.set(key, aantal);
+            return stored;
+        });
+        if (current == null) {
+            return false;
+        }
+        refreshStock(id);
+        return true;
+    }
+
+    /**
+     * Copies the ledger into the stored product and logs it, once for all changes that arrive together.
+     * Each change takes a ticket after it reached the ledger; a write covers every ticket taken before it
+     * read the ledger. While a product's last write is not yet durable, changes wait for it and then go
+     * into one next write, so a busy product gets about one record per fsync instead of one per change.
+     */
+    private void refreshStock(String id) {
+        StockWriteBack writeBack = stockWrites.computeIfAbsent(id, key -> new StockWriteBack());
+        long ticket = writeBack.requested.incrementAndGet();
+        while (writeBack.written < ticket) {
+            long pending = writeBack.lsn;
+            if (!journal.isDurable(pending)) {
+                journal.await(pending);
+                continue;
+            }
+            ProductResponseDTO stored = products.computeIfPresent(id, (key, current) -> {
+                long covered = writeBack.requested.get();
+                if (writeBack.written >= ticket) {
+                    return current;
+                }
+                ProductResponseDTO updated = Codecs.PRODUCT.copy(current);
+                updated.setVoorraadAantal((int) Math.min(Integer.MAX_VALUE, stock.available(key)));
+                writeBack.lsn = journal.put(updated);
+                writeBack.written = covered;
+                return updated;
+            });
+            if (stored == null) {
+                return;
+            }
+        }
+        journal.await(writeBack.lsn);
+    }
+
+    /**
+     * Stores a record read back from the log or a snapshot, keeping its id out of future allocation.
+     * Its SKU is taken over from whichever product still holds it: the log is in apply order, so that
+     * product gave it up or will be replayed with another SKU later on.
+     */
+    void restore(ProductResponseDTO product) {
+        idAllocator.observe(product.getId());
+        store(product, true);
+    }
+
+    Journal<ProductResponseDTO> journal() {
+        return journal;
+    }
+
+    EntityTable<ProductResponseDTO> entities() {
+        return products;
     }
 
     public boolean existsById(String id) {
         return products.containsKey(id);
     }
 
+    /** Raised by every change to any product, stock included; read it before the products it should describe. */
+    public long version() {
+        return products.version();
+    }
+
+    /** Raised by every change to the product, stock included. */
+    public long versionOf(String id) {
+        return products.versionOf(id);
+    }
+
     public List<ProductResponseDTO> findByCategorie(String categorie) {
-        return products.values().stream()
-                .filter(p -> p.getCategorie().equals(categorie))
-                .collect(Collectors.toList());
+        return lookup(categorieIndex, categorie);
     }
 
     public List<ProductResponseDTO> findByLeverancierId(String leverancierId) {
-        return products.values().stream()
-                .filter(p -> p.getLeverancierId().equals(leverancierId))
-                .collect(Collectors.toList());
+        return lookup(leverancierIndex, leverancierId);
     }
 
     public List<ProductResponseDTO> findByNaamContaining(String naam) {
-        return products.values().stream()
-                .filter(p -> p.getNaam().toLowerCase().contains(naam.toLowerCase()))
-                .collect(Collectors.toList());
+        String lower = naam.toLowerCase();
+        return scan(p -> p.getNaam().toLowerCase().contains(lower), Integer.MAX_VALUE);
     }
 
     public List<ProductResponseDTO> findByVerkoopPrijsBetween(BigDecimal min, BigDecimal max) {
-        return products.values().stream()
-                .filter(p -> p.getVerkoopPrijs().compareTo(min) >= 0 && p.getVerkoopPrijs().compareTo(max) <= 0)
-                .collect(Collectors.toList());
+        return scan(p -> p.getVerkoopPrijs().compareTo(min) >= 0 && p.getVerkoopPrijs().compareTo(max) <= 0, Integer.MAX_VALUE);
     }
 
     public void clear() {
         products.clear();
-        nextId = 1001;
+        idIndex.clear();
+        skuIndex.clear();
+        categorieIndex.clear();
+        leverancierIndex.clear();
+        indexKeys.clear();
+        stock.clear();
+        stockWrites.clear();
+        idAllocator.reset();
+    }
+
+    private void reserveSku(String sku, String id) {
+        if (sku == null) {
+            return;
+        }
+        String owner = skuIndex.putIfAbsent(sku, id);
+        if (owner != null && !owner.equals(id)) {
+            throw new DuplicateSkuException(sku);
+        }
+    }
+
+    private void takeSku(String sku, String id) {
+        if (sku != null) {
+            skuIndex.put(sku, id);
+        }
+    }
+
+    private void removeSku(String sku, String id) {
+        if (sku != null) {
+            skuIndex.remove(sku, id);
+        }
+    }
+
+    private List<ProductResponseDTO> lookup(Map<String, Set<String>> index, String key) {
+        Set<String> ids = index.get(key);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        List<ProductResponseDTO> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            ProductResponseDTO product = products.get(id);
+            if (product != null) {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+
+    private Criterion<ProductResponseDTO> indexedEquals(Map<String, Set<String>> index, String key,
+                                                        Predicate<ProductResponseDTO> predicate) {
+        return Criterion.indexed(predicate,
+                limit -> index.getOrDefault(key, Set.of()).size(),
+                () -> index.getOrDefault(key, Set.of()).iterator(),
+                products::get);
+    }
+
+    private static void addToIndex(Map<String, Set<String>> index, String key, String id) {
+        if (key == null) {
+            return;
+        }
+        index.compute(key, (k, ids) -> {
+            Set<String> result = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            result.add(id);
+            return result;
+        });
+    }
+
+    private static void removeFromIndex(Map<String, Set<String>> index, String key, String id) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
     }
 
     public void seedData() {
@@ -0,0 +1,279 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Filters a repository in one pass. All criteria are collected first; on execution the most
+ * selective index among them drives the scan (falling back to the whole table) and the criteria
+ * are evaluated together per element, without intermediate lists. Each execution reads inside a
+ * {@link VersionClock} snapshot, so it sees every record as of one moment.
+ */
+public class Query<T> {
+
+    // Beyond this many rows a full sort is cheaper than keeping a heap
+    private static final int MAX_HEAP_SIZE = 100_000;
+
+    private final Collection<T> table;
+    private final List<Criterion<T>> criteria = new ArrayList<>();
+    private Comparator<? super T> order;
+
+    public Query(Collection<T> table) {
+        this.table = table;
+    }
+
+    public Query<T> where(Criterion<T> criterion) {
+        criteria.add(criterion);
+        return this;
+    }
+
+    public Query<T> where(Predicate<? super T> predicate) {
+        return where(Criterion.matching(predicate));
+    }
+
+    /** Sorts the result; null keeps the natural order of the driving index or table. */
+    public Query<T> orderBy(Comparator<? super T> order) {
+        this.order = order;
+        return this;
+    }
+
+    /** Returns one page of matches together with the total number of matches. */
+    public QueryPage<T> page(int page, int size) {
+        checkPage(page, size);
+        try (VersionClock.Snapshot snapshot = VersionClock.open()) {
+            return readPage(page, size);
+        }
+    }
+
+    private QueryPage<T> readPage(int page, int size) {
+        long from = (long) page * size;
+        long to = from + size;
+        if (order != null) {
+            return topK(driver(), this::matches, order, from, to);
+        }
+        List<T> content = new ArrayList<>(Math.min(size, 64));
+        long matched = 0;
+        for (T value : driver()) {
+            if (matches(value)) {
+                if (matched >= from && matched < to) {
+                    content.add(value);
+                }
+                matched++;
+            }
+        }
+        return new QueryPage<>(content, matched);
+    }
+
+    /** Returns at most limit matches, stopping the scan as soon as they are found when unsorted. */
+    public List<T> limit(int limit) {
+        return window(0, limit);
+    }
+
+    /**
+     * Returns at most limit matches after skipping the first offset ones. Unsorted, skipped matches
+     * are only counted and the scan stops once the window is full.
+     */
+    public List<T> window(long offset, int limit) {
+        if (limit <= 0 || offset < 0) {
+            return new ArrayList<>();
+        }
+        try (VersionClock.Snapshot snapshot = VersionClock.open()) {
+            return readWindow(offset, limit);
+        }
+    }
+
+    private List<T> readWindow(long offset, int limit) {
+        if (order != null) {
+            return topK(driver(), this::matches, order, offset, offset + limit).getContent();
+        }
+        List<T> result = new ArrayList<>(Math.min(limit, 64));
+        long skipped = 0;
+        for (T value : driver()) {
+            if (matches(value)) {
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                result.add(value);
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Hands every match to action in the given key order, segmentSize matches at a time. Each segment
+     * is read in a snapshot of its own that is closed before action sees the matches, so a slow
+     * consumer never keeps old versions from being pruned. Matches within a segment are consistent
+     * with each other; across segments each record is seen once, as it was when its segment was read,
+     * provided its key never changes (as with ids).
+     */
+    public void forEachSegment(KeyOrder<T> keyOrder, int segmentSize, Consumer<? super T> action) {
+        String after = null;
+        do {
+            KeysetPage<T> segment = seek(keyOrder, after, segmentSize);
+            segment.getContent().forEach(action);
+            after = segment.getNextKey();
+        } while (after != null);
+    }
+
+    public List<T> list() {
+        return limit(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns up to size matches that follow the given key in the key order, without counting the
+     * rest. When an index criterion is selective enough, the query reads that index and keeps the
+     * first matches past the key in a heap; otherwise it walks the key order from the key onwards.
+     */
+    public KeysetPage<T> seek(KeyOrder<T> keyOrder, String afterKey, int size) {
+        checkPage(0, size);
+        List<T> content;
+        try (VersionClock.Snapshot snapshot = VersionClock.open()) {
+            content = readAfter(keyOrder, afterKey, 0, size + 1);
+        }
+        if (content.size() > size) {
+            content.remove(size);
+            return new KeysetPage<>(content, keyOrder.keyOf(content.get(size - 1)));
+        }
+        return new KeysetPage<>(content, null);
+    }
+
+    /**
+     * Returns one page of matches without counting them all: the scan stops once the page and one
+     * more match are found, which tells whether another page follows. The page is read in the key
+     * order when one backs the sort; a sort without it still has to see every match.
+     */
+    public QueryPage<T> pageWithoutTotal(KeyOrder<T> keyOrder, int page, int size) {
+        checkPage(page, size);
+        long from = (long) page * size;
+        List<T> content;
+        try (VersionClock.Snapshot snapshot = VersionClock.open()) {
+            content = keyOrder != null ? readAfter(keyOrder, null, from, size + 1) : readWindow(from, size + 1);
+        }
+        boolean more = content.size() > size;
+        if (more) {
+            content.remove(size);
+        }
+        return new QueryPage<>(content, more);
+    }
+
+    // Up to limit matches after the given key, skipping the first skip of them
+    private List<T> readAfter(KeyOrder<T> keyOrder, String afterKey, long skip, int limit) {
+        Criterion<T> index = mostSelectiveIndex();
+        long tableSize = table.size();
+        long indexSize = index != null ? index.estimate((int) tableSize) : tableSize;
+        // Walking the key order reads about (skip + limit) * tableSize / indexSize rows to find the
+        // matches, reading the index costs indexSize rows
+        boolean useIndex = index != null && indexSize * indexSize < (skip + limit) * tableSize;
+
+        if (useIndex) {
+            Predicate<T> follows = afterKey != null ? keyOrder.follows(afterKey) : value -> true;
+            return topK(index.candidates(), value -> matches(value) && follows.test(value),
+                    keyOrder.comparator(), skip, skip + limit).getContent();
+        }
+        List<T> content = new ArrayList<>((int) Math.min(limit, 64));
+        long skipped = 0;
+        for (T value : keyOrder.after(afterKey)) {
+            if (matches(value)) {
+                if (skipped < skip) {
+                    skipped++;
+                    continue;
+                }
+                content.add(value);
+                if (content.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return content;
+    }
+
+    // Sorted pages only need the first "to" matches in order: keep them in a bounded max-heap
+    // instead of sorting every match
+    private QueryPage<T> topK(Iterable<T> source, Predicate<? super T> filter, Comparator<? super T> order,
+                              long from, long to) {
+        if (to > MAX_HEAP_SIZE) {
+            List<T> all = new ArrayList<>();
+            for (T value : source) {
+                if (filter.test(value)) {
+                    all.add(value);
+                }
+            }
+            all.sort(order);
+            int start = (int) Math.min(from, all.size());
+            int end = (int) Math.min(to, all.size());
+            return new QueryPage<>(new ArrayList<>(all.subList(start, end)), all.size());
+        }
+
+        int k = (int) to;
+        PriorityQueue<T> heap = new PriorityQueue<>(Math.min(k, 64) + 1, order.reversed());
+        long matched = 0;
+        for (T value : source) {
+            if (filter.test(value)) {
+                matched++;
+                if (heap.size() < k) {
+                    heap.add(value);
+                } else if (order.compare(value, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(value);
+                }
+            }
+        }
+
+        int start = (int) Math.min(from, heap.size());
+        Object[] top = new Object[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            top[i] = heap.poll();
+        }
+        List<T> content = new ArrayList<>(top.length - start);
+        for (int i = start; i < top.length; i++) {
+            @SuppressWarnings("unchecked")
+            T value = (T) top[i];
+            content.add(value);
+        }
+        return new QueryPage<>(content, matched);
+    }
+
+    private Iterable<T> driver() {
+        Criterion<T> index = mostSelectiveIndex();
+        return index != null ? index.candidates() : table;
+    }
+
+    private Criterion<T> mostSelectiveIndex() {
+        Criterion<T> best = null;
+        int bestSize = table.size();
+        for (Criterion<T> criterion : criteria) {
+            if (criterion.isIndexed()) {
+                int size = criterion.estimate(bestSize);
+                if (size < bestSize) {
+                    best = criterion;
+                    bestSize = size;
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean matches(T value) {
+        for (Criterion<T> criterion : criteria) {
+            if (!criterion.test(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void checkPage(int page, int size) {
+        if (page < 0 || size <= 0) {
+            throw new IllegalArgumentException("Ongeldige paginering: page moet 0 of hoger zijn en size groter dan 0");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.List;
+
+public class QueryPage<T> {
+
+    private final List<T> content;
+    private final long totalElements;
+    private final boolean more;
+
+    public QueryPage(List<T> content, long totalElements) {
+        this.content = content;
+        this.totalElements = totalElements;
+        this.more = false;
+    }
+
+    /** A page whose matches were not counted; more tells whether any follow it. */
+    public QueryPage(List<T> content, boolean more) {
+        this.content = content;
+        this.totalElements = -1;
+        this.more = more;
+    }
+
+    public List<T> getContent() { return content; }
+
+    /** Number of matches, or -1 when they were not counted. */
+    public long getTotalElements() { return totalElements; }
+
+    public boolean isCounted() { return totalElements >= 0; }
+
+    /** Whether matches follow this page; only meaningful when the page was not counted. */
+    public boolean hasMore() { return more; }
+}
@@ -3,6 +3,9 @@ package nl.huvema.huvsmaerp.storage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 @Service
 public class SeedingService {
     
@@ -24,6 +27,9 @@ public class SeedingService {
     @Autowired
     private FactuurRepository factuurRepository;
 
+    @Autowired
+    private PersistenceService persistenceService;
+
     public void seedAllData() {
         // Clear existing data
         clearAllData();
@@ -44,5 +50,10 @@ public class SeedingService {
         klantRepository.clear();
         productRepository.clear();
         leverancierRepository.clear();
+        try {
+            persistenceService.discard();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
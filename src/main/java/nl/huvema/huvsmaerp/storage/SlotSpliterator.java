@@ -0,0 +1,78 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Spliterator over a range of slots of a segmented store, reading each slot through reader (null
+ * for an empty slot). Splits fall on segment boundaries so parallel workers never share a segment.
+ * An optional tail, such as an overflow map, is traversed after the last slot by the part that
+ * keeps the end of the range.
+ */
+final class SlotSpliterator<T> implements Spliterator<T> {
+
+    private final IntFunction<T> reader;
+    private final int segmentSize;
+    private final int end;
+    private final Spliterator<T> tail;
+    private int slot;
+    private long estimate;
+
+    SlotSpliterator(IntFunction<T> reader, int from, int to, int segmentSize, long estimate, Spliterator<T> tail) {
+        this.reader = reader;
+        this.slot = from;
+        this.end = to;
+        this.segmentSize = segmentSize;
+        this.estimate = estimate;
+        this.tail = tail;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (slot < end) {
+            T value = reader.apply(slot++);
+            if (value != null) {
+                action.accept(value);
+                return true;
+            }
+        }
+        return tail != null && tail.tryAdvance(action);
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        while (slot < end) {
+            T value = reader.apply(slot++);
+            if (value != null) {
+                action.accept(value);
+            }
+        }
+        if (tail != null) {
+            tail.forEachRemaining(action);
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int middle = (int) (((long) slot + end) >>> 1) / segmentSize * segmentSize;
+        if (middle <= slot) {
+            return null;
+        }
+        long half = estimate * (middle - slot) / Math.max(1, end - slot);
+        Spliterator<T> prefix = new SlotSpliterator<>(reader, slot, middle, segmentSize, half, null);
+        slot = middle;
+        estimate -= half;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | CONCURRENT;
+    }
+}
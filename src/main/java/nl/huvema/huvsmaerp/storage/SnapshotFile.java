@@ -0,0 +1,227 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of all repositories. Layout: a header [magic][version][log offset][footer offset],
+ * then chunks of up to {@link #CHUNK_RECORDS} length-prefixed records, and a footer listing every
+ * chunk as [table][offset][length][count][crc32]. Chunks are independent, so loading maps them and
+ * restores them in parallel.
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x48565353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int CHUNK_ENTRY_SIZE = 1 + 8 + 8 + 4 + 4;
+    static final int CHUNK_RECORDS = 65_536;
+    private static final long MAX_CHUNK_BYTES = 256L << 20;
+
+    private SnapshotFile() {
+    }
+
+    record Section<T>(byte table, Collection<T> values, EntityCodec<T> codec) {
+    }
+
+    record Loader<T>(EntityCodec<T> codec, Consumer<T> restore) {
+    }
+
+    private record Chunk(byte table, long offset, long length, int count, int crc) {
+    }
+
+    /** Writes the snapshot to a temporary file and moves it over path; returns the record count. */
+    static long write(Path path, long logOffset, List<Section<?>> sections) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            List<Chunk> chunks = new ArrayList<>();
+            long position = HEADER_SIZE;
+            for (Section<?> section : sections) {
+                ChunkWriter<?> writer = new ChunkWriter<>(section, out, chunks, position);
+                writer.writeAll();
+                position = writer.position;
+                records += writer.records;
+            }
+            long footerOffset = position;
+            out.writeInt(chunks.size());
+            for (Chunk chunk : chunks) {
+                out.writeByte(chunk.table());
+                out.writeLong(chunk.offset());
+                out.writeLong(chunk.length());
+                out.writeInt(chunk.count());
+                out.writeInt(chunk.crc());
+            }
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(logOffset).putLong(footerOffset).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records;
+    }
+
+    /** Log offset the snapshot was taken at, or -1 when the file is missing or not a snapshot. */
+    static long logOffset(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            return header != null ? header.getLong(8) : -1;
+        }
+    }
+
+    /** Maps the snapshot and restores its chunks in parallel; returns the record count. */
+    static long load(Path path, Loader<?>[] loadersByTable) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            if (header == null) {
+                throw new IOException("Geen geldige snapshot: " + path);
+            }
+            long footerOffset = header.getLong(16);
+            MappedByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, channel.size() - footerOffset);
+            int count = footer.getInt();
+            List<Chunk> chunks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (footer.remaining() < CHUNK_ENTRY_SIZE) {
+                    throw new IOException("Snapshot footer is onvolledig");
+                }
+                chunks.add(new Chunk(footer.get(), footer.getLong(), footer.getLong(), footer.getInt(), footer.getInt()));
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                List<Future<Integer>> results = new ArrayList<>();
+                for (Chunk chunk : chunks) {
+                    Loader<?> loader = chunk.table() >= 0 ? loadersByTable[chunk.table()] : null;
+                    if (loader == null) {
+                        throw new IOException("Onbekende tabel " + chunk.table() + " in snapshot");
+                    }
+                    MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, chunk.offset(), chunk.length());
+                    results.add(executor.submit(() -> loadChunk(chunk, data, loader)));
+                }
+                long records = 0;
+                for (Future<Integer> result : results) {
+                    records += result.get();
+                }
+                return records;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Onderbroken tijdens laden van snapshot");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static <T> int loadChunk(Chunk chunk, ByteBuffer data, Loader<T> loader) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        if ((int) crc.getValue() != chunk.crc()) {
+            throw new IOException("Snapshot chunk op offset " + chunk.offset() + " is beschadigd");
+        }
+        ByteBufferInput in = new ByteBufferInput(data);
+        for (int i = 0; i < chunk.count(); i++) {
+            int length = in.readInt();
+            int end = data.position() + length;
+            // Limited to the record, so a codec can tell whether trailing fields were written
+            data.limit(end);
+            loader.restore().accept(loader.codec().read(in));
+            data.limit(data.capacity()).position(end);
+        }
+        return chunk.count();
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // Positional reads until the header is complete
+        }
+        header.flip();
+        return header.getInt(0) == MAGIC && header.getInt(4) == VERSION ? header : null;
+    }
+
+    private static final class ChunkWriter<T> {
+        private final Section<T> section;
+        private final DataOutputStream out;
+        private final List<Chunk> chunks;
+        private final RecordBuffer record = new RecordBuffer();
+        private final DataOutputStream recordOut = new DataOutputStream(record);
+        private final CRC32 crc = new CRC32();
+        private long position;
+        private long records;
+
+        ChunkWriter(Section<T> section, DataOutputStream out, List<Chunk> chunks, long position) {
+            this.section = section;
+            this.out = out;
+            this.chunks = chunks;
+            this.position = position;
+        }
+
+        void writeAll() throws IOException {
+            long chunkStart = position;
+            int chunkCount = 0;
+            for (T value : section.values()) {
+                record.reset();
+                section.codec().write(recordOut, value);
+                int length = record.size();
+                out.writeInt(length);
+                record.writeTo(out);
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    crc.update(length >>> shift);
+                }
+                crc.update(record.bytes(), 0, length);
+                position += 4 + length;
+                records++;
+                if (++chunkCount == CHUNK_RECORDS || position - chunkStart >= MAX_CHUNK_BYTES) {
+                    chunks.add(new Chunk(section.table(), chunkStart, position - chunkStart, chunkCount, (int) crc.getValue()));
+                    crc.reset();
+                    chunkStart = position;
+                    chunkCount = 0;
+                }
+            }
+            if (chunkCount > 0) {
+                chunks.add(new Chunk(section.table(), chunkStart, position - chunkStart, chunkCount, (int) crc.getValue()));
+                crc.reset();
+            }
+        }
+    }
+
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(256);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
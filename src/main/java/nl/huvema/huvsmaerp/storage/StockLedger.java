@@ -0,0 +1,181 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stock per product as primitive atomic counters. Issues are conditional decrements by CAS, so
+ * stock never drops below zero and concurrent movements cannot lose updates. A counter starts as a
+ * single value and spreads over padded stripes once threads collide on it, so a hot SKU does not
+ * make every thread fight over one cache line.
+ */
+public class StockLedger {
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public long available(String productId) {
+        Counter counter = counters.get(productId);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    public void set(String productId, long quantity) {
+        counters.computeIfAbsent(productId, id -> new Counter()).set(quantity);
+    }
+
+    /** Adds quantity to the stock of a known product; returns false when the product has no counter. */
+    public boolean receive(String productId, long quantity) {
+        Counter counter = counters.get(productId);
+        if (counter == null) {
+            return false;
+        }
+        counter.add(quantity);
+        return true;
+    }
+
+    /** Takes quantity out of stock, or returns false and changes nothing when there is not enough. */
+    public boolean tryIssue(String productId, long quantity) {
+        Counter counter = counters.get(productId);
+        return counter != null && counter.tryTake(quantity);
+    }
+
+    public void remove(String productId) {
+        counters.remove(productId);
+    }
+
+    public void clear() {
+        counters.clear();
+    }
+
+    /**
+     * Counter made of a base value plus, once contended, stripes that each hold part of the stock.
+     * A thread takes from its own stripe; when that runs dry it rebalances everything under the
+     * counter's lock, which is also where a shortage is decided. Rebalancing and set move stock
+     * between the cells, so sum reads the cells again when one of them ran in between.
+     */
+    static final class Counter {
+
+        private static final int STRIPES = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2);
+        // 16 longs apart keeps stripes on separate cache lines, also with adjacent line prefetch
+        private static final int PAD = 16;
+
+        private final AtomicLong base = new AtomicLong();
+        private volatile AtomicLongArray cells;
+        // Odd while stock is being moved between cells; only changed under the counter's lock
+        private volatile int moves;
+
+        long sum() {
+            while (true) {
+                int before = moves;
+                if ((before & 1) == 0) {
+                    long total = base.get();
+                    AtomicLongArray current = cells;
+                    if (current != null) {
+                        for (int i = 0; i < STRIPES; i++) {
+                            total += current.get(i * PAD);
+                        }
+                    }
+                    if (moves == before) {
+                        return total;
+                    }
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        void add(long quantity) {
+            AtomicLongArray current = cells;
+            if (current == null) {
+                long value = base.get();
+                if (base.compareAndSet(value, value + quantity)) {
+                    return;
+                }
+                current = inflate();
+            }
+            current.getAndAdd(stripe(), quantity);
+        }
+
+        boolean tryTake(long quantity) {
+            AtomicLongArray current = cells;
+            if (current == null) {
+                long value = base.get();
+                if (value < quantity) {
+                    // Without stripes the base is the whole stock
+                    if (cells == null) {
+                        return false;
+                    }
+                } else if (base.compareAndSet(value, value - quantity)) {
+                    return true;
+                }
+                current = inflate();
+            }
+            int stripe = stripe();
+            long value;
+            while ((value = current.get(stripe)) >= quantity) {
+                if (current.compareAndSet(stripe, value, value - quantity)) {
+                    return true;
+                }
+            }
+            return rebalance(current, quantity);
+        }
+
+        /** Replaces the stock; additions that land while it runs are kept on top of the new value. */
+        synchronized void set(long quantity) {
+            moves++;
+            try {
+                base.set(0);
+                AtomicLongArray current = cells;
+                if (current == null) {
+                    base.addAndGet(quantity);
+                    return;
+                }
+                for (int i = 0; i < STRIPES; i++) {
+                    current.getAndSet(i * PAD, 0);
+                }
+                spread(current, quantity);
+            } finally {
+                moves++;
+            }
+        }
+
+        /** Gathers all stock, takes quantity when it is there and deals the rest out over the stripes again. */
+        private synchronized boolean rebalance(AtomicLongArray current, long quantity) {
+            moves++;
+            try {
+                long total = base.getAndSet(0);
+                for (int i = 0; i < STRIPES; i++) {
+                    total += current.getAndSet(i * PAD, 0);
+                }
+                boolean taken = total >= quantity;
+                if (taken) {
+                    total -= quantity;
+                }
+                spread(current, total);
+                return taken;
+            } finally {
+                moves++;
+            }
+        }
+
+        private static void spread(AtomicLongArray current, long total) {
+            long share = total / STRIPES;
+            current.getAndAdd(0, total - share * (STRIPES - 1));
+            for (int i = 1; i < STRIPES; i++) {
+                current.getAndAdd(i * PAD, share);
+            }
+        }
+
+        private synchronized AtomicLongArray inflate() {
+            if (cells == null) {
+                cells = new AtomicLongArray(STRIPES * PAD);
+            }
+            return cells;
+        }
+
+        private static int stripe() {
+            long h = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+            return ((int) (h >>> 32) & (STRIPES - 1)) * PAD;
+        }
+    }
+}
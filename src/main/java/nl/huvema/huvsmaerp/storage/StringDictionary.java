@@ -0,0 +1,50 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Append-only dictionary mapping strings to dense int codes; -1 stands for null. */
+final class StringDictionary {
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int size;
+
+    int encode(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : codes.computeIfAbsent(value, this::add);
+    }
+
+    /** Code of an existing value, or -1 when the value was never encoded. */
+    int lookup(String value) {
+        Integer code = value != null ? codes.get(value) : null;
+        return code != null ? code : -1;
+    }
+
+    String decode(int code) {
+        String[] current = values;
+        return code < 0 || code >= current.length ? null : current[code];
+    }
+
+    /** Forgets every value; codes handed out before are no longer valid. */
+    synchronized void clear() {
+        codes.clear();
+        values = new String[64];
+        size = 0;
+    }
+
+    private synchronized int add(String value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        String[] current = values;
+        current[size] = value;
+        // Republish so readers that see the code also see the value
+        values = current;
+        return size++;
+    }
+}
@@ -0,0 +1,194 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory unit of work over several repositories. {@link #lock} takes the striped locks of the given
+ * keys, such as an order id and its product ids, in ascending stripe order, so two units never
+ * deadlock and units over disjoint keys run in parallel. Writes are staged by the repositories and
+ * nothing changes until {@link #commit}. It takes the slot locks of every staged write, checks all
+ * conditions, logs the records as one batch and installs every write at a single epoch, so readers
+ * and log replay see all of the unit or none of it. Only units lock the keys: other writers are kept
+ * out by the slot locks and by the conditions, such as an order version or the stock ledger.
+ */
+public final class UnitOfWork implements AutoCloseable {
+
+    private static final int STRIPES = 1024;
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private final int[] held;
+    private final List<Write> writes = new ArrayList<>();
+    private final List<String> failures = new ArrayList<>();
+    private String failure;
+    private WriteAheadLog log;
+    private long lsn;
+    private boolean closed;
+    private boolean released;
+
+    /**
+     * One write staged by a repository for a single record. Its methods run with the slot locks of
+     * all writes in the unit held.
+     */
+    public abstract static class Write {
+        private final Journal<?> journal;
+        private final int stripe;
+        private final Object lock;
+
+        Write(Journal<?> journal, int stripe, Object lock) {
+            this.journal = journal;
+            this.stripe = stripe;
+            this.lock = lock;
+        }
+
+        /** Checks the condition and builds the new record; false leaves everything as it was. */
+        abstract boolean prepare();
+
+        /** Log record of the prepared write, or null when the repository is not logging. */
+        abstract byte[] record();
+
+        /** Installs the prepared write at the unit's epoch; it must not fail. */
+        abstract void install(long epoch);
+
+        /** Gives back what {@link #prepare} took when the unit does not go through. */
+        void abandon() {
+        }
+
+        /** Runs once the unit is visible, its batch logged under lsn (0 when not logging). */
+        abstract void published(long epoch, long lsn);
+
+        // Slot locks are taken by table first, then by stripe, so two units never wait on each other
+        private long lockOrder() {
+            return ((long) journal.table() << 32) | stripe;
+        }
+    }
+
+    private UnitOfWork(int[] held) {
+        this.held = held;
+    }
+
+    /** Locks the stripes of keys and returns a unit that releases them on close. */
+    public static UnitOfWork lock(Collection<String> keys) {
+        int[] stripes = keys.stream().mapToInt(UnitOfWork::stripe).sorted().distinct().toArray();
+        for (int stripe : stripes) {
+            LOCKS[stripe].lock();
+        }
+        return new UnitOfWork(stripes);
+    }
+
+    /** Stages a conditional write; failure is reported by {@link #failure} when its condition fails. */
+    public void add(Write write, String failure) {
+        if (closed) {
+            throw new IllegalStateException("Unit of work is al afgesloten");
+        }
+        writes.add(write);
+        failures.add(failure);
+    }
+
+    /** Stages a write without a condition. */
+    public void add(Write write) {
+        add(write, null);
+    }
+
+    /**
+     * Applies the staged writes as one step and waits until their batch is durable. Returns false, with
+     * nothing changed, when a write's condition failed.
+     */
+    public boolean commit() {
+        if (closed) {
+            throw new IllegalStateException("Unit of work is al afgesloten");
+        }
+        closed = true;
+        List<Write> ordered = new ArrayList<>(writes);
+        ordered.sort(Comparator.comparingLong(Write::lockOrder));
+        List<Object> monitors = new ArrayList<>();
+        for (Write write : ordered) {
+            if (monitors.isEmpty() || monitors.get(monitors.size() - 1) != write.lock) {
+                monitors.add(write.lock);
+            }
+        }
+        if (!applyHolding(monitors, 0)) {
+            return false;
+        }
+        if (log != null) {
+            log.awaitDurable(lsn);
+        }
+        return true;
+    }
+
+    /** Message of the write that made {@link #commit} fail, or null. */
+    public String failure() {
+        return failure;
+    }
+
+    /** Releases the locks; writes that were not committed are dropped. */
+    @Override
+    public void close() {
+        closed = true;
+        if (!released) {
+            released = true;
+            for (int i = held.length - 1; i >= 0; i--) {
+                LOCKS[held[i]].unlock();
+            }
+        }
+    }
+
+    private boolean applyHolding(List<Object> monitors, int index) {
+        if (index == monitors.size()) {
+            return apply();
+        }
+        synchronized (monitors.get(index)) {
+            return applyHolding(monitors, index + 1);
+        }
+    }
+
+    private boolean apply() {
+        int prepared = 0;
+        try {
+            for (; prepared < writes.size(); prepared++) {
+                if (!writes.get(prepared).prepare()) {
+                    failure = failures.get(prepared);
+                    return false;
+                }
+            }
+            List<byte[]> records = new ArrayList<>();
+            for (Write write : writes) {
+                byte[] record = write.record();
+                if (record != null) {
+                    records.add(record);
+                    log = write.journal.log();
+                }
+            }
+            // Logged before anything is installed: once the batch is queued, installing cannot fail
+            lsn = log != null ? log.append(WriteAheadLog.batch(records)) : 0;
+            prepared = -1;
+        } finally {
+            for (int i = prepared - 1; i >= 0; i--) {
+                writes.get(i).abandon();
+            }
+        }
+        long epoch = VersionClock.reserve();
+        for (Write write : writes) {
+            write.install(epoch);
+        }
+        VersionClock.publish(epoch);
+        for (Write write : writes) {
+            write.published(epoch, lsn);
+        }
+        return true;
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,107 @@
+package nl.huvema.huvsmaerp.storage;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Commit clock for multi-version reads, shared by all {@link EntityTable}s. Every write gets the
+ * next epoch and becomes visible once all earlier epochs are. A reader opens a snapshot at the
+ * visible epoch; until it is closed, every table read on that thread returns the versions of that
+ * moment, so one request sees one consistent state across tables. Snapshots take no locks.
+ */
+public final class VersionClock {
+
+    private static final long PENDING = -1;
+    private static final int SPINS = 64;
+
+    private static final AtomicLong next = new AtomicLong();
+    private static final AtomicLong visible = new AtomicLong();
+    private static final Set<Snapshot> open = ConcurrentHashMap.newKeySet();
+    private static final ThreadLocal<Snapshot> current = new ThreadLocal<>();
+
+    private VersionClock() {
+    }
+
+    /** Point-in-time view for the current thread; close it when done reading. */
+    public static final class Snapshot implements AutoCloseable {
+        private final Snapshot outer;
+        private volatile long epoch = PENDING;
+
+        private Snapshot(Snapshot outer) {
+            this.outer = outer;
+        }
+
+        public long epoch() {
+            return epoch;
+        }
+
+        @Override
+        public void close() {
+            if (outer == null) {
+                open.remove(this);
+            }
+            current.set(outer);
+        }
+    }
+
+    /** Opens a snapshot at the visible epoch, or joins the one this thread already has open. */
+    public static Snapshot open() {
+        Snapshot outer = current.get();
+        Snapshot snapshot = new Snapshot(outer);
+        if (outer != null) {
+            snapshot.epoch = outer.epoch;
+        } else {
+            // Registered before the epoch is read, so pruning never drops a version it may still need
+            open.add(snapshot);
+            snapshot.epoch = visible.get();
+        }
+        current.set(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Epoch reads on this thread should see; without a snapshot that is the visible epoch, so a version
+     * installed but not yet published, such as one of a unit of work still going on, stays hidden.
+     */
+    static long readEpoch() {
+        Snapshot snapshot = current.get();
+        return snapshot != null ? snapshot.epoch : visible.get();
+    }
+
+    /**
+     * Epoch for a write about to be installed; it must be passed to {@link #publish} right after. A
+     * unit of work installs all of its writes at one epoch and publishes once.
+     */
+    static long reserve() {
+        return next.incrementAndGet();
+    }
+
+    /** Makes the write visible to new snapshots, after every write with an earlier epoch. */
+    static void publish(long epoch) {
+        for (int spins = 0; visible.get() != epoch - 1; spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        visible.set(epoch);
+    }
+
+    /**
+     * Oldest epoch an open snapshot may still read at. Versions older than the newest one at or
+     * before it can be dropped. Returns -1 while a snapshot is still choosing its epoch.
+     */
+    static long oldestReadable() {
+        long oldest = visible.get();
+        for (Snapshot snapshot : open) {
+            long epoch = snapshot.epoch;
+            if (epoch == PENDING) {
+                return -1;
+            }
+            oldest = Math.min(oldest, epoch);
+        }
+        return oldest;
+    }
+}
@@ -5,69 +5,176 @@ import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Repository
 public class VoorraadbewegingRepository {
     
-    private final Map<String, VoorraadbewegingResponseDTO> bewegingen = new ConcurrentHashMap<>();
-    private int nextId = 1001;
+    // Columnar rows with their own datum, product and type lookups; DTOs are built on read
+    private final MovementColumns bewegingen = new MovementColumns("MOV-", 1001);
+    private final IdAllocator idAllocator = new IdAllocator("MOV-", 1001);
+    private final Journal<VoorraadbewegingResponseDTO> journal = new Journal<>(Journal.BEWEGINGEN, Codecs.BEWEGING);
 
     public List<VoorraadbewegingResponseDTO> findAll() {
         return new ArrayList<>(bewegingen.values());
     }
 
+    public Query<VoorraadbewegingResponseDTO> query() {
+        return new Query<>(bewegingen.values());
+    }
+
+    /** Visits every record in id order, straight from the table. */
+    public void forEach(Consumer<? super VoorraadbewegingResponseDTO> action) {
+        bewegingen.values().forEach(action);
+    }
+
+    /** Up to limit records that match filter, in id order; the walk stops once limit is reached. */
+    public List<VoorraadbewegingResponseDTO> scan(Predicate<? super VoorraadbewegingResponseDTO> filter, int limit) {
+        return Lookups.scan(bewegingen.values(), filter, limit);
+    }
+
+    /** Weakly consistent spliterator over the table that splits along its segments. */
+    public Spliterator<VoorraadbewegingResponseDTO> spliterator() {
+        return bewegingen.values().spliterator();
+    }
+
+    /** Index-backed order for keyset paging on the given sort field, or null when there is none. */
+    public KeyOrder<VoorraadbewegingResponseDTO> keyOrder(String field, boolean descending) {
+        return switch (field) {
+            case "id" -> bewegingen.idOrder(descending);
+            case "datum" -> bewegingen.dateOrder(descending);
+            default -> null;
+        };
+    }
+
+    public Criterion<VoorraadbewegingResponseDTO> datumBetween(LocalDate van, LocalDate tot) {
+        return Criterion.indexed(v -> DateIndex.inRange(v.getDatum(), van, tot),
+                limit -> bewegingen.countByDate(van, tot, limit),
+                bewegingen.byDate(van, tot, false));
+    }
+
+    public Criterion<VoorraadbewegingResponseDTO> productIdEquals(String productId) {
+        return Criterion.indexed(v -> productId.equals(v.getProductId()),
+                limit -> bewegingen.countByProduct(productId),
+                bewegingen.byProduct(productId, false));
+    }
+
+    public Criterion<VoorraadbewegingResponseDTO> mutatieTypeEquals(MutatieType mutatieType) {
+        return Criterion.indexed(v -> v.getMutatieType() == mutatieType,
+                limit -> bewegingen.countByType(mutatieType),
+                bewegingen.byType(mutatieType));
+    }
+
     public Optional<VoorraadbewegingResponseDTO> findById(String id) {
         return Optional.ofNullable(bewegingen.get(id));
     }
 
     public VoorraadbewegingResponseDTO save(VoorraadbewegingResponseDTO beweging) {
         if (beweging.getId() == null) {
-            beweging.setId("MOV-" + nextId++);
+            beweging.setId(idAllocator.nextId());
         }
-        bewegingen.put(beweging.getId(), beweging);
+        bewegingen.put(beweging, () -> journal.put(beweging));
+        journal.sync();
         return beweging;
     }
 
+    /** Stages storing a new movement in a unit of work; its id is assigned right away. */
+    public UnitOfWork.Write saveWrite(VoorraadbewegingResponseDTO beweging) {
+        if (beweging.getId() == null) {
+            beweging.setId(idAllocator.nextId());
+        }
+        MovementColumns.Insert insert = bewegingen.prepare(beweging);
+        return new UnitOfWork.Write(journal, insert.stripe(), insert.lock()) {
+            @Override
+            boolean prepare() {
+                return true;
+            }
+
+            @Override
+            byte[] record() {
+                return journal.record(beweging);
+            }
+
+            @Override
+            void install(long epoch) {
+                bewegingen.install(insert, epoch);
+            }
+
+            @Override
+            void published(long epoch, long lsn) {
+                bewegingen.published(insert);
+            }
+        };
+    }
+
     public void deleteById(String id) {
-        bewegingen.remove(id);
+        bewegingen.remove(id, () -> journal.delete(id));
+        journal.sync();
+    }
+
+    /** Stores a record read back from the log or a snapshot, keeping its id out of future allocation. */
+    void restore(VoorraadbewegingResponseDTO beweging) {
+        idAllocator.observe(beweging.getId());
+        save(beweging);
+    }
+
+    Journal<VoorraadbewegingResponseDTO> journal() {
+        return journal;
+    }
+
+    MovementColumns entities() {
+        return bewegingen;
     }
 
     public boolean existsById(String id) {
-        return bewegingen.containsKey(id);
+        return bewegingen.contains(id);
+    }
+
+    /** Raised by every change to any movement; read it before the movements it should describe. */
+    public long version() {
+        return bewegingen.version();
+    }
+
+    /** Raised by every change to a movement of the product. */
+    public long versionOfProduct(String productId) {
+        return bewegingen.versionOf(productId);
     }
 
     public List<VoorraadbewegingResponseDTO> findByProductId(String productId) {
-        return bewegingen.values().stream()
-                .filter(v -> v.getProductId().equals(productId))
-                .sorted(Comparator.comparing(VoorraadbewegingResponseDTO::getDatum).reversed())
-                .collect(Collectors.toList());
+        return findLastByProductId(productId, Integer.MAX_VALUE);
     }
 
     public List<VoorraadbewegingResponseDTO> findByMutatieType(MutatieType mutatieType) {
-        return bewegingen.values().stream()
-                .filter(v -> v.getMutatieType() == mutatieType)
-                .collect(Collectors.toList());
+        List<VoorraadbewegingResponseDTO> result = new ArrayList<>();
+        bewegingen.byType(mutatieType).forEach(result::add);
+        return result;
     }
 
     public List<VoorraadbewegingResponseDTO> findByDatumBetween(LocalDate van, LocalDate tot) {
-        return bewegingen.values().stream()
-                .filter(v -> !v.getDatum().isBefore(van) && !v.getDatum().isAfter(tot))
-                .collect(Collectors.toList());
+        List<VoorraadbewegingResponseDTO> result = new ArrayList<>();
+        bewegingen.byDate(van, tot, false).forEach(result::add);
+        return result;
     }
 
     public List<VoorraadbewegingResponseDTO> findLast5ByProductId(String productId) {
-        return bewegingen.values().stream()
-                .filter(v -> v.getProductId().equals(productId))
-                .sorted(Comparator.comparing(VoorraadbewegingResponseDTO::getDatum).reversed())
-                .limit(5)
-                .collect(Collectors.toList());
+        return findLastByProductId(productId, 5);
+    }
+
+    public List<VoorraadbewegingResponseDTO> findLastByProductId(String productId, int limit) {
+        List<VoorraadbewegingResponseDTO> result = new ArrayList<>(Math.min(limit, bewegingen.countByProduct(productId)));
+        for (VoorraadbewegingResponseDTO beweging : bewegingen.byProduct(productId, true)) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(beweging);
+        }
+        return result;
     }
 
     public void clear() {
         bewegingen.clear();
-        nextId = 1001;
+        idAllocator.reset();
     }
 
     public void seedData() {
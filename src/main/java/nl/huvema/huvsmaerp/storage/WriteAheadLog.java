@@ -0,0 +1,501 @@
+package nl.huvema.huvsmaerp.storage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of repository writes. Records are framed as [length][crc32][table][op][payload].
+ * Writers append under a short lock and then wait in {@link #awaitDurable}; a single writer thread
+ * gathers everything appended within the group-commit window and makes it durable with one fsync.
+ * The file starts with [magic][version][base]: offsets handed out by the log are counted from the
+ * start of the log as it was first written, so they stay valid after {@link #compact} drops a prefix.
+ * Files written before the header existed start with records and have base 0.
+ * A batch record carries the framed records of one unit of work as its payload; one checksum covers
+ * them all, so replay applies either every one of them or, when the batch is torn, none.
+ */
+@Component
+public class WriteAheadLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte BATCH = 3;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int FILE_MAGIC = 0x48565741;
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16;
+
+    @Value("${huvsma.wal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${huvsma.wal.path:data/huvsma.wal}")
+    private String path;
+
+    @Value("${huvsma.wal.group-commit-window:2ms}")
+    private Duration groupCommitWindow;
+
+    // Replaced by compact; file positions below are positions in the current file
+    private volatile FileChannel channel;
+    // File position of the first record and the log offset it has
+    private volatile long dataStart;
+    private volatile long base;
+    private Thread writer;
+    private volatile boolean running;
+    private volatile IOException failure;
+
+    // Guarded by pendingLock
+    private final Object pendingLock = new Object();
+    private byte[] pending = new byte[64 * 1024];
+    private int pendingLength;
+    private int pendingRecords;
+    private long appendedLsn;
+    // Sequence number of the last record each thread appended, so a writer waits for its own records only
+    private final ThreadLocal<long[]> threadLsn = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final Object durableLock = new Object();
+    private volatile long durableLsn;
+    // File offset just past the last durable record
+    private volatile long durablePosition;
+    // Held around file writes so truncation never interleaves with a batch
+    private final Object ioLock = new Object();
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder fsyncNanos = new LongAdder();
+    private final AtomicLong lastBatchRecords = new AtomicLong();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path file = Path.of(path);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            writeFileHeader(channel, 0);
+        }
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        channel.read(header, 0);
+        if (header.position() == FILE_HEADER_SIZE && header.getInt(0) == FILE_MAGIC && header.getInt(4) == FILE_VERSION) {
+            dataStart = FILE_HEADER_SIZE;
+            base = header.getLong(8);
+        } else {
+            dataStart = 0;
+            base = 0;
+        }
+        channel.position(channel.size());
+        durablePosition = channel.size();
+        running = true;
+        writer = new Thread(this::writeLoop, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        if (channel == null) {
+            return;
+        }
+        running = false;
+        synchronized (pendingLock) {
+            pendingLock.notifyAll();
+        }
+        writer.join();
+        channel.close();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Offset of the first record still in the log. */
+    long start() {
+        return base;
+    }
+
+    /** Offset just past the last record in the log. */
+    long end() throws IOException {
+        synchronized (ioLock) {
+            return channel != null ? offsetOf(channel.size()) : 0;
+        }
+    }
+
+    private long offsetOf(long position) {
+        return base + position - dataStart;
+    }
+
+    private long positionOf(long offset) {
+        return dataStart + offset - base;
+    }
+
+    private static void writeFileHeader(FileChannel target, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putLong(base).flip();
+        while (header.hasRemaining()) {
+            target.write(header, header.position());
+        }
+    }
+
+    /** Encodes a record; the payload writer receives the entity fields after the table and op bytes. */
+    static byte[] record(byte table, byte op, PayloadWriter payload) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(0);
+            out.writeByte(table);
+            out.writeByte(op);
+            payload.write(out);
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+            ByteBuffer header = ByteBuffer.wrap(record, 0, HEADER_SIZE);
+            header.putInt(record.length - HEADER_SIZE);
+            header.putInt((int) crc.getValue());
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Encodes records as one batch record, which replay hands over all together or not at all. */
+    static byte[] batch(List<byte[]> records) {
+        return record((byte) 0, BATCH, out -> {
+            out.writeInt(records.size());
+            for (byte[] record : records) {
+                out.write(record);
+            }
+        });
+    }
+
+    /** Queues an encoded record and returns its log sequence number. */
+    long append(byte[] record) {
+        synchronized (pendingLock) {
+            if (failure != null) {
+                throw new IllegalStateException("Write-ahead log is niet beschikbaar", failure);
+            }
+            if (pendingLength + record.length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + record.length));
+            }
+            System.arraycopy(record, 0, pending, pendingLength, record.length);
+            pendingLength += record.length;
+            if (pendingRecords++ == 0) {
+                pendingLock.notifyAll();
+            }
+            long lsn = ++appendedLsn;
+            threadLsn.get()[0] = lsn;
+            return lsn;
+        }
+    }
+
+    long appendedLsn() {
+        synchronized (pendingLock) {
+            return appendedLsn;
+        }
+    }
+
+    /** Sequence number of the last record the calling thread appended, or 0. */
+    long appendedLsnOfThread() {
+        return threadLsn.get()[0];
+    }
+
+    boolean isDurable(long lsn) {
+        return durableLsn >= lsn;
+    }
+
+    /**
+     * Blocks until every record up to lsn has been forced to disk, and counts the wait as one commit,
+     * also when the record was already durable.
+     */
+    void awaitDurable(long lsn) {
+        long start = System.nanoTime();
+        waitDurable(lsn);
+        long elapsed = System.nanoTime() - start;
+        commits.increment();
+        commitNanos.add(elapsed);
+        maxCommitNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    // Waits without counting a commit, for the log's own housekeeping
+    private void waitDurable(long lsn) {
+        if (durableLsn >= lsn) {
+            return;
+        }
+        synchronized (durableLock) {
+            while (durableLsn < lsn && failure == null) {
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Onderbroken tijdens wachten op write-ahead log", e);
+                }
+            }
+        }
+        if (durableLsn < lsn) {
+            throw new IllegalStateException("Write-ahead log is niet beschikbaar", failure);
+        }
+    }
+
+    /** Empties the log once everything appended so far is durable, for a reset to seed data. */
+    public void truncate() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        waitDurable(appendedLsn());
+        synchronized (ioLock) {
+            channel.truncate(0);
+            writeFileHeader(channel, 0);
+            channel.force(true);
+            channel.position(FILE_HEADER_SIZE);
+            dataStart = FILE_HEADER_SIZE;
+            base = 0;
+            durablePosition = FILE_HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Waits until everything appended so far is durable and returns the log offset it reaches.
+     * Replaying from that offset covers every write that had not been logged before this call.
+     */
+    long checkpoint() {
+        waitDurable(appendedLsn());
+        synchronized (ioLock) {
+            return offsetOf(durablePosition);
+        }
+    }
+
+    /**
+     * Drops the records before offset, once a snapshot covers them. The records after it are copied to
+     * a new file that replaces the log; most of them are copied while writers go on, and appends wait
+     * only while the last part is copied and the files are swapped.
+     */
+    void compact(long offset) throws IOException {
+        if (channel == null || offset <= base) {
+            return;
+        }
+        Path file = Path.of(path);
+        Path temporary = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            writeFileHeader(target, offset);
+            long from = positionOf(offset);
+            long copied = copy(from, durablePosition, target, FILE_HEADER_SIZE);
+            synchronized (ioLock) {
+                copy(from + copied, channel.size(), target, FILE_HEADER_SIZE + copied);
+                target.force(true);
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                FileChannel previous = channel;
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel.position(channel.size());
+                dataStart = FILE_HEADER_SIZE;
+                base = offset;
+                durablePosition = channel.size();
+                previous.close();
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        logger.info("Write-ahead log: ingekort tot offset {}, {} bytes over", offset, end() - offset);
+    }
+
+    // Copies the bytes of the current file between from and to; returns how many were copied
+    private long copy(long from, long to, FileChannel target, long at) throws IOException {
+        long copied = 0;
+        while (from + copied < to) {
+            copied += channel.transferTo(from + copied, to - from - copied, target.position(at + copied));
+        }
+        return copied;
+    }
+
+    /**
+     * Reads the log from the given offset and hands every intact record to the handler. A torn or corrupt
+     * tail, left by a crash in the middle of a write, is cut off. Returns the number of records read.
+     */
+    long replay(long from, RecordHandler handler) throws IOException {
+        if (channel == null) {
+            return 0;
+        }
+        if (from < base) {
+            throw new IOException("Write-ahead log begint pas bij offset " + base + ", herstel vanaf " + from + " is niet mogelijk");
+        }
+        long count = 0;
+        long validEnd = positionOf(from);
+        synchronized (ioLock) {
+            channel.position(validEnd);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                byte[] body;
+                try {
+                    length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 2 || length > channel.size()) {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(body, 2, length - 2));
+                if (body[1] == BATCH) {
+                    count += replayBatch(payload, handler);
+                } else {
+                    handler.handle(body[0], body[1], payload);
+                    count++;
+                }
+                validEnd += HEADER_SIZE + length;
+            }
+            if (validEnd < channel.size()) {
+                logger.warn("Write-ahead log: beschadigde staart vanaf byte {} verwijderd", validEnd);
+                channel.truncate(validEnd);
+            }
+            channel.position(validEnd);
+            durablePosition = validEnd;
+        }
+        return count;
+    }
+
+    // The batch checksum already covers the records inside it
+    private static int replayBatch(DataInputStream in, RecordHandler handler) throws IOException {
+        int records = in.readInt();
+        for (int i = 0; i < records; i++) {
+            int length = in.readInt();
+            in.readInt();
+            byte[] body = new byte[length];
+            in.readFully(body);
+            handler.handle(body[0], body[1], new DataInputStream(new ByteArrayInputStream(body, 2, length - 2)));
+        }
+        return records;
+    }
+
+    public Map<String, Object> metrics() {
+        long fsyncCount = fsyncs.sum();
+        long commitCount = commits.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("groupCommitWindowMs", groupCommitWindow.toNanos() / 1_000_000.0);
+        metrics.put("startOffset", base);
+        metrics.put("records", records.sum());
+        metrics.put("fsyncs", fsyncCount);
+        metrics.put("recordsPerFsync", fsyncCount == 0 ? 0.0 : (double) records.sum() / fsyncCount);
+        metrics.put("lastBatchRecords", lastBatchRecords.get());
+        metrics.put("avgFsyncMicros", fsyncCount == 0 ? 0 : fsyncNanos.sum() / fsyncCount / 1000);
+        metrics.put("commits", commitCount);
+        metrics.put("avgCommitLatencyMicros", commitCount == 0 ? 0 : commitNanos.sum() / commitCount / 1000);
+        metrics.put("maxCommitLatencyMicros", maxCommitNanos.get() / 1000);
+        try {
+            metrics.put("sizeBytes", channel != null ? channel.size() : 0);
+        } catch (IOException e) {
+            metrics.put("sizeBytes", -1);
+        }
+        return metrics;
+    }
+
+    private void writeLoop() {
+        byte[] spare = new byte[pending.length];
+        while (true) {
+            synchronized (pendingLock) {
+                while (pendingRecords == 0 && running) {
+                    try {
+                        pendingLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pendingRecords == 0) {
+                    return;
+                }
+            }
+            if (running && !groupCommitWindow.isZero()) {
+                // Let concurrent writers join this batch
+                LockSupport.parkNanos(groupCommitWindow.toNanos());
+            }
+            byte[] batch;
+            int length;
+            int batchRecords;
+            long batchLsn;
+            synchronized (pendingLock) {
+                batch = pending;
+                length = pendingLength;
+                batchRecords = pendingRecords;
+                batchLsn = appendedLsn;
+                pending = spare.length >= batch.length ? spare : new byte[batch.length];
+                pendingLength = 0;
+                pendingRecords = 0;
+            }
+            try {
+                long start = System.nanoTime();
+                synchronized (ioLock) {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch, 0, length);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                    durablePosition = channel.position();
+                }
+                fsyncNanos.add(System.nanoTime() - start);
+            } catch (IOException e) {
+                failure = e;
+                synchronized (durableLock) {
+                    durableLock.notifyAll();
+                }
+                return;
+            }
+            spare = batch;
+            records.add(batchRecords);
+            fsyncs.increment();
+            lastBatchRecords.set(batchRecords);
+            synchronized (durableLock) {
+                durableLsn = batchLsn;
+                durableLock.notifyAll();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface PayloadWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface RecordHandler {
+        void handle(byte table, byte op, DataInput payload) throws IOException;
+    }
+}
@@ -0,0 +1,71 @@
+package nl.huvema.huvsmaerp.util;
+
+import org.springframework.http.MediaType;
+
+public class ETagUtil {
+
+    // Repository versions start over after a restart, so tags from an earlier run must not match
+    private static final String BOOT = Long.toString(System.currentTimeMillis(), 36);
+
+    /** Strong entity tag for a record version, as sent in the ETag header. */
+    public static String of(long versie) {
+        return "\"" + BOOT + "-" + versie + "\"";
+    }
+
+    /**
+     * Whether an If-Match header allows writing over the given version. A missing header or "*" always
+     * matches; otherwise one of the listed tags must equal the version. Weak tags never match, as If-Match
+     * compares strongly.
+     */
+    public static boolean matches(String ifMatch, long versie) {
+        if (ifMatch == null || ifMatch.isBlank()) {
+            return true;
+        }
+        String expected = of(versie);
+        for (String tag : ifMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.equals("*") || trimmed.equals(expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Weak entity tag for a JSON representation built from the given repository versions. */
+    public static String weak(long... versions) {
+        return weak(MediaType.APPLICATION_JSON, versions);
+    }
+
+    /**
+     * Weak entity tag for a representation in format built from the given repository versions. JSON and
+     * CBOR of the same data get different tags, so a cache never answers one with the other.
+     */
+    public static String weak(MediaType format, long... versions) {
+        StringBuilder tag = new StringBuilder("W/\"").append(BOOT);
+        for (long version : versions) {
+            tag.append('-').append(Long.toString(version, 36));
+        }
+        if (!MediaType.APPLICATION_JSON.equals(format)) {
+            tag.append('-').append(format.getSubtype());
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Whether an If-None-Match header lists the tag, so a GET can answer 304. The comparison is weak:
+     * the W/ prefix is ignored on both sides, and "*" matches any tag.
+     */
+    public static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.equals("*") || (trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,140 @@
+package nl.huvema.huvsmaerp.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import nl.huvema.huvsmaerp.dto.ApiResponse;
+import nl.huvema.huvsmaerp.dto.CachedJson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonFragments {
+
+    /**
+     * The record as a raw JSON value. Its bytes are serialized on first use and kept on the record, so
+     * every later response copies them instead of running Jackson over the record again.
+     */
+    public static RawValue of(CachedJson record, ObjectMapper objectMapper) {
+        byte[] json = record.cachedJson();
+        if (json == null) {
+            try {
+                json = objectMapper.writeValueAsBytes(record);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Serialiseren van " + record.getClass().getSimpleName() + " mislukt: " + e.getOriginalMessage(), e);
+            }
+            record.cacheJson(json);
+        }
+        return new RawValue(new Utf8Fragment(json));
+    }
+
+    /**
+     * The same page with the records replaced by their cached JSON. Serializing it writes only the
+     * envelope and meta through Jackson; the record bytes go into the output as they are.
+     */
+    public static <T extends CachedJson> ApiResponse<List<RawValue>> page(ApiResponse<List<T>> page, ObjectMapper objectMapper) {
+        List<RawValue> data = null;
+        if (page.getData() != null) {
+            data = new ArrayList<>(page.getData().size());
+            for (T record : page.getData()) {
+                data.add(of(record, objectMapper));
+            }
+        }
+        ApiResponse<List<RawValue>> fragments = new ApiResponse<>(data, page.getMeta());
+        fragments.setErrors(page.getErrors());
+        return fragments;
+    }
+
+    /** UTF-8 JSON that byte-based generators copy as is; character-based ones decode it first. */
+    private static final class Utf8Fragment implements SerializableString {
+        private final byte[] json;
+
+        Utf8Fragment(byte[] json) {
+            this.json = json;
+        }
+
+        private SerializedString text() {
+            return new SerializedString(getValue());
+        }
+
+        @Override
+        public String getValue() {
+            return new String(json, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int charLength() {
+            return getValue().length();
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return json;
+        }
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset) {
+            if (offset + json.length > buffer.length) {
+                return -1;
+            }
+            System.arraycopy(json, 0, buffer, offset, json.length);
+            return json.length;
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            out.write(json);
+            return json.length;
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer buffer) {
+            if (buffer.remaining() < json.length) {
+                return -1;
+            }
+            buffer.put(json);
+            return json.length;
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset) {
+            return text().appendUnquoted(buffer, offset);
+        }
+
+        @Override
+        public char[] asQuotedChars() {
+            return text().asQuotedChars();
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            return text().asQuotedUTF8();
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset) {
+            return text().appendQuotedUTF8(buffer, offset);
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset) {
+            return text().appendQuoted(buffer, offset);
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) throws IOException {
+            return text().writeQuotedUTF8(out);
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) throws IOException {
+            return text().putQuotedUTF8(buffer);
+        }
+    }
+}
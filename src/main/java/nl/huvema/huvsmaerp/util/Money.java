@@ -0,0 +1,91 @@
+package nl.huvema.huvsmaerp.util;
+
+import nl.huvema.huvsmaerp.dto.OrderRegelDTO;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * Fixed-point money for the order pipeline: amounts are longs in euro cents, unit prices longs in
+ * micros (millionths of a euro), and BigDecimal is only used where values enter or leave as JSON.
+ * Rounding rules:
+ * <ul>
+ *   <li>unit prices keep up to six decimals, finer ones are rounded half-up to micros;</li>
+ *   <li>line totals are rounded half-up to whole cents once, after multiplying by the quantity;</li>
+ *   <li>order totals are the exact sum of the line totals;</li>
+ *   <li>BTW is charged once on the order total and rounded half-up to whole cents.</li>
+ * </ul>
+ * Arithmetic overflow throws instead of wrapping. Orders are checked against {@link #MAX_STUKS_PRIJS},
+ * {@link #MAX_AANTAL} and {@link #MAX_TOTAAL_CENTS} first, which keeps every line and order total
+ * far below the long range, so valid orders never get there.
+ */
+public final class Money {
+
+    public static final int BTW_PERCENTAGE = 21;
+    private static final int SCALE = 2;
+    private static final int UNIT_SCALE = 6;
+    private static final long MICROS_PER_CENT = 10_000;
+
+    public static final BigDecimal MAX_STUKS_PRIJS = new BigDecimal("1000000");
+    public static final int MAX_AANTAL = 100_000;
+    public static final long MAX_TOTAAL_CENTS = 1_000_000_000_000_000L;
+
+    private Money() {
+    }
+
+    public static long toCents(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    public static long toMicros(BigDecimal amount) {
+        return amount.setScale(UNIT_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /** True when the unit price lies within plus or minus {@link #MAX_STUKS_PRIJS}. */
+    public static boolean isValidStuksPrijs(BigDecimal stuksPrijs) {
+        return stuksPrijs.abs().compareTo(MAX_STUKS_PRIJS) <= 0;
+    }
+
+    /** True when the quantity lies within plus or minus {@link #MAX_AANTAL}. */
+    public static boolean isValidAantal(int aantal) {
+        return aantal >= -MAX_AANTAL && aantal <= MAX_AANTAL;
+    }
+
+    /** Unit price times quantity, rounded half-up (away from zero) to whole cents. */
+    public static long lineTotal(long unitMicros, int aantal) {
+        return roundHalfUp(Math.multiplyExact(unitMicros, aantal), MICROS_PER_CENT);
+    }
+
+    /** BTW over an amount excluding BTW, rounded half-up (away from zero) to whole cents. */
+    public static long btw(long exclusiveCents) {
+        return roundHalfUp(Math.multiplyExact(exclusiveCents, BTW_PERCENTAGE), 100);
+    }
+
+    private static long roundHalfUp(long value, long divisor) {
+        long half = value >= 0 ? divisor / 2 : -divisor / 2;
+        return Math.addExact(value, half) / divisor;
+    }
+
+    public static long sumLines(List<OrderRegelDTO> regels) {
+        long total = 0;
+        for (OrderRegelDTO regel : regels) {
+            total = Math.addExact(total, regel.regelTotaalCents());
+        }
+        return total;
+    }
+
+    /** Sets totaalExBtw, btwBedrag and totaalIncBtw from the order lines. */
+    public static void applyTotals(OrderResponseDTO order) {
+        long exclusive = sumLines(order.getRegels());
+        long btw = btw(exclusive);
+        order.setTotaalExBtw(toBigDecimal(exclusive));
+        order.setBtwBedrag(toBigDecimal(btw));
+        order.setTotaalIncBtw(toBigDecimal(Math.addExact(exclusive, btw)));
+    }
+}
@@ -0,0 +1,45 @@
+package nl.huvema.huvsmaerp.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import nl.huvema.huvsmaerp.storage.KeyOrder;
+import nl.huvema.huvsmaerp.storage.Query;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+public class NdjsonUtil {
+
+    // Matches read per snapshot; small enough that a snapshot is closed again within milliseconds
+    private static final int SEGMENT_SIZE = 1000;
+
+    /**
+     * Response body that writes every match of the query as one JSON line, in the given key order
+     * (ids). Records are serialized one at a time into the generator's buffer, which goes out to the
+     * client whenever it fills, so the heap used does not grow with the number of rows. The query is
+     * read in segments with a short snapshot each, so a long download holds no snapshot open.
+     */
+    public static <T> StreamingResponseBody stream(Query<T> query, KeyOrder<T> keyOrder, ObjectMapper objectMapper) {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return out -> {
+            // The container owns the response stream; closing the generator only flushes it
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                // Lines are separated by hand, not by Jackson's default space between root values
+                generator.setRootValueSeparator(null);
+                query.forEachSegment(keyOrder, SEGMENT_SIZE, value -> {
+                    try {
+                        writer.writeValue(generator, value);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+}
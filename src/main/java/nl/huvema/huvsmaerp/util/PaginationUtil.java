@@ -1,11 +1,36 @@
 package nl.huvema.huvsmaerp.util;
 
 import nl.huvema.huvsmaerp.dto.ApiResponse;
+import nl.huvema.huvsmaerp.storage.Ids;
+import nl.huvema.huvsmaerp.storage.KeyOrder;
+import nl.huvema.huvsmaerp.storage.KeysetPage;
+import nl.huvema.huvsmaerp.storage.Query;
+import nl.huvema.huvsmaerp.storage.QueryPage;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class PaginationUtil {
     
+    // Compiled sort keys per DTO type and property, built once from the getters
+    private static final Map<Class<?>, Map<String, SortKey>> SORT_KEYS = new ConcurrentHashMap<>();
+    
     public static <T> ApiResponse<List<T>> createResponse(List<T> content, int page, int size, long totalElements) {
         int totalPages = (int) Math.ceil((double) totalElements / size);
         ApiResponse.Meta meta = new ApiResponse.Meta(
@@ -20,6 +45,103 @@ public class PaginationUtil {
         return new ApiResponse<>(content, meta);
     }
     
+    /**
+     * Builds the response for a page of a query. A page that was not counted carries no totals in
+     * meta; last then tells whether another page follows.
+     */
+    public static <T> ApiResponse<List<T>> createResponse(QueryPage<T> result, int page, int size) {
+        if (result.isCounted()) {
+            return createResponse(result.getContent(), page, size, result.getTotalElements());
+        }
+        ApiResponse.Meta meta = new ApiResponse.Meta();
+        meta.setPage(page);
+        meta.setSize(size);
+        meta.setFirst(page == 0);
+        meta.setLast(!result.hasMore());
+        return new ApiResponse<>(result.getContent(), meta);
+    }
+    
+    /**
+     * Runs the query for one page. Without a cursor this is an offset page; with a cursor (taken from
+     * meta.nextCursor of the previous page) the query resumes right after the last row of that page
+     * in the index that backs the sort order. Cursor pages are not counted, so they cost
+     * O(log n + size) regardless of how deep they are. Offset pages count every match for the totals
+     * unless total is false; then the read stops once the page is full and meta carries no totals.
+     * Results are ordered by id when no sort is given.
+     */
+    public static <T> ApiResponse<List<T>> page(Query<T> query, Class<T> type,
+                                                BiFunction<String, Boolean, KeyOrder<T>> keyOrders,
+                                                String sort, String cursor, int page, int size, boolean total) {
+        String effectiveSort = sort == null || sort.trim().isEmpty() ? "id,asc" : sort;
+        query.orderBy(comparator(type, effectiveSort));
+        
+        // Only a single sort key can be backed by an index
+        String[] spec = effectiveSort.split(";").length == 1 ? effectiveSort.split(",") : null;
+        String cursorSort = null;
+        KeyOrder<T> keyOrder = null;
+        if (spec != null) {
+            String field = spec[0].trim();
+            boolean descending = spec.length > 1 && spec[1].trim().equalsIgnoreCase("desc");
+            cursorSort = field + "," + (descending ? "desc" : "asc");
+            keyOrder = keyOrders.apply(field, descending);
+        }
+        
+        if (cursor != null && !cursor.trim().isEmpty()) {
+            if (keyOrder == null) {
+                throw new IllegalArgumentException("Cursor paginering is niet mogelijk bij sortering '" + effectiveSort + "'");
+            }
+            KeysetPage<T> result = query.seek(keyOrder, decodeCursor(cursor, cursorSort), size);
+            ApiResponse.Meta meta = new ApiResponse.Meta();
+            meta.setSize(size);
+            meta.setLast(result.getNextKey() == null);
+            if (result.getNextKey() != null) {
+                meta.setNextCursor(encodeCursor(cursorSort, result.getNextKey()));
+            }
+            return new ApiResponse<>(result.getContent(), meta);
+        }
+        
+        if (!total) {
+            QueryPage<T> result = query.pageWithoutTotal(keyOrder, page, size);
+            List<T> content = result.getContent();
+            ApiResponse<List<T>> response = createResponse(result, page, size);
+            if (keyOrder != null && result.hasMore()) {
+                response.getMeta().setNextCursor(encodeCursor(cursorSort, keyOrder.keyOf(content.get(content.size() - 1))));
+            }
+            return response;
+        }
+        
+        QueryPage<T> result = query.page(page, size);
+        List<T> content = result.getContent();
+        ApiResponse<List<T>> response = createResponse(content, page, size, result.getTotalElements());
+        if (keyOrder != null && !content.isEmpty() && (long) page * size + content.size() < result.getTotalElements()) {
+            response.getMeta().setNextCursor(encodeCursor(cursorSort, keyOrder.keyOf(content.get(content.size() - 1))));
+        }
+        return response;
+    }
+    
+    // Cursors are opaque to clients; they carry the sort they belong to and the last key
+    private static String encodeCursor(String sort, String key) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((sort + "\n" + key).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static String decodeCursor(String cursor, String sort) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Ongeldige cursor");
+        }
+        int separator = decoded.indexOf('\n');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Ongeldige cursor");
+        }
+        if (!decoded.substring(0, separator).equals(sort)) {
+            throw new IllegalArgumentException("Cursor hoort bij een andere sortering");
+        }
+        return decoded.substring(separator + 1);
+    }
+    
     public static <T> List<T> applyPagination(List<T> content, int page, int size) {
         int start = page * size;
         int end = Math.min(start + size, content.size());
@@ -32,12 +154,123 @@ public class PaginationUtil {
     }
     
     public static <T> List<T> applySorting(List<T> content, String sort) {
-        if (sort == null || sort.trim().isEmpty()) {
+        if (sort == null || sort.trim().isEmpty() || content.isEmpty()) {
             return content;
         }
         
-        // For now, just return the content as-is
-        // In a real implementation, you would implement sorting based on the sort parameter
-        return content;
+        @SuppressWarnings("unchecked")
+        Comparator<T> comparator = comparator((Class<T>) content.get(0).getClass(), sort);
+        List<T> sorted = new ArrayList<>(content);
+        sorted.sort(comparator);
+        return sorted;
+    }
+    
+    /**
+     * Builds a comparator for a sort parameter such as {@code orderDatum,desc}. Several keys can be
+     * separated by ';'. Ties are broken on id, so paging through the result is stable.
+     * Returns null when no sorting is requested.
+     */
+    public static <T> Comparator<T> comparator(Class<T> type, String sort) {
+        if (sort == null || sort.trim().isEmpty()) {
+            return null;
+        }
+        
+        Map<String, SortKey> keys = SORT_KEYS.computeIfAbsent(type, PaginationUtil::compileSortKeys);
+        Comparator<Object> result = null;
+        boolean sortsOnId = false;
+        boolean lastDescending = false;
+        for (String spec : sort.split(";")) {
+            String[] parts = spec.split(",");
+            String field = parts[0].trim();
+            SortKey key = keys.get(field);
+            if (key == null) {
+                throw new IllegalArgumentException("Onbekend sorteerveld '" + field + "'");
+            }
+            String direction = parts.length > 1 ? parts[1].trim() : "asc";
+            Comparator<Object> next;
+            if (direction.equalsIgnoreCase("asc")) {
+                next = key.ascending;
+            } else if (direction.equalsIgnoreCase("desc")) {
+                next = key.descending;
+            } else {
+                throw new IllegalArgumentException("Ongeldige sorteerrichting '" + direction + "', gebruik asc of desc");
+            }
+            result = result == null ? next : result.thenComparing(next);
+            sortsOnId |= field.equals("id");
+            lastDescending = next == key.descending;
+        }
+        
+        // Break ties on id in the direction of the last key, which matches the (value, id) order
+        // of the indexes used for cursor paging
+        SortKey id = keys.get("id");
+        if (!sortsOnId && id != null) {
+            result = result.thenComparing(lastDescending ? id.descending : id.ascending);
+        }
+        
+        @SuppressWarnings("unchecked")
+        Comparator<T> typed = (Comparator<T>) result;
+        return typed;
+    }
+    
+    private static Map<String, SortKey> compileSortKeys(Class<?> type) {
+        Map<String, SortKey> keys = new HashMap<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Method method : type.getMethods()) {
+            String property = propertyName(method);
+            if (property == null || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            Class<?> valueType = method.getReturnType();
+            if (!valueType.isPrimitive() && !Comparable.class.isAssignableFrom(valueType)) {
+                continue;
+            }
+            Function<Object, Object> getter = compileGetter(lookup, type, method);
+            Comparator<Object> values = property.equals("id")
+                    ? compareIds()
+                    : naturalOrder();
+            keys.put(property, new SortKey(
+                    Comparator.comparing(getter, Comparator.nullsLast(values)),
+                    Comparator.comparing(getter, Comparator.nullsLast(values.reversed()))));
+        }
+        return Collections.unmodifiableMap(keys);
     }
+    
+    private static String propertyName(Method method) {
+        if (method.getParameterCount() != 0 || method.getDeclaringClass() == Object.class) {
+            return null;
+        }
+        String name = method.getName();
+        int prefix = name.startsWith("get") ? 3 : name.startsWith("is") ? 2 : 0;
+        if (prefix == 0 || name.length() == prefix) {
+            return null;
+        }
+        return Character.toLowerCase(name.charAt(prefix)) + name.substring(prefix + 1);
+    }
+    
+    // Turns the getter into a Function through LambdaMetafactory, so sorting never reflects per element
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> compileGetter(MethodHandles.Lookup lookup, Class<?> type, Method method) {
+        try {
+            MethodHandle handle = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(handle.type().wrap().returnType(), type));
+            return (Function<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Kan sorteerveld " + method.getName() + " niet compileren", e);
+        }
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<Object> naturalOrder() {
+        return (a, b) -> ((Comparable) a).compareTo(b);
+    }
+    
+    private static Comparator<Object> compareIds() {
+        return (a, b) -> Ids.ORDER.compare((String) a, (String) b);
+    }
+    
+    private record SortKey(Comparator<Object> ascending, Comparator<Object> descending) {}
 }
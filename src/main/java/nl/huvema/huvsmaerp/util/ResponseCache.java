@@ -0,0 +1,251 @@
+package nl.huvema.huvsmaerp.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Least-recently-used cache of serialized GET responses, bounded by the bytes it holds. Every entry
+ * remembers the repository versions it was built from; a lookup with a newer version of any of them is
+ * a miss that drops the entry, so a write makes exactly the responses of its repository stale and
+ * nothing else. A lookup that read older versions than the entry's is served the newer entry.
+ * Callers read the version before the data, like the ETags, so an entry is never newer than its label.
+ * Concurrent misses on one key share a single computation: the first builds the response and the
+ * others wait for its bytes, as long as it read at least their version, so nobody gets older data
+ * than a computation of its own would have produced. Responses are kept as JSON or, for clients that
+ * prefer it, CBOR; the two are separate entries.
+ */
+@Component
+public class ResponseCache {
+
+    // Rough heap cost of an entry besides its key and body: map node, entry and array headers
+    private static final int ENTRY_OVERHEAD = 96;
+
+    @Value("${huvsma.response-cache.max-size:32MB}")
+    private DataSize maxSize;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MappingJackson2CborHttpMessageConverter cborConverter;
+
+    // Guarded by itself; access order makes the eldest entry the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+
+    private record Entry(long[] versions, byte[] body, long cost) {
+    }
+
+    /** A response being built for a key from the data at versions or later. */
+    private record Flight(long[] versions, CompletableFuture<byte[]> body) {
+    }
+
+    /**
+     * Cache key for an endpoint and its query parameters, given as name, value pairs. Null and blank
+     * values are left out, as the endpoints treat them as absent, and amounts are compared by value.
+     */
+    public static String key(String endpoint, Object... parameters) {
+        StringBuilder key = new StringBuilder(endpoint);
+        char separator = '?';
+        for (int i = 0; i + 1 < parameters.length; i += 2) {
+            Object value = parameters[i + 1];
+            if (value == null || (value instanceof String text && text.isBlank())) {
+                continue;
+            }
+            String text = value instanceof BigDecimal amount ? amount.stripTrailingZeros().toPlainString() : value.toString();
+            key.append(separator).append(parameters[i]).append('=').append(URLEncoder.encode(text, StandardCharsets.UTF_8));
+            separator = '&';
+        }
+        return key.toString();
+    }
+
+    /**
+     * CBOR when the Accept header asks for it with a higher preference than JSON, otherwise JSON. A
+     * wildcard only counts against CBOR when it is preferred over it.
+     */
+    public static MediaType format(String accept) {
+        if (accept == null || !accept.contains("cbor")) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> types = MediaType.parseMediaTypes(accept);
+        double cbor = 0;
+        double json = 0;
+        double wildcard = 0;
+        for (MediaType type : types) {
+            if (type.getSubtype().equals(MediaType.APPLICATION_CBOR.getSubtype()) && !type.isWildcardType()) {
+                cbor = Math.max(cbor, type.getQualityValue());
+            } else if (type.isWildcardType() || type.isWildcardSubtype()) {
+                wildcard = Math.max(wildcard, type.getQualityValue());
+            } else if (type.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                json = Math.max(json, type.getQualityValue());
+            }
+        }
+        return cbor > 0 && cbor > json && cbor >= wildcard ? MediaType.APPLICATION_CBOR : MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Bytes of the response for key in the given format (JSON or CBOR) at the given repository version,
+     * from the cache, from a computation already running for the key, or built by response and then
+     * stored. Exceptions of response are passed on, also to the requests waiting for it, and nothing
+     * is stored.
+     */
+    public byte[] get(String endpointKey, long version, MediaType format, Supplier<?> response) {
+        return get(endpointKey, new long[] {version}, format, response);
+    }
+
+    /**
+     * Same as {@link #get(String, long, MediaType, Supplier)} for a response built from several
+     * repositories, each with its own version; the entry is fresh while none of them moved past it.
+     */
+    public byte[] get(String endpointKey, long[] versions, MediaType format, Supplier<?> response) {
+        boolean cbor = MediaType.APPLICATION_CBOR.equals(format);
+        String key = cbor ? "cbor " + endpointKey : endpointKey;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (covers(entry.versions(), versions)) {
+                    hits.increment();
+                    return entry.body();
+                }
+                remove(key, entry);
+                stale.increment();
+            }
+        }
+        Flight mine = new Flight(versions, new CompletableFuture<>());
+        Flight leader = inFlight.compute(key, (k, running) -> running != null && covers(running.versions(), versions) ? running : mine);
+        if (leader != mine) {
+            coalesced.increment();
+            return await(leader.body());
+        }
+        misses.increment();
+        try {
+            byte[] body;
+            try {
+                body = (cbor ? cborConverter.getObjectMapper() : objectMapper).writeValueAsBytes(response.get());
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Serialiseren van response mislukt: " + e.getOriginalMessage(), e);
+            }
+            // Stored before the flight ends, so a request arriving in between finds it in the cache
+            put(key, new Entry(versions, body, ENTRY_OVERHEAD + 2L * key.length() + body.length));
+            mine.body().complete(body);
+            return body;
+        } catch (RuntimeException | Error e) {
+            mine.body().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** Whether data at versions is at least as new as data at wanted, repository by repository. */
+    private static boolean covers(long[] versions, long[] wanted) {
+        for (int i = 0; i < wanted.length; i++) {
+            if (versions[i] < wanted[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> body) {
+        try {
+            return body.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public Map<String, Object> metrics() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("maxBytes", maxSize.toBytes());
+        synchronized (entries) {
+            metrics.put("entries", entries.size());
+            metrics.put("bytes", bytes);
+        }
+        metrics.put("hits", hitCount);
+        metrics.put("misses", missCount);
+        metrics.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        metrics.put("coalesced", coalesced.sum());
+        metrics.put("inFlight", inFlight.size());
+        metrics.put("staleDrops", stale.sum());
+        metrics.put("evictions", evictions.sum());
+        metrics.put("uncacheable", uncacheable.sum());
+        return metrics;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        long limit = maxSize.toBytes();
+        // One response may not push out most of the others
+        if (entry.cost() > limit / 8) {
+            uncacheable.increment();
+            return;
+        }
+        synchronized (entries) {
+            Entry previous = entries.get(key);
+            if (previous != null) {
+                // A concurrent miss may have stored a newer version meanwhile
+                if (covers(previous.versions(), entry.versions())) {
+                    return;
+                }
+                remove(key, previous);
+            }
+            entries.put(key, entry);
+            bytes += entry.cost();
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > limit && eldest.hasNext()) {
+                Map.Entry<String, Entry> victim = eldest.next();
+                eldest.remove();
+                bytes -= victim.getValue().cost();
+                evictions.increment();
+            }
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.cost();
+    }
+}
@@ -0,0 +1,111 @@
+package nl.huvema.huvsmaerp.benchmark;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.huvema.huvsmaerp.dto.ApiResponse;
+import nl.huvema.huvsmaerp.dto.MutatieType;
+import nl.huvema.huvsmaerp.dto.OrderRegelDTO;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+import nl.huvema.huvsmaerp.dto.OrderStatus;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingResponseDTO;
+import nl.huvema.huvsmaerp.util.PaginationUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode throughput of a page of orders and of stock movements, as JSON and as CBOR, with
+ * mappers built like the application's converters. The payload size of each combination is reported
+ * by JMH as the payloadBytes counter of encode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BinaryEncodingBenchmark {
+
+    @Param({"orders", "movements"})
+    private String list;
+
+    @Param({"json", "cbor"})
+    private String format;
+
+    @Param({"100"})
+    private int size;
+
+    private ObjectMapper mapper;
+    private ApiResponse<?> page;
+    private JavaType type;
+    private byte[] encoded;
+
+    /** Size of the encoded page, shown next to the encode score. */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Payload {
+        public long payloadBytes;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = format.equals("cbor") ? Jackson2ObjectMapperBuilder.cbor().build() : Jackson2ObjectMapperBuilder.json().build();
+        Class<?> record = list.equals("orders") ? OrderResponseDTO.class : VoorraadbewegingResponseDTO.class;
+        page = list.equals("orders") ? PaginationUtil.createResponse(orders(), 0, size, 10_000) : PaginationUtil.createResponse(movements(), 0, size, 10_000);
+        type = mapper.getTypeFactory().constructParametricType(ApiResponse.class, mapper.getTypeFactory().constructCollectionType(List.class, record));
+        encoded = mapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] encode(Payload payload) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(page);
+        payload.payloadBytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return mapper.readValue(encoded, type);
+    }
+
+    private List<OrderResponseDTO> orders() {
+        List<OrderResponseDTO> orders = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            List<OrderRegelDTO> regels = new ArrayList<>();
+            BigDecimal totaal = BigDecimal.ZERO;
+            for (int r = 0; r < 1 + i % 5; r++) {
+                OrderRegelDTO regel = new OrderRegelDTO("PRD-" + (1001 + (i + r) % 50), 1 + r, new BigDecimal((10 + i % 90) + "." + (10 + r)));
+                regels.add(regel);
+                totaal = totaal.add(regel.getRegelTotaal());
+            }
+            BigDecimal btw = totaal.multiply(new BigDecimal("0.21")).setScale(2, RoundingMode.HALF_UP);
+            orders.add(new OrderResponseDTO("ORD-" + (1001 + i), "CUS-" + (1001 + i % 20), LocalDate.of(2024, 1, 1).plusDays(i),
+                    OrderStatus.values()[i % OrderStatus.values().length], regels, totaal, btw, totaal.add(btw)));
+        }
+        return orders;
+    }
+
+    private List<VoorraadbewegingResponseDTO> movements() {
+        List<VoorraadbewegingResponseDTO> movements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            movements.add(new VoorraadbewegingResponseDTO("MOV-" + (1001 + i), "PRD-" + (1001 + i % 50),
+                    MutatieType.values()[i % MutatieType.values().length], 1 + i % 25, LocalDate.of(2024, 1, 1).plusDays(i),
+                    i % 3 == 0 ? "Levering " + i : null));
+        }
+        return movements;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BinaryEncodingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
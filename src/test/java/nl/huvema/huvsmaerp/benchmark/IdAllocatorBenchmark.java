@@ -0,0 +1,85 @@
+package nl.huvema.huvsmaerp.benchmark;
+
+import nl.huvema.huvsmaerp.dto.KlantResponseDTO;
+import nl.huvema.huvsmaerp.storage.IdAllocator;
+import nl.huvema.huvsmaerp.storage.KlantRepository;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Insert throughput at 1, 4 and 8 threads. Each insert is deleted again so the table stays small
+ * and the numbers reflect id allocation and index maintenance rather than map growth.
+ * Run with {@code main} or through the JMH runner on the test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdAllocatorBenchmark {
+
+    private KlantRepository repository;
+    private IdAllocator allocator;
+    private AtomicLong sharedCounter;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        repository = new KlantRepository();
+        allocator = new IdAllocator("CUS-", 1001);
+        sharedCounter = new AtomicLong(1001);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String insert1() {
+        return insert();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String insert4() {
+        return insert();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String insert8() {
+        return insert();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String allocate1() {
+        return allocator.nextId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String allocate8() {
+        return allocator.nextId();
+    }
+
+    /** Baseline: one shared counter bumped by every thread. */
+    @Benchmark
+    @Threads(8)
+    public String sharedCounter8() {
+        return "CUS-" + sharedCounter.getAndIncrement();
+    }
+
+    private String insert() {
+        KlantResponseDTO klant = repository.save(new KlantResponseDTO(null, "Benchmark BV", null,
+                "bench@example.nl", null, null, null));
+        repository.deleteById(klant.getId());
+        return klant.getId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IdAllocatorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
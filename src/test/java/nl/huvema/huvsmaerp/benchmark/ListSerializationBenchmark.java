@@ -0,0 +1,66 @@
+package nl.huvema.huvsmaerp.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.huvema.huvsmaerp.dto.ApiResponse;
+import nl.huvema.huvsmaerp.dto.ProductResponseDTO;
+import nl.huvema.huvsmaerp.util.JsonFragments;
+import nl.huvema.huvsmaerp.util.PaginationUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization cost of one product list response: Jackson over every product, against the envelope
+ * with the JSON each product keeps from its first response. Both produce the same bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListSerializationBenchmark {
+
+    @Param({"20", "100"})
+    private int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private ApiResponse<List<ProductResponseDTO>> page;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        List<ProductResponseDTO> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            products.add(new ProductResponseDTO("PRD-" + (1001 + i), "SKU-" + i, "Product " + i,
+                    "Beschrijving van product " + i + " voor de benchmark", "Onderdelen",
+                    new BigDecimal(i + ".50"), new BigDecimal((i * 2) + ".95"), i * 3, "SUP-" + (1001 + i % 10)));
+        }
+        page = PaginationUtil.createResponse(products, 0, size, 10_000);
+        if (!Arrays.equals(jackson(), fragments())) {
+            throw new IllegalStateException("Fragmenten wijken af van Jackson");
+        }
+    }
+
+    /** Former path: every product serialized on every request. */
+    @Benchmark
+    public byte[] jackson() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] fragments() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(JsonFragments.page(page, objectMapper));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ListSerializationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,80 @@
+package nl.huvema.huvsmaerp.benchmark;
+
+import nl.huvema.huvsmaerp.dto.OrderRegelDTO;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+import nl.huvema.huvsmaerp.util.Money;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Totals of a 200-line order: the former BigDecimal stream with a fresh 0.21 per call, against
+ * summing cents with {@link Money}. Run with {@code -prof gc} to compare allocation per order.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderTotalsBenchmark {
+
+    @Param({"200"})
+    private int lines;
+
+    private List<OrderRegelDTO> regels;
+    private List<BigDecimal> bigDecimalTotals;
+
+    @Setup
+    public void setUp() {
+        regels = new ArrayList<>(lines);
+        bigDecimalTotals = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            OrderRegelDTO regel = new OrderRegelDTO("PRD-" + (1001 + i), 1 + i % 50, new BigDecimal((i % 100) + "." + (i % 100)));
+            regels.add(regel);
+            bigDecimalTotals.add(regel.getStuksPrijs().multiply(BigDecimal.valueOf(regel.getAantal())));
+        }
+    }
+
+    /** Former path: line totals as BigDecimal, summed with a stream. */
+    @Benchmark
+    public BigDecimal bigDecimal() {
+        BigDecimal totaalExBtw = bigDecimalTotals.stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal btwBedrag = totaalExBtw.multiply(new BigDecimal("0.21"));
+        return totaalExBtw.add(btwBedrag);
+    }
+
+    @Benchmark
+    public long cents() {
+        long exclusive = Money.sumLines(regels);
+        return exclusive + Money.btw(exclusive);
+    }
+
+    /** Cents plus the three BigDecimals the response needs. */
+    @Benchmark
+    public OrderResponseDTO centsWithResponse() {
+        OrderResponseDTO order = new OrderResponseDTO();
+        order.setRegels(regels);
+        Money.applyTotals(order);
+        return order;
+    }
+
+    /** Repricing every line, as recalculateOrder does, then the totals. */
+    @Benchmark
+    public OrderResponseDTO recalculate() {
+        for (OrderRegelDTO regel : regels) {
+            regel.setAantal(regel.getAantal());
+        }
+        return centsWithResponse();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(OrderTotalsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,90 @@
+package nl.huvema.huvsmaerp.benchmark;
+
+import nl.huvema.huvsmaerp.storage.StockLedger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decrement throughput on one hot SKU, against a single CAS counter and a synchronized
+ * read-check-write as baselines. Stock is large enough that no iteration runs out.
+ * Run with {@code main} or through the JMH runner on the test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StockLedgerBenchmark {
+
+    private static final String HOT_SKU = "PRD-1005";
+    private static final long STOCK = Long.MAX_VALUE / 2;
+
+    private StockLedger ledger;
+    private AtomicLong singleCounter;
+    private long lockedStock;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        ledger = new StockLedger();
+        ledger.set(HOT_SKU, STOCK);
+        singleCounter = new AtomicLong(STOCK);
+        lockedStock = STOCK;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean ledger1() {
+        return ledger.tryIssue(HOT_SKU, 1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean ledger8() {
+        return ledger.tryIssue(HOT_SKU, 1);
+    }
+
+    /** Issues and receipts mixed, as when deliveries come in while orders ship. */
+    @Benchmark
+    @Threads(8)
+    public boolean ledgerMixed8() {
+        return ledger.tryIssue(HOT_SKU, 2) && ledger.receive(HOT_SKU, 1);
+    }
+
+    /** Baseline: one conditional CAS loop on a shared counter. */
+    @Benchmark
+    @Threads(8)
+    public boolean singleCounter8() {
+        while (true) {
+            long current = singleCounter.get();
+            if (current < 1) {
+                return false;
+            }
+            if (singleCounter.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Baseline: check and decrement under one lock. */
+    @Benchmark
+    @Threads(8)
+    public boolean synchronized8() {
+        synchronized (this) {
+            if (lockedStock < 1) {
+                return false;
+            }
+            lockedStock--;
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StockLedgerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
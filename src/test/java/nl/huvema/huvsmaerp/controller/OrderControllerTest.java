@@ -0,0 +1,158 @@
+package nl.huvema.huvsmaerp.controller;
+
+import nl.huvema.huvsmaerp.dto.ApiResponse;
+import nl.huvema.huvsmaerp.dto.OrderBatchResultDTO;
+import nl.huvema.huvsmaerp.dto.OrderRegelDTO;
+import nl.huvema.huvsmaerp.dto.OrderRequestDTO;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+import nl.huvema.huvsmaerp.dto.OrderStatus;
+import nl.huvema.huvsmaerp.dto.ProductResponseDTO;
+import nl.huvema.huvsmaerp.storage.OrderRepository;
+import nl.huvema.huvsmaerp.storage.ProductRepository;
+import nl.huvema.huvsmaerp.storage.VoorraadbewegingRepository;
+import nl.huvema.huvsmaerp.util.ETagUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = {OrderController.class, OrderRepository.class, ProductRepository.class,
+        VoorraadbewegingRepository.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ImportAutoConfiguration({JacksonAutoConfiguration.class, ValidationAutoConfiguration.class})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class OrderControllerTest {
+
+    @Autowired
+    private OrderController controller;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private VoorraadbewegingRepository voorraadbewegingRepository;
+
+    private String productId;
+
+    @BeforeEach
+    void setUp() {
+        productId = productRepository.save(new ProductResponseDTO(null, "SKU-1", "Draaibank", "Omschrijving", "Machines",
+                new BigDecimal("10.00"), new BigDecimal("15.00"), 5, "SUP-1001")).getId();
+    }
+
+    private static OrderRequestDTO request(String productId, int aantal) {
+        return new OrderRequestDTO("CUS-1001", LocalDate.of(2024, 1, 1),
+                new ArrayList<>(List.of(new OrderRegelDTO(productId, aantal, new BigDecimal("15.00")))));
+    }
+
+    private ResponseEntity<ApiResponse<OrderResponseDTO>> setStatus(String id, OrderStatus status, String ifMatch) {
+        return controller.updateOrderStatus(id, Map.of("status", status), ifMatch);
+    }
+
+    @Test
+    void batchWithInvalidOrdersAnswersMultiStatus() {
+        List<OrderRequestDTO> requests = Arrays.asList(request(productId, 2), request("PRD-9999", 1), null, request(productId, 0),
+                request(productId, 1));
+
+        ResponseEntity<ApiResponse<List<OrderBatchResultDTO>>> response = controller.createOrders(requests);
+
+        assertEquals(HttpStatus.MULTI_STATUS, response.getStatusCode());
+        List<OrderBatchResultDTO> results = response.getBody().getData();
+        assertEquals(List.of(201, 400, 400, 400, 201), results.stream().map(OrderBatchResultDTO::getStatus).toList());
+        assertEquals(List.of(0, 1, 2, 3, 4), results.stream().map(OrderBatchResultDTO::getIndex).toList());
+        assertEquals(List.of("Product met ID PRD-9999 niet gevonden"), results.get(1).getErrors());
+        assertEquals(List.of("Order ontbreekt"), results.get(2).getErrors());
+        // Valid orders get consecutive ids in request order
+        assertEquals("ORD-1001", results.get(0).getOrder().getId());
+        assertEquals("ORD-1002", results.get(4).getOrder().getId());
+        assertEquals(new BigDecimal("30.00"), results.get(0).getOrder().getTotaalExBtw());
+        assertEquals(2, orderRepository.findAll().size());
+    }
+
+    @Test
+    void batchOfValidOrdersIsCreatedAndTooLargeBatchIsRefused() {
+        assertEquals(HttpStatus.CREATED, controller.createOrders(List.of(request(productId, 1), request(productId, 2))).getStatusCode());
+        assertEquals(2, orderRepository.findAll().size());
+
+        List<OrderRequestDTO> tooMany = Collections.nCopies(10_001, request(productId, 1));
+        assertEquals(HttpStatus.BAD_REQUEST, controller.createOrders(tooMany).getStatusCode());
+        assertEquals(2, orderRepository.findAll().size());
+    }
+
+    @Test
+    void amountsThatCouldOverflowAreRefused() {
+        OrderRequestDTO tooMany = request(productId, Integer.MAX_VALUE);
+        ResponseEntity<ApiResponse<OrderResponseDTO>> response = controller.createOrder(tooMany);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(List.of("Aantal mag maximaal 100000 zijn voor product " + productId), response.getBody().getErrors());
+
+        OrderRequestDTO tooExpensive = request(productId, 1);
+        tooExpensive.getRegels().get(0).setStuksPrijs(new BigDecimal("1e30"));
+        assertEquals(HttpStatus.BAD_REQUEST, controller.createOrder(tooExpensive).getStatusCode());
+
+        List<OrderRegelDTO> regels = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            regels.add(new OrderRegelDTO(productId, 100_000, new BigDecimal("1000000")));
+        }
+        OrderRequestDTO tooLarge = new OrderRequestDTO("CUS-1001", LocalDate.of(2024, 1, 1), regels);
+        OrderBatchResultDTO result = controller.createOrders(List.of(tooLarge)).getBody().getData().get(0);
+        assertEquals(400, result.getStatus());
+        assertEquals(List.of("Ordertotaal mag maximaal 10000000000000.00 zijn"), result.getErrors());
+        assertTrue(orderRepository.findAll().isEmpty());
+
+        // A product price raised beyond the bound is refused when the order is recalculated
+        String orderId = controller.createOrder(request(productId, 1)).getBody().getData().getId();
+        ProductResponseDTO product = productRepository.findById(productId).orElseThrow();
+        product.setVerkoopPrijs(new BigDecimal("2000000"));
+        productRepository.save(product);
+        assertEquals(HttpStatus.BAD_REQUEST, controller.recalculateOrder(orderId).getStatusCode());
+        assertEquals(new BigDecimal("15.00"), orderRepository.findById(orderId).orElseThrow().getTotaalExBtw());
+    }
+
+    @Test
+    void statusUpdateNeedsTheCurrentETag() {
+        String id = controller.createOrder(request(productId, 2)).getBody().getData().getId();
+        long versie = orderRepository.findById(id).orElseThrow().getVersie();
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, setStatus(id, OrderStatus.IN_BEHANDELING, ETagUtil.of(versie - 1)).getStatusCode());
+        ResponseEntity<ApiResponse<OrderResponseDTO>> updated = setStatus(id, OrderStatus.IN_BEHANDELING, ETagUtil.of(versie));
+        assertEquals(HttpStatus.OK, updated.getStatusCode());
+        assertEquals(ETagUtil.of(versie + 1), updated.getHeaders().getETag());
+        assertEquals(HttpStatus.PRECONDITION_FAILED, setStatus(id, OrderStatus.GEANNULEERD, ETagUtil.of(versie)).getStatusCode());
+    }
+
+    @Test
+    void deliveryIssuesStockAndWritesMovementsTogether() {
+        String id = controller.createOrder(request(productId, 4)).getBody().getData().getId();
+        setStatus(id, OrderStatus.IN_BEHANDELING, null);
+
+        assertEquals(HttpStatus.OK, setStatus(id, OrderStatus.GELEVERD, null).getStatusCode());
+        assertEquals(1, productRepository.stockOf(productId));
+        assertEquals(1, voorraadbewegingRepository.findByProductId(productId).size());
+
+        String second = controller.createOrder(request(productId, 4)).getBody().getData().getId();
+        setStatus(second, OrderStatus.IN_BEHANDELING, null);
+        assertEquals(HttpStatus.BAD_REQUEST, setStatus(second, OrderStatus.GELEVERD, null).getStatusCode());
+        assertEquals(OrderStatus.IN_BEHANDELING, orderRepository.findById(second).orElseThrow().getStatus());
+        assertEquals(1, productRepository.stockOf(productId));
+        assertEquals(1, voorraadbewegingRepository.findByProductId(productId).size());
+    }
+}
@@ -0,0 +1,121 @@
+package nl.huvema.huvsmaerp.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.huvema.huvsmaerp.config.CborConfig;
+import nl.huvema.huvsmaerp.dto.MutatieType;
+import nl.huvema.huvsmaerp.dto.ProductResponseDTO;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingResponseDTO;
+import nl.huvema.huvsmaerp.storage.ProductRepository;
+import nl.huvema.huvsmaerp.storage.VoorraadbewegingRepository;
+import nl.huvema.huvsmaerp.util.ResponseCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = {ProductController.class, ProductRepository.class, VoorraadbewegingRepository.class,
+        ResponseCache.class, CborConfig.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ProductControllerTest {
+
+    @Autowired
+    private ProductController controller;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private VoorraadbewegingRepository voorraadbewegingRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private String productId;
+
+    @BeforeEach
+    void setUp() {
+        productId = productRepository.save(new ProductResponseDTO(null, "SKU-1", "Draaibank", "Omschrijving", "Machines",
+                new BigDecimal("10.00"), new BigDecimal("15.00"), 5, "SUP-1001")).getId();
+    }
+
+    private JsonNode data(ResponseEntity<byte[]> response) throws IOException {
+        return objectMapper.readTree(response.getBody()).get("data");
+    }
+
+    @Test
+    void unchangedProductAnswersNotModified() throws IOException {
+        ResponseEntity<byte[]> first = controller.getProduct(productId, null, null);
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        String etag = first.getHeaders().getETag();
+        assertNotNull(etag);
+        assertEquals(5, data(first).get("voorraadAantal").asInt());
+
+        ResponseEntity<byte[]> again = controller.getProduct(productId, etag, null);
+        assertEquals(HttpStatus.NOT_MODIFIED, again.getStatusCode());
+        assertNull(again.getBody());
+        assertEquals(etag, again.getHeaders().getETag());
+
+        // The CBOR representation has a tag of its own
+        ResponseEntity<byte[]> cbor = controller.getProduct(productId, etag, "application/cbor");
+        assertEquals(HttpStatus.OK, cbor.getStatusCode());
+        assertNotEquals(etag, cbor.getHeaders().getETag());
+    }
+
+    @Test
+    void stockChangeInvalidatesTagAndCachedBody() throws IOException {
+        String etag = controller.getProduct(productId, null, null).getHeaders().getETag();
+        productRepository.receiveStock(productId, 3);
+
+        ResponseEntity<byte[]> changed = controller.getProduct(productId, etag, null);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertNotEquals(etag, changed.getHeaders().getETag());
+        assertEquals(8, data(changed).get("voorraadAantal").asInt());
+    }
+
+    @Test
+    void stockInfoFollowsBothStockAndMovements() throws IOException {
+        ResponseEntity<byte[]> first = controller.getProductStock(productId, null, null);
+        String etag = first.getHeaders().getETag();
+        assertEquals(0, data(first).get("laatsteBewegingen").size());
+        assertEquals(HttpStatus.NOT_MODIFIED, controller.getProductStock(productId, etag, null).getStatusCode());
+
+        // A movement on its own changes the tag, even when the stock stays the same
+        voorraadbewegingRepository.save(new VoorraadbewegingResponseDTO(null, productId, MutatieType.CORRECTIE, 5,
+                LocalDate.of(2024, 1, 1), null));
+        ResponseEntity<byte[]> moved = controller.getProductStock(productId, etag, null);
+        assertEquals(HttpStatus.OK, moved.getStatusCode());
+        assertEquals(1, data(moved).get("laatsteBewegingen").size());
+
+        productRepository.issueStock(productId, 2);
+        ResponseEntity<byte[]> issued = controller.getProductStock(productId, moved.getHeaders().getETag(), null);
+        assertEquals(HttpStatus.OK, issued.getStatusCode());
+        assertEquals(3, data(issued).get("huidigVoorraadAantal").asInt());
+        assertEquals(HttpStatus.NOT_FOUND, controller.getProductStock("PRD-9999", null, null).getStatusCode());
+    }
+
+    @Test
+    void productListTagChangesWithAnyProduct() throws IOException {
+        ResponseEntity<?> first = controller.getProducts(null, null, null, null, null, null, 0, 20, null, null, true, null, null);
+        String etag = first.getHeaders().getETag();
+        assertEquals(HttpStatus.NOT_MODIFIED, controller.getProducts(null, null, null, null, null, null, 0, 20, null, null, true, etag, null).getStatusCode());
+
+        productRepository.save(new ProductResponseDTO(null, "SKU-2", "Freesmachine", "Omschrijving", "Machines",
+                new BigDecimal("10.00"), new BigDecimal("15.00"), 1, "SUP-1001"));
+        ResponseEntity<?> second = controller.getProducts(null, null, null, null, null, null, 0, 20, null, null, true, etag, null);
+        assertEquals(HttpStatus.OK, second.getStatusCode());
+        assertEquals(2, objectMapper.readTree((byte[]) second.getBody()).get("data").size());
+    }
+}
@@ -0,0 +1,180 @@
+package nl.huvema.huvsmaerp.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.huvema.huvsmaerp.dto.ApiResponse;
+import nl.huvema.huvsmaerp.dto.MutatieType;
+import nl.huvema.huvsmaerp.dto.ProductResponseDTO;
+import nl.huvema.huvsmaerp.dto.VoorraadImportResultDTO;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingRequestDTO;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingResponseDTO;
+import nl.huvema.huvsmaerp.storage.MovementImportService;
+import nl.huvema.huvsmaerp.storage.ProductRepository;
+import nl.huvema.huvsmaerp.storage.VoorraadbewegingRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = {VoorraadbewegingController.class, MovementImportService.class, ProductRepository.class,
+        VoorraadbewegingRepository.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ImportAutoConfiguration({JacksonAutoConfiguration.class, ValidationAutoConfiguration.class})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class VoorraadbewegingControllerTest {
+
+    @Autowired
+    private VoorraadbewegingController controller;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private VoorraadbewegingRepository voorraadbewegingRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private String productId;
+
+    @BeforeEach
+    void setUp() {
+        productId = productRepository.save(new ProductResponseDTO(null, "SKU-1", "Draaibank", "Omschrijving", "Machines",
+                new BigDecimal("10.00"), new BigDecimal("15.00"), 5, "SUP-1001")).getId();
+    }
+
+    private ResponseEntity<?> importBody(String contentType, String accept, String body) throws IOException {
+        return controller.importStockMovements(contentType, accept, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<String> lines(StreamingResponseBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        String text = out.toString(StandardCharsets.UTF_8);
+        return text.isEmpty() ? List.of() : List.of(text.split("\n"));
+    }
+
+    @Test
+    void singleMovementBooksStockAndMovementTogether() {
+        LocalDate datum = LocalDate.of(2024, 1, 2);
+        ResponseEntity<ApiResponse<VoorraadbewegingResponseDTO>> received =
+                controller.createStockMovement(new VoorraadbewegingRequestDTO(productId, MutatieType.IN, 3, datum, null));
+        assertEquals(HttpStatus.CREATED, received.getStatusCode());
+        assertNotNull(Objects.requireNonNull(received.getBody()).getData().getId());
+        assertEquals(8, productRepository.findById(productId).orElseThrow().getVoorraadAantal());
+
+        ResponseEntity<ApiResponse<VoorraadbewegingResponseDTO>> refused =
+                controller.createStockMovement(new VoorraadbewegingRequestDTO(productId, MutatieType.UIT, 9, datum, null));
+        assertEquals(HttpStatus.BAD_REQUEST, refused.getStatusCode());
+        assertEquals(List.of("Onvoldoende voorraad. Huidige voorraad: 8"), Objects.requireNonNull(refused.getBody()).getErrors());
+
+        ResponseEntity<ApiResponse<VoorraadbewegingResponseDTO>> missing =
+                controller.createStockMovement(new VoorraadbewegingRequestDTO("PRD-9999", MutatieType.CORRECTIE, 1, datum, null));
+        assertEquals(List.of("Product met ID PRD-9999 niet gevonden"), Objects.requireNonNull(missing.getBody()).getErrors());
+
+        assertEquals(HttpStatus.CREATED, controller.createStockMovement(
+                new VoorraadbewegingRequestDTO(productId, MutatieType.CORRECTIE, 2, datum, null)).getStatusCode());
+        assertEquals(2, productRepository.stockOf(productId));
+        assertEquals(2, voorraadbewegingRepository.findByProductId(productId).size());
+        assertTrue(voorraadbewegingRepository.findByProductId("PRD-9999").isEmpty());
+    }
+
+    @Test
+    void csvImportBooksValidLinesAndReportsTheRest() throws IOException {
+        String csv = "productId;mutatieType;aantal;datum;opmerking\n"
+                + productId + ";IN;10;2024-01-02;\"Levering; week 1\"\n"
+                + productId + ";UIT;20;2024-01-03;\n"
+                + "PRD-9999;IN;1;2024-01-03;\n"
+                + productId + ";UIT;12;2024-01-04;\n"
+                + productId + ";IN;twee;2024-01-04;\n";
+
+        ResponseEntity<?> response = importBody("text/csv", null, csv);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        VoorraadImportResultDTO result = (VoorraadImportResultDTO) ((ApiResponse<?>) response.getBody()).getData();
+        assertEquals(5, result.getLines());
+        assertEquals(2, result.getImported());
+        assertEquals(3, result.getRejected());
+        assertTrue(result.getErrors().get(0).startsWith("Regel 3: Onvoldoende voorraad"));
+        assertEquals(3, productRepository.stockOf(productId));
+        assertEquals(3, productRepository.findById(productId).orElseThrow().getVoorraadAantal());
+        // Newest first
+        assertEquals(List.of("Levering; week 1"), voorraadbewegingRepository.findByProductId(productId).stream()
+                .map(VoorraadbewegingResponseDTO::getOpmerking).filter(Objects::nonNull).toList());
+        assertEquals(2, voorraadbewegingRepository.findByProductId(productId).size());
+    }
+
+    @Test
+    void ndjsonNullLineIsRejected() throws IOException {
+        String ndjson = "null\n"
+                + "{\"productId\":\"" + productId + "\",\"mutatieType\":\"IN\",\"aantal\":2,\"datum\":\"2024-01-02\"}\n";
+
+        ResponseEntity<?> response = importBody("application/x-ndjson", null, ndjson);
+
+        VoorraadImportResultDTO result = (VoorraadImportResultDTO) ((ApiResponse<?>) response.getBody()).getData();
+        assertEquals(1, result.getImported());
+        assertEquals(List.of("Regel 1: Regel ontbreekt"), result.getErrors());
+        assertEquals(7, productRepository.stockOf(productId));
+    }
+
+    @Test
+    void ndjsonImportStreamsEventsWhenAsked() throws IOException {
+        String ndjson = "{\"productId\":\"" + productId + "\",\"mutatieType\":\"CORRECTIE\",\"aantal\":50,\"datum\":\"2024-01-02\"}\n"
+                + "{\"productId\":\"" + productId + "\",\"mutatieType\":\"UIT\",\"aantal\":60,\"datum\":\"2024-01-02\"}\n"
+                + "{\"productId\":\"" + productId + "\",\"mutatieType\":\"UIT\",\"aantal\":45,\"datum\":\"2024-01-02\"}\n";
+
+        ResponseEntity<?> response = importBody("application/x-ndjson", "application/x-ndjson", ndjson);
+
+        List<JsonNode> events = new ArrayList<>();
+        for (String line : lines((StreamingResponseBody) response.getBody())) {
+            events.add(objectMapper.readTree(line));
+        }
+        assertEquals("rejected", events.get(0).get("type").asText());
+        assertEquals(2, events.get(0).get("regel").asLong());
+        JsonNode last = events.get(events.size() - 1);
+        assertEquals("result", last.get("type").asText());
+        assertEquals(2, last.get("imported").asLong());
+        assertEquals(1, last.get("rejected").asLong());
+        assertTrue(events.stream().anyMatch(event -> event.get("type").asText().equals("progress")));
+        assertEquals(5, productRepository.stockOf(productId));
+    }
+
+    @Test
+    void exportStreamsTheFilteredMovementsInIdOrder() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            csv.append(productId).append(i % 2 == 0 ? ",IN,1," : ",UIT,1,").append("2024-01-02\n");
+        }
+        importBody("text/csv", null, csv.toString());
+
+        List<String> all = lines(controller.exportStockMovements(null, null, null, null).getBody());
+        assertEquals(2500, all.size());
+        List<String> ids = new ArrayList<>();
+        for (String line : all) {
+            ids.add(objectMapper.readTree(line).get("id").asText());
+        }
+        List<String> expected = voorraadbewegingRepository.findAll().stream().map(VoorraadbewegingResponseDTO::getId).toList();
+        assertEquals(expected, ids);
+
+        assertEquals(1250, lines(controller.exportStockMovements(productId, MutatieType.UIT, null, null).getBody()).size());
+        assertEquals(0, lines(controller.exportStockMovements("PRD-9999", null, null, null).getBody()).size());
+    }
+}
@@ -0,0 +1,43 @@
+package nl.huvema.huvsmaerp.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteBufferInputTest {
+
+    @Test
+    void readsWhatDataOutputWrote() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF("Draaibank ø 300");
+            out.writeLong(42);
+            out.writeUTF("");
+        }
+        ByteBufferInput in = new ByteBufferInput(ByteBuffer.wrap(bytes.toByteArray()));
+
+        assertEquals("Draaibank ø 300", in.readUTF());
+        assertEquals(42, in.readLong());
+        assertEquals("", in.readUTF());
+        assertFalse(in.hasRemaining());
+        assertThrows(EOFException.class, in::readUTF);
+    }
+
+    @Test
+    void readLineStopsAtEveryLineEnding() {
+        ByteBufferInput in = new ByteBufferInput(ByteBuffer.wrap("een\ntwee\r\ndrie\rvier".getBytes(StandardCharsets.ISO_8859_1)));
+
+        assertEquals("een", in.readLine());
+        assertEquals("twee", in.readLine());
+        assertEquals("drie", in.readLine());
+        assertEquals("vier", in.readLine());
+        assertNull(in.readLine());
+    }
+}
@@ -0,0 +1,64 @@
+package nl.huvema.huvsmaerp.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DateIndexTest {
+
+    private final DateIndex index = new DateIndex();
+
+    private static List<String> list(Iterable<String> ids) {
+        List<String> result = new ArrayList<>();
+        ids.forEach(result::add);
+        return result;
+    }
+
+    @Test
+    void rangesAreInclusiveAndOrderedByDateThenId() {
+        index.put("ORD-1010", LocalDate.of(2024, 3, 2));
+        index.put("ORD-999", LocalDate.of(2024, 3, 2));
+        index.put("ORD-1001", LocalDate.of(2024, 3, 1));
+        index.put("ORD-1002", LocalDate.of(2024, 3, 5));
+
+        assertEquals(List.of("ORD-1001", "ORD-999", "ORD-1010"), list(index.ids(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 2))));
+        assertEquals(List.of("ORD-1002", "ORD-1010", "ORD-999", "ORD-1001"), list(index.idsDescending(null, null)));
+        assertEquals(List.of("ORD-1002"), list(index.ids(LocalDate.of(2024, 3, 3), null)));
+        assertEquals(List.of(), list(index.ids(LocalDate.of(2024, 3, 5), LocalDate.of(2024, 3, 1))));
+        assertEquals(2, index.count(null, null, 2));
+    }
+
+    @Test
+    void moveAndRemoveKeepOneEntryPerId() {
+        index.put("ORD-1001", LocalDate.of(2024, 1, 1));
+        index.put("ORD-1001", LocalDate.of(2024, 2, 1));
+        assertEquals(1, index.size());
+        assertEquals(List.of(), list(index.ids(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31))));
+        assertEquals(List.of("ORD-1001"), list(index.ids(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 1))));
+
+        index.put("ORD-1001", null);
+        assertEquals(0, index.size());
+        assertEquals(List.of(), list(index.ids(null, null)));
+    }
+
+    @Test
+    void keyOrderResumesAfterTheLastKey() {
+        Map<String, LocalDate> dates = Map.of("ORD-1001", LocalDate.of(2024, 1, 2), "ORD-1002", LocalDate.of(2024, 1, 1),
+                "ORD-1003", LocalDate.of(2024, 1, 2));
+        dates.forEach(index::put);
+        KeyOrder<String> order = index.keyOrder(id -> id, dates::get, id -> id, false);
+
+        String key = order.keyOf("ORD-1001");
+        List<String> rest = new ArrayList<>();
+        order.after(key).forEach(rest::add);
+        assertEquals(List.of("ORD-1003"), rest);
+        assertTrue(order.follows(key).test("ORD-1003"));
+        assertFalse(order.follows(key).test("ORD-1002"));
+        assertThrows(IllegalArgumentException.class, () -> order.after("geen-cursor"));
+    }
+}
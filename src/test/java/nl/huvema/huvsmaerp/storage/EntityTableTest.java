@@ -0,0 +1,56 @@
+package nl.huvema.huvsmaerp.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityTableTest {
+
+    private final EntityTable<String> table = new EntityTable<>("ORD-", 1001);
+
+    private void put(String id) {
+        table.compute(id, (key, current) -> key);
+    }
+
+    @Test
+    void valuesFollowSequenceOrderWithOverflowIdsLast() {
+        put("ORD-1003");
+        put("ORD-ABC");
+        put("ORD-1001");
+        put("ORD-999");
+        put("ORD-01002");
+        // Far beyond the allocated range, so it must not grow the directory up to it
+        put("ORD-9000000000");
+        put("ORD-2500");
+
+        List<String> values = new ArrayList<>(table.values());
+        assertEquals(List.of("ORD-1001", "ORD-1003", "ORD-2500"), values.subList(0, 3));
+        assertEquals(List.of("ORD-01002", "ORD-9000000000", "ORD-999", "ORD-ABC"), values.subList(3, 7).stream().sorted().toList());
+        assertEquals(7, table.size());
+        assertEquals("ORD-999", table.get("ORD-999"));
+        assertNull(table.get("ORD-1002"));
+        assertNull(table.get(null));
+    }
+
+    @Test
+    void nullResultRemovesAndSizeFollows() {
+        put("ORD-1001");
+        put("ORD-ABC");
+        assertEquals("ORD-1001!", table.computeIfPresent("ORD-1001", (key, current) -> current + "!"));
+        assertNull(table.computeIfPresent("ORD-1002", (key, current) -> current + "!"));
+        assertFalse(table.containsKey("ORD-1002"));
+
+        table.compute("ORD-1001", (key, current) -> null);
+        table.compute("ORD-ABC", (key, current) -> null);
+        assertEquals(0, table.size());
+        assertTrue(table.values().isEmpty());
+
+        put("ORD-1005");
+        table.clear();
+        assertEquals(0, table.size());
+        assertNull(table.get("ORD-1005"));
+    }
+}
@@ -0,0 +1,82 @@
+package nl.huvema.huvsmaerp.storage;
+
+import nl.huvema.huvsmaerp.dto.OrderRegelDTO;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+import nl.huvema.huvsmaerp.dto.OrderStatus;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderRepositoryTest {
+
+    private final OrderRepository repository = new OrderRepository();
+
+    static OrderResponseDTO order(String productId) {
+        OrderResponseDTO order = new OrderResponseDTO();
+        order.setKlantId("CUS-1001");
+        order.setOrderDatum(LocalDate.of(2024, 1, 1));
+        order.setStatus(OrderStatus.NIEUW);
+        order.setRegels(new ArrayList<>(List.of(new OrderRegelDTO(productId, 2, new BigDecimal("10.00")))));
+        return order;
+    }
+
+    @Test
+    void compareAndSaveRefusesAStaleVersion() {
+        OrderResponseDTO saved = repository.save(order("PRD-1001"));
+        assertEquals(1, saved.getVersie());
+
+        OrderResponseDTO first = repository.findForUpdate(saved.getId()).orElseThrow();
+        OrderResponseDTO second = repository.findForUpdate(saved.getId()).orElseThrow();
+        first.setStatus(OrderStatus.IN_BEHANDELING);
+        second.setStatus(OrderStatus.GEANNULEERD);
+
+        assertEquals(2, repository.compareAndSave(1, first).orElseThrow().getVersie());
+        assertTrue(repository.compareAndSave(1, second).isEmpty());
+
+        OrderResponseDTO stored = repository.findById(saved.getId()).orElseThrow();
+        assertEquals(OrderStatus.IN_BEHANDELING, stored.getStatus());
+        assertEquals(2, stored.getVersie());
+
+        OrderResponseDTO unknown = order("PRD-1001");
+        unknown.setId("ORD-9999");
+        assertTrue(repository.compareAndSave(0, unknown).isEmpty());
+        assertTrue(repository.findById("ORD-9999").isEmpty());
+    }
+
+    @Test
+    void exactlyOneOfConcurrentTransitionsWins() throws InterruptedException {
+        String id = repository.save(order("PRD-1001")).getId();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger wins = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            OrderResponseDTO copy = repository.findForUpdate(id).orElseThrow();
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (repository.compareAndSave(1, copy).isPresent()) {
+                    wins.incrementAndGet();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(1, wins.get());
+        assertEquals(2, repository.findById(id).orElseThrow().getVersie());
+    }
+}
@@ -0,0 +1,88 @@
+package nl.huvema.huvsmaerp.storage;
+
+import nl.huvema.huvsmaerp.dto.ProductResponseDTO;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductRepositoryTest {
+
+    private final ProductRepository repository = new ProductRepository();
+
+    static ProductResponseDTO product(String sku, int voorraad) {
+        return new ProductResponseDTO(null, sku, "Product " + sku, "Omschrijving", "Machines", new BigDecimal("10.00"),
+                new BigDecimal("15.00"), voorraad, "SUP-1001");
+    }
+
+    private static ProductResponseDTO copy(ProductResponseDTO stored, String sku, String categorie) {
+        ProductResponseDTO changed = product(sku, stored.getVoorraadAantal());
+        changed.setId(stored.getId());
+        changed.setCategorie(categorie);
+        return changed;
+    }
+
+    private static List<String> ids(List<ProductResponseDTO> products) {
+        return products.stream().map(ProductResponseDTO::getId).toList();
+    }
+
+    @Test
+    void indexesFollowUpdatesAndDeletes() {
+        ProductResponseDTO saved = repository.save(product("SKU-1", 5));
+        assertEquals(saved.getId(), repository.findBySku("SKU-1").orElseThrow().getId());
+
+        repository.save(copy(saved, "SKU-2", "Gereedschap"));
+        assertTrue(repository.findBySku("SKU-1").isEmpty());
+        assertEquals(saved.getId(), repository.findBySku("SKU-2").orElseThrow().getId());
+        assertTrue(repository.findByCategorie("Machines").isEmpty());
+        assertEquals(List.of(saved.getId()), ids(repository.findByCategorie("Gereedschap")));
+        assertEquals(List.of(saved.getId()), ids(repository.query().where(repository.skuEquals("SKU-2")).list()));
+
+        // The old SKU is free again
+        repository.save(product("SKU-1", 1));
+
+        repository.deleteById(saved.getId());
+        assertTrue(repository.findBySku("SKU-2").isEmpty());
+        assertTrue(repository.findByCategorie("Gereedschap").isEmpty());
+        assertTrue(repository.query().where(repository.skuEquals("SKU-2")).list().isEmpty());
+    }
+
+    @Test
+    void duplicateSkuIsRefusedAndLeavesTheStoredProduct() {
+        ProductResponseDTO first = repository.save(product("SKU-1", 5));
+        ProductResponseDTO second = repository.save(product("SKU-2", 5));
+
+        assertThrows(DuplicateSkuException.class, () -> repository.save(product("SKU-1", 1)));
+        assertThrows(DuplicateSkuException.class, () -> repository.save(copy(second, "SKU-1", "Machines")));
+
+        assertEquals(first.getId(), repository.findBySku("SKU-1").orElseThrow().getId());
+        assertEquals("SKU-2", repository.findById(second.getId()).orElseThrow().getSku());
+        assertEquals(2, repository.findAll().size());
+    }
+
+    @Test
+    void stockIsIssuedOnlyWhenAvailable() {
+        String id = repository.save(product("SKU-1", 5)).getId();
+
+        assertTrue(repository.issueStock(id, 3));
+        assertFalse(repository.issueStock(id, 3));
+        assertTrue(repository.receiveStock(id, 10));
+        assertEquals(12, repository.stockOf(id));
+        assertEquals(12, repository.findById(id).orElseThrow().getVoorraadAantal());
+        assertFalse(repository.issueStock("PRD-9999", 1));
+    }
+
+    @Test
+    void correctionSetsTheStockOfExistingProductsOnly() {
+        String id = repository.save(product("SKU-1", 5)).getId();
+
+        assertTrue(repository.correctStock(id, 2));
+        assertEquals(2, repository.findById(id).orElseThrow().getVoorraadAantal());
+
+        repository.deleteById(id);
+        assertFalse(repository.correctStock(id, 7));
+        assertEquals(0, repository.stockOf(id));
+    }
+}
@@ -0,0 +1,108 @@
+package nl.huvema.huvsmaerp.storage;
+
+import nl.huvema.huvsmaerp.dto.MutatieType;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+import nl.huvema.huvsmaerp.dto.OrderStatus;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingResponseDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnitOfWorkTest {
+
+    private final ProductRepository products = new ProductRepository();
+    private final OrderRepository orders = new OrderRepository();
+    private final VoorraadbewegingRepository movements = new VoorraadbewegingRepository();
+
+    private boolean deliver(String productId, int aantal, String orderId, long versie) {
+        OrderResponseDTO order = orders.findForUpdate(orderId).orElseThrow();
+        order.setStatus(OrderStatus.GELEVERD);
+        VoorraadbewegingResponseDTO beweging = new VoorraadbewegingResponseDTO(null, productId, MutatieType.UIT, aantal,
+                LocalDate.of(2024, 1, 1), "Order " + orderId + " geleverd");
+        try (UnitOfWork work = UnitOfWork.lock(List.of(productId, orderId))) {
+            work.add(products.issueStockWrite(productId, aantal), "voorraad");
+            work.add(orders.compareAndSaveWrite(versie, order), "order");
+            work.add(movements.saveWrite(beweging));
+            return work.commit();
+        }
+    }
+
+    @Test
+    void commitAppliesEveryWrite() {
+        String productId = products.save(ProductRepositoryTest.product("SKU-1", 10)).getId();
+        String orderId = orders.save(OrderRepositoryTest.order(productId)).getId();
+        long productVersion = products.versionOf(productId);
+        long orderVersion = orders.version();
+        long movementVersion = movements.versionOfProduct(productId);
+
+        assertTrue(deliver(productId, 4, orderId, 1));
+
+        assertEquals(6, products.stockOf(productId));
+        assertEquals(6, products.findById(productId).orElseThrow().getVoorraadAantal());
+        assertEquals(OrderStatus.GELEVERD, orders.findById(orderId).orElseThrow().getStatus());
+        assertEquals(2, orders.findById(orderId).orElseThrow().getVersie());
+        assertEquals(1, movements.findByProductId(productId).size());
+        // Pollers see the delivery only once it is visible as a whole
+        assertTrue(products.versionOf(productId) > productVersion);
+        assertTrue(orders.version() > orderVersion);
+        assertTrue(movements.versionOfProduct(productId) > movementVersion);
+    }
+
+    @Test
+    void failedConditionRollsBackTheWritesBeforeIt() {
+        String productId = products.save(ProductRepositoryTest.product("SKU-1", 10)).getId();
+        String orderId = orders.save(OrderRepositoryTest.order(productId)).getId();
+        long productVersion = products.version();
+
+        // The stock write is prepared first and must be given back when the order version fails
+        try (UnitOfWork work = UnitOfWork.lock(List.of(productId, orderId))) {
+            OrderResponseDTO order = orders.findForUpdate(orderId).orElseThrow();
+            order.setStatus(OrderStatus.GELEVERD);
+            work.add(products.issueStockWrite(productId, 4), "voorraad");
+            work.add(orders.compareAndSaveWrite(7, order), "order");
+            assertFalse(work.commit());
+            assertEquals("order", work.failure());
+        }
+
+        assertEquals(10, products.stockOf(productId));
+        assertEquals(10, products.findById(productId).orElseThrow().getVoorraadAantal());
+        assertEquals(productVersion, products.version());
+        assertEquals(OrderStatus.NIEUW, orders.findById(orderId).orElseThrow().getStatus());
+        assertEquals(1, orders.findById(orderId).orElseThrow().getVersie());
+    }
+
+    @Test
+    void insufficientStockLeavesOrderAndMovementsUntouched() {
+        String productId = products.save(ProductRepositoryTest.product("SKU-1", 3)).getId();
+        String orderId = orders.save(OrderRepositoryTest.order(productId)).getId();
+
+        assertFalse(deliver(productId, 4, orderId, 1));
+
+        assertEquals(3, products.stockOf(productId));
+        assertEquals(1, orders.findById(orderId).orElseThrow().getVersie());
+        assertTrue(movements.findByProductId(productId).isEmpty());
+    }
+
+    @Test
+    void snapshotHidesMovementsSavedOutsideAUnitAfterIt() {
+        String productId = products.save(ProductRepositoryTest.product("SKU-1", 10)).getId();
+        try (VersionClock.Snapshot snapshot = VersionClock.open()) {
+            String id = movements.save(new VoorraadbewegingResponseDTO(null, productId, MutatieType.IN, 2,
+                    LocalDate.of(2024, 1, 1), "Levering")).getId();
+            assertTrue(movements.findById(id).isEmpty());
+            assertTrue(movements.findByProductId(productId).isEmpty());
+        }
+        assertEquals(1, movements.findByProductId(productId).size());
+    }
+
+    @Test
+    void committedUnitCannotBeReused() {
+        try (UnitOfWork work = UnitOfWork.lock(List.of("PRD-1001"))) {
+            assertTrue(work.commit());
+            assertThrows(IllegalStateException.class, work::commit);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package nl.huvema.huvsmaerp.storage;
+
+import nl.huvema.huvsmaerp.dto.MutatieType;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+import nl.huvema.huvsmaerp.dto.OrderStatus;
+import nl.huvema.huvsmaerp.dto.ProductResponseDTO;
+import nl.huvema.huvsmaerp.dto.VoorraadbewegingResponseDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    private Node node;
+
+    /** One application run: a context with fresh repositories on the log and snapshot files in dir. */
+    private final class Node {
+        final ConfigurableApplicationContext context;
+        final ProductRepository products;
+        final OrderRepository orders;
+        final VoorraadbewegingRepository movements;
+        final PersistenceService persistence;
+        final boolean restored;
+
+        Node() throws IOException {
+            context = new SpringApplicationBuilder(WriteAheadLog.class, PersistenceService.class,
+                    ProductRepository.class, KlantRepository.class, LeverancierRepository.class,
+                    OrderRepository.class, VoorraadbewegingRepository.class, FactuurRepository.class)
+                    .web(WebApplicationType.NONE)
+                    .bannerMode(Banner.Mode.OFF)
+                    .logStartupInfo(false)
+                    .run("--huvsma.wal.path=" + dir.resolve("huvsma.wal"),
+                            "--huvsma.wal.group-commit-window=1ms",
+                            "--huvsma.snapshot.path=" + dir.resolve("huvsma.snapshot"));
+            products = context.getBean(ProductRepository.class);
+            orders = context.getBean(OrderRepository.class);
+            movements = context.getBean(VoorraadbewegingRepository.class);
+            persistence = context.getBean(PersistenceService.class);
+            try {
+                restored = persistence.recover();
+            } catch (IOException e) {
+                context.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            context.close();
+        }
+    }
+
+    private Node restart() throws IOException {
+        if (node != null) {
+            node.close();
+        }
+        node = new Node();
+        return node;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (node != null) {
+            node.close();
+        }
+    }
+
+    private static VoorraadbewegingResponseDTO movement(String productId) {
+        return new VoorraadbewegingResponseDTO(null, productId, MutatieType.IN, 4, LocalDate.of(2024, 1, 1), "Levering");
+    }
+
+    private static boolean deliver(Node node, String productId, String orderId) {
+        OrderResponseDTO order = node.orders.findForUpdate(orderId).orElseThrow();
+        order.setStatus(OrderStatus.GELEVERD);
+        try (UnitOfWork work = UnitOfWork.lock(List.of(productId, orderId))) {
+            work.add(node.products.issueStockWrite(productId, 2));
+            work.add(node.orders.compareAndSaveWrite(order.getVersie(), order));
+            work.add(node.movements.saveWrite(new VoorraadbewegingResponseDTO(null, productId, MutatieType.UIT, 2,
+                    LocalDate.of(2024, 1, 1), "Order " + orderId + " geleverd")));
+            return work.commit();
+        }
+    }
+
+    private void cutLog(long bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve("huvsma.wal"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - bytes);
+        }
+    }
+
+    @Test
+    void replayRestoresEveryWrite() throws Exception {
+        Node first = restart();
+        assertFalse(first.restored);
+        ProductResponseDTO product = first.products.save(ProductRepositoryTest.product("SKU-1", 10));
+        product.setVoorraadAantal(14);
+        first.products.save(product);
+        first.movements.save(movement(product.getId()));
+        String deleted = first.products.save(ProductRepositoryTest.product("SKU-2", 1)).getId();
+        first.products.deleteById(deleted);
+
+        Node second = restart();
+        assertTrue(second.restored);
+        assertEquals(14, second.products.findById(product.getId()).orElseThrow().getVoorraadAantal());
+        assertEquals(product.getId(), second.products.findBySku("SKU-1").orElseThrow().getId());
+        assertTrue(second.products.findById(deleted).isEmpty());
+        assertTrue(second.products.findBySku("SKU-2").isEmpty());
+        assertEquals(1, second.movements.findByProductId(product.getId()).size());
+
+        // Ids go on after the restored ones
+        String next = second.products.save(ProductRepositoryTest.product("SKU-3", 1)).getId();
+        assertNotEquals(product.getId(), next);
+        assertNotEquals(deleted, next);
+    }
+
+    @Test
+    void tornRecordAtTheTailIsDropped() throws Exception {
+        Node first = restart();
+        String productId = first.products.save(ProductRepositoryTest.product("SKU-1", 10)).getId();
+        first.movements.save(movement(productId));
+        first.close();
+        node = null;
+        cutLog(3);
+
+        Node second = restart();
+        assertTrue(second.products.findById(productId).isPresent());
+        assertTrue(second.movements.findByProductId(productId).isEmpty());
+
+        // The cut tail is gone from the file, so new records follow the last intact one
+        second.movements.save(movement(productId));
+        Node third = restart();
+        assertEquals(1, third.movements.findByProductId(productId).size());
+    }
+
+    @Test
+    void tornBatchAtTheTailIsDroppedWhole() throws Exception {
+        Node first = restart();
+        String productId = first.products.save(ProductRepositoryTest.product("SKU-1", 10)).getId();
+        String orderId = first.orders.save(OrderRepositoryTest.order(productId)).getId();
+        assertTrue(deliver(first, productId, orderId));
+        first.close();
+        node = null;
+        cutLog(7);
+
+        Node second = restart();
+        assertEquals(10, second.products.stockOf(productId));
+        assertEquals(OrderStatus.NIEUW, second.orders.findById(orderId).orElseThrow().getStatus());
+        assertEquals(1, second.orders.findById(orderId).orElseThrow().getVersie());
+        assertTrue(second.movements.findByProductId(productId).isEmpty());
+
+        assertTrue(deliver(second, productId, orderId));
+        Node third = restart();
+        assertEquals(8, third.products.stockOf(productId));
+        assertEquals(OrderStatus.GELEVERD, third.orders.findById(orderId).orElseThrow().getStatus());
+        assertEquals(1, third.movements.findByProductId(productId).size());
+    }
+
+    @Test
+    void snapshotLoadsAndTheLogAfterItIsReplayed() throws Exception {
+        Node first = restart();
+        ProductResponseDTO product = first.products.save(ProductRepositoryTest.product("SKU-1", 10));
+        first.movements.save(movement(product.getId()));
+        first.persistence.snapshot();
+        assertTrue(Files.exists(dir.resolve("huvsma.snapshot")));
+        product.setVoorraadAantal(14);
+        first.products.save(product);
+        first.movements.save(movement(product.getId()));
+
+        Node second = restart();
+        assertTrue(second.restored);
+        assertEquals(14, second.products.findById(product.getId()).orElseThrow().getVoorraadAantal());
+        assertEquals(product.getId(), second.products.findBySku("SKU-1").orElseThrow().getId());
+        assertEquals(2, second.movements.findByProductId(product.getId()).size());
+    }
+
+    @Test
+    void unreadableSnapshotIsRefusedOnceTheLogBeforeItIsGone() throws Exception {
+        Node first = restart();
+        ProductResponseDTO product = first.products.save(ProductRepositoryTest.product("SKU-1", 10));
+        first.persistence.snapshot();
+        product.setVoorraadAantal(14);
+        first.products.save(product);
+        first.close();
+        node = null;
+        Path snapshot = dir.resolve("huvsma.snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - 1] ^= 0x55;
+        Files.write(snapshot, bytes);
+
+        // The log was compacted up to the snapshot, so starting empty would lose the product
+        IOException error = assertThrows(IOException.class, () -> new Node());
+        assertTrue(error.getMessage().contains("herstel vanaf 0 is niet mogelijk"));
+    }
+
+    @Test
+    void everyCommitIsCountedEvenWhenAlreadyDurable() throws Exception {
+        Node first = restart();
+        WriteAheadLog log = first.context.getBean(WriteAheadLog.class);
+        first.products.save(ProductRepositoryTest.product("SKU-1", 10));
+        long commits = (long) log.metrics().get("commits");
+        assertTrue(commits > 0);
+
+        // The record is durable by now, so this wait returns at once but is still a commit
+        log.awaitDurable(log.appendedLsn());
+        assertEquals(commits + 1, log.metrics().get("commits"));
+
+        first.persistence.snapshot();
+        assertEquals(commits + 1, log.metrics().get("commits"));
+    }
+}
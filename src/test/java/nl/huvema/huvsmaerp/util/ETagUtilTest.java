@@ -0,0 +1,44 @@
+package nl.huvema.huvsmaerp.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ETagUtilTest {
+
+    @Test
+    void weakTagChangesWithEveryVersionAndFormat() {
+        String json = ETagUtil.weak(MediaType.APPLICATION_JSON, 3, 7);
+        assertTrue(json.startsWith("W/\""));
+        assertEquals(json, ETagUtil.weak(3, 7));
+        assertNotEquals(json, ETagUtil.weak(MediaType.APPLICATION_JSON, 4, 7));
+        assertNotEquals(json, ETagUtil.weak(MediaType.APPLICATION_JSON, 3, 8));
+        assertNotEquals(json, ETagUtil.weak(MediaType.APPLICATION_CBOR, 3, 7));
+    }
+
+    @Test
+    void notModifiedComparesWeakly() {
+        String etag = ETagUtil.weak(5);
+        assertTrue(ETagUtil.notModified(etag, etag));
+        assertTrue(ETagUtil.notModified(etag.substring(2), etag));
+        assertTrue(ETagUtil.notModified("\"other\", " + etag, etag));
+        assertTrue(ETagUtil.notModified("*", etag));
+        assertFalse(ETagUtil.notModified(ETagUtil.weak(4), etag));
+        assertFalse(ETagUtil.notModified(ETagUtil.weak(MediaType.APPLICATION_CBOR, 5), etag));
+        assertFalse(ETagUtil.notModified(null, etag));
+    }
+
+    @Test
+    void strongTagCarriesTheBootPrefixAndMatchesOnlyItsVersion() {
+        String etag = ETagUtil.of(2);
+        assertNotEquals("\"2\"", etag);
+        assertTrue(ETagUtil.matches(etag, 2));
+        assertTrue(ETagUtil.matches(null, 2));
+        assertTrue(ETagUtil.matches("*", 2));
+        assertFalse(ETagUtil.matches(etag, 3));
+        // A tag from before a restart, or a weak one, never allows a write
+        assertFalse(ETagUtil.matches("\"2\"", 2));
+        assertFalse(ETagUtil.matches("W/" + etag, 2));
+    }
+}
@@ -0,0 +1,45 @@
+package nl.huvema.huvsmaerp.util;
+
+import nl.huvema.huvsmaerp.dto.OrderRegelDTO;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoneyTest {
+
+    @Test
+    void lineTotalIsRoundedOnceAfterTheMultiplication() {
+        assertEquals(12_500, Money.lineTotal(Money.toMicros(new BigDecimal("0.125")), 1000));
+        // Rounding the unit price first would give 0.13 x 3 = 0.39
+        assertEquals(38, Money.lineTotal(Money.toMicros(new BigDecimal("0.125")), 3));
+        assertEquals(1, Money.lineTotal(Money.toMicros(new BigDecimal("0.005")), 1));
+        assertEquals(123_457, Money.toMicros(new BigDecimal("0.1234565")));
+    }
+
+    @Test
+    void btwIsChargedOnceOnTheOrderTotal() {
+        OrderResponseDTO order = new OrderResponseDTO();
+        order.setRegels(List.of(
+                new OrderRegelDTO("PRD-1001", 1, new BigDecimal("0.12")),
+                new OrderRegelDTO("PRD-1002", 1, new BigDecimal("0.12")),
+                new OrderRegelDTO("PRD-1003", 1, new BigDecimal("0.12"))));
+
+        Money.applyTotals(order);
+
+        // Per line the BTW would round to 0.03 each, 0.09 in total
+        assertEquals(new BigDecimal("0.36"), order.getTotaalExBtw());
+        assertEquals(new BigDecimal("0.08"), order.getBtwBedrag());
+        assertEquals(new BigDecimal("0.44"), order.getTotaalIncBtw());
+        assertEquals(new BigDecimal("2.10"), Money.toBigDecimal(Money.btw(1000)));
+        assertEquals(new BigDecimal("0.00"), Money.toBigDecimal(Money.btw(2)));
+    }
+
+    @Test
+    void overflowThrowsInsteadOfWrapping() {
+        assertThrows(ArithmeticException.class, () -> Money.lineTotal(Long.MAX_VALUE / 2, 3));
+    }
+}
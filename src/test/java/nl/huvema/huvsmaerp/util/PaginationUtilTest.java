@@ -0,0 +1,97 @@
+package nl.huvema.huvsmaerp.util;
+
+import nl.huvema.huvsmaerp.dto.ApiResponse;
+import nl.huvema.huvsmaerp.dto.OrderRegelDTO;
+import nl.huvema.huvsmaerp.dto.OrderResponseDTO;
+import nl.huvema.huvsmaerp.dto.OrderStatus;
+import nl.huvema.huvsmaerp.storage.OrderRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaginationUtilTest {
+
+    private final OrderRepository orders = new OrderRepository();
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 25; i++) {
+            OrderResponseDTO order = new OrderResponseDTO();
+            order.setKlantId("CUS-1001");
+            // Several orders per day, so paging by date has to break ties on id
+            order.setOrderDatum(LocalDate.of(2024, 1, 1).plusDays(i % 7));
+            order.setStatus(OrderStatus.NIEUW);
+            order.setRegels(List.of(new OrderRegelDTO("PRD-1001", 1, new BigDecimal("10.00"))));
+            orders.save(order);
+        }
+    }
+
+    private ApiResponse<List<OrderResponseDTO>> page(String sort, String cursor, int page, int size, boolean total) {
+        return PaginationUtil.page(orders.query(), OrderResponseDTO.class, orders::keyOrder, sort, cursor, page, size, total);
+    }
+
+    /** Follows nextCursor from the first page to the last and returns the ids in the order seen. */
+    private List<String> walk(String sort, int size) {
+        List<String> ids = new ArrayList<>();
+        ApiResponse<List<OrderResponseDTO>> response = page(sort, null, 0, size, true);
+        while (true) {
+            response.getData().forEach(order -> ids.add(order.getId()));
+            String next = response.getMeta().getNextCursor();
+            if (next == null) {
+                assertTrue(response.getMeta().isLast());
+                return ids;
+            }
+            response = page(sort, next, 0, size, true);
+        }
+    }
+
+    private List<String> sorted(String sort) {
+        return page(sort, null, 0, 100, true).getData().stream().map(OrderResponseDTO::getId).toList();
+    }
+
+    @Test
+    void cursorWalksEveryRowOnceInTheDefaultIdOrder() {
+        List<String> ids = walk(null, 10);
+        assertEquals(25, ids.size());
+        assertEquals(sorted("id,asc"), ids);
+        assertEquals("ORD-1001", ids.get(0));
+        assertEquals("ORD-1025", ids.get(24));
+    }
+
+    @Test
+    void cursorFollowsADateOrderInBothDirections() {
+        assertEquals(sorted("orderDatum,asc"), walk("orderDatum,asc", 4));
+        assertEquals(sorted("orderDatum,desc"), walk("orderDatum,desc", 4));
+    }
+
+    @Test
+    void cursorOfOneSortIsRefusedForAnother() {
+        String cursor = page("orderDatum,asc", null, 0, 5, true).getMeta().getNextCursor();
+        assertNotNull(cursor);
+        assertThrows(IllegalArgumentException.class, () -> page("orderDatum,desc", cursor, 0, 5, true));
+        assertThrows(IllegalArgumentException.class, () -> page(null, "bm9wZQ", 0, 5, true));
+        assertThrows(IllegalArgumentException.class, () -> page("klantId,asc", cursor, 0, 5, true));
+    }
+
+    @Test
+    void offsetPagesCountOrStopEarly() {
+        ApiResponse<List<OrderResponseDTO>> counted = page(null, null, 2, 10, true);
+        assertEquals(5, counted.getData().size());
+        assertEquals(25L, counted.getMeta().getTotalElements());
+        assertEquals(3, counted.getMeta().getTotalPages());
+        assertTrue(counted.getMeta().isLast());
+
+        ApiResponse<List<OrderResponseDTO>> uncounted = page(null, null, 0, 10, false);
+        assertEquals(10, uncounted.getData().size());
+        assertNull(uncounted.getMeta().getTotalElements());
+        assertFalse(uncounted.getMeta().isLast());
+        // The cursor of an offset page continues where it ended
+        assertEquals("ORD-1011", page(null, uncounted.getMeta().getNextCursor(), 0, 10, true).getData().get(0).getId());
+    }
+}
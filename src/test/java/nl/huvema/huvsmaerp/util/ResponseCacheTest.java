@@ -0,0 +1,100 @@
+package nl.huvema.huvsmaerp.util;
+
+import nl.huvema.huvsmaerp.config.CborConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = {ResponseCache.class, CborConfig.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "huvsma.response-cache.max-size=64KB")
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ResponseCacheTest {
+
+    @Autowired
+    private ResponseCache cache;
+
+    private final AtomicInteger builds = new AtomicInteger();
+
+    private String get(String key, long[] versions, String body) {
+        return new String(cache.get(key, versions, MediaType.APPLICATION_JSON, () -> {
+            builds.incrementAndGet();
+            return body;
+        }), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void newerVersionMakesTheEntryStale() {
+        assertEquals("\"a\"", get("k", new long[] {1}, "a"));
+        assertEquals("\"a\"", get("k", new long[] {1}, "b"));
+        assertEquals(1, builds.get());
+        assertEquals("\"c\"", get("k", new long[] {2}, "c"));
+        assertEquals(2, builds.get());
+    }
+
+    @Test
+    void olderRequestIsServedTheNewerEntryWithoutEvictingIt() {
+        get("k", new long[] {5}, "new");
+        assertEquals("\"new\"", get("k", new long[] {4}, "old"));
+        assertEquals("\"new\"", get("k", new long[] {5}, "again"));
+        assertEquals(1, builds.get());
+    }
+
+    @Test
+    void everyVersionOfAPairCounts() {
+        get("k", new long[] {4, 4}, "a");
+        // Same sum, but the second repository moved on
+        assertEquals("\"b\"", get("k", new long[] {3, 5}, "b"));
+        assertEquals("\"c\"", get("k", new long[] {4, 5}, "c"));
+        assertEquals(3, builds.get());
+    }
+
+    @Test
+    void formatsAndKeysAreSeparateEntries() {
+        byte[] json = cache.get("k", 1, MediaType.APPLICATION_JSON, () -> Map.of("a", 1));
+        cache.get("k", 1, MediaType.APPLICATION_CBOR, () -> Map.of("a", 1));
+        assertEquals("{\"a\":1}", new String(json, StandardCharsets.UTF_8));
+        assertEquals(2, cache.metrics().get("entries"));
+        assertEquals(0L, cache.metrics().get("hits"));
+        assertEquals(65_536L, cache.metrics().get("maxBytes"));
+        assertNotEquals(ResponseCache.key("GET /products", "page", 0, "sort", null), ResponseCache.key("GET /products", "page", 1));
+        assertEquals(ResponseCache.key("GET /products", "naam", ""), ResponseCache.key("GET /products"));
+    }
+
+    @Test
+    void clearDropsEveryEntry() {
+        get("k", new long[] {3}, "a");
+        cache.clear();
+        assertEquals(0, cache.metrics().get("entries"));
+        // After a reset versions may start lower again
+        assertEquals("\"b\"", get("k", new long[] {1}, "b"));
+    }
+
+    @Test
+    void failedBuildIsNotStored() {
+        assertThrows(IllegalStateException.class, () -> cache.get("k", 1, MediaType.APPLICATION_JSON, () -> {
+            throw new IllegalStateException("kapot");
+        }));
+        assertEquals("\"a\"", get("k", new long[] {1}, "a"));
+    }
+
+    @Test
+    void acceptHeaderPicksCborOnlyWhenPreferred() {
+        assertEquals(MediaType.APPLICATION_JSON, ResponseCache.format(null));
+        assertEquals(MediaType.APPLICATION_CBOR, ResponseCache.format("application/cbor"));
+        assertEquals(MediaType.APPLICATION_JSON, ResponseCache.format("application/json, application/cbor;q=0.5"));
+        assertEquals(MediaType.APPLICATION_JSON, ResponseCache.format("*/*, application/cbor;q=0.5"));
+        assertEquals(List.of(MediaType.APPLICATION_CBOR), List.of(ResponseCache.format("application/cbor, */*;q=0.1")));
+    }
+}